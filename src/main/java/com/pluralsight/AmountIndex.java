@@ -0,0 +1,70 @@
+package com.pluralsight;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.*;
+
+/**
+ * # AmountIndex: transactions ordered by amount in integer cents, for the whole ledger and per user.
+ *
+ * Comparing doubles for equality misses inputs like 12.5 vs 12.50 and can't answer "payments over $1,000",
+ * so amount searches go through this index instead: a sorted map from cents to the rows with that amount.
+ * A min/max lookup is a subMap view, O(log n + k) for k matching rows.
+ */
+public class AmountIndex {
+
+    private final TreeMap<Long, List<Transaction>> global = new TreeMap<>();
+    private final Map<Integer, TreeMap<Long, List<Transaction>>> byUser = new HashMap<>();
+
+    public synchronized void add(Transaction record) {
+        long cents = record.getAmountCents();
+        global.computeIfAbsent(cents, c -> new ArrayList<>(1)).add(record);
+        byUser.computeIfAbsent(record.getUserId(), id -> new TreeMap<>())
+                .computeIfAbsent(cents, c -> new ArrayList<>(1)).add(record);
+    }
+
+    /**
+     * All transactions with minCents <= amount <= maxCents (either bound may be null for open-ended)
+     * for one user, or the whole ledger when userId is null. Rows come back in amount order.
+     */
+    public synchronized List<Transaction> range(Integer userId, Long minCents, Long maxCents) {
+        TreeMap<Long, List<Transaction>> index = userId == null ? global : byUser.get(userId);
+        if (index == null) return List.of();
+        if (minCents != null && maxCents != null && minCents > maxCents) {
+            Long tmp = minCents;
+            minCents = maxCents;
+            maxCents = tmp;
+        }
+        SortedMap<Long, List<Transaction>> slice;
+        if (minCents == null && maxCents == null) slice = index;
+        else if (minCents == null) slice = index.headMap(maxCents, true);
+        else if (maxCents == null) slice = index.tailMap(minCents, true);
+        else slice = index.subMap(minCents, true, maxCents, true);
+
+        List<Transaction> out = new ArrayList<>();
+        for (List<Transaction> rows : slice.values()) out.addAll(rows);
+        return out;
+    }
+
+    // Digits allowed before the decimal point: anything longer can't be a number of cents that fits in a long
+    private static final int MAX_INTEGER_DIGITS = 16;
+
+    /**
+     * Parses a user-entered amount like "12.5", "-1,000" or "$12.50" into cents without going through a double.
+     * Returns null for blank input and throws NumberFormatException for anything that isn't a number, uses exponent
+     * notation, or has more than MAX_INTEGER_DIGITS digits before the point. The input comes straight from query
+     * strings, and rounding something like 1e20000000 to cents would take BigDecimal seconds of CPU.
+     */
+    public static Long parseCents(String s) {
+        if (s == null || s.isBlank()) return null;
+        String cleaned = s.trim().replace(",", "").replace("$", "");
+        if (cleaned.indexOf('e') >= 0 || cleaned.indexOf('E') >= 0) {
+            throw new NumberFormatException("exponent notation isn't accepted for amounts: " + s);
+        }
+        BigDecimal amount = new BigDecimal(cleaned);
+        if (amount.precision() - amount.scale() > MAX_INTEGER_DIGITS) {
+            throw new NumberFormatException("amount too large: " + s);
+        }
+        return amount.movePointRight(2).setScale(0, RoundingMode.HALF_UP).longValueExact();
+    }
+}
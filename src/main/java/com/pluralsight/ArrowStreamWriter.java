@@ -0,0 +1,343 @@
+package com.pluralsight;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.ToLongFunction;
+
+/**
+ * # ArrowStreamWriter: transactions as an Arrow IPC stream, column by column.
+ *
+ * Same columns as TransactionDto, with Arrow types instead of strings: date (date32, days), time (time32,
+ * seconds), description, vendor and type (utf8), amount and runningBalance (float64). Rows go out in record
+ * batches of BATCH_ROWS, so memory stays at one batch however many rows are written. Consumers read it with any
+ * Arrow library (pyarrow.ipc.open_stream, ArrowStreamReader, ...).
+ *
+ * The stream is written directly instead of through Arrow Java, which would pull in netty and flatbuffers and
+ * needs --add-opens on JDK 17 just to allocate a buffer. The Arrow metadata (Schema and RecordBatch messages) is
+ * FlatBuffers; the small encoder at the bottom writes exactly the tables we need. Nothing is nullable, so no
+ * validity bitmaps are written.
+ */
+final class ArrowStreamWriter {
+
+    static final String CONTENT_TYPE = "application/vnd.apache.arrow.stream";
+    static final int BATCH_ROWS = 65_536;
+
+    // Schema.fbs / Message.fbs constants
+    private static final short METADATA_V5 = 4;
+    private static final byte HEADER_SCHEMA = 1, HEADER_RECORD_BATCH = 3;
+    private static final byte TYPE_FLOAT = 3, TYPE_UTF8 = 5, TYPE_DATE = 8, TYPE_TIME = 9;
+    private static final short DOUBLE = 2, DAY = 0, SECOND = 0;
+
+    private ArrowStreamWriter() {
+    }
+
+    /**
+     * Writes rows to out. runningBalanceCents gives each row's runningBalance (like toDto in WebServer).
+     * out is flushed but not closed.
+     */
+    static void write(OutputStream out, List<Transaction> rows, ToLongFunction<Transaction> runningBalanceCents)
+            throws IOException {
+        writeMessage(out, schema(), null);
+        for (int from = 0; from < rows.size(); from += BATCH_ROWS) {
+            List<Transaction> batch = rows.subList(from, Math.min(rows.size(), from + BATCH_ROWS));
+            writeBatch(out, batch, runningBalanceCents);
+        }
+        out.write(new byte[]{-1, -1, -1, -1, 0, 0, 0, 0}); // end of stream
+        out.flush();
+    }
+
+    private static Table schema() {
+        List<Node> fields = List.of(
+                field("date", TYPE_DATE, new Table().addShort(0, DAY)),
+                field("time", TYPE_TIME, new Table().addShort(0, SECOND).addInt(1, 32)),
+                field("description", TYPE_UTF8, new Table()),
+                field("vendor", TYPE_UTF8, new Table()),
+                field("amount", TYPE_FLOAT, new Table().addShort(0, DOUBLE)),
+                field("type", TYPE_UTF8, new Table()),
+                field("runningBalance", TYPE_FLOAT, new Table().addShort(0, DOUBLE)));
+        Table schema = new Table().addShort(0, (short) 0) // little endian
+                .addChild(1, new OffsetVector(fields));
+        return message(HEADER_SCHEMA, schema, 0);
+    }
+
+    private static Table field(String name, byte typeType, Table type) {
+        return new Table().addChild(0, new Str(name)).addBool(1, false).addByte(2, typeType).addChild(3, type)
+                .addChild(5, new OffsetVector(List.of()));
+    }
+
+    private static Table message(byte headerType, Table header, long bodyLength) {
+        return new Table().addShort(0, METADATA_V5).addByte(1, headerType).addChild(2, header).addLong(3, bodyLength);
+    }
+
+    private static void writeBatch(OutputStream out, List<Transaction> rows, ToLongFunction<Transaction> runningBalanceCents)
+            throws IOException {
+        int n = rows.size();
+        ByteBuffer dates = little(n * 4);
+        ByteBuffer times = little(n * 4);
+        ByteBuffer amounts = little(n * 8);
+        ByteBuffer balances = little(n * 8);
+        Utf8Column descriptions = new Utf8Column(n);
+        Utf8Column vendors = new Utf8Column(n);
+        Utf8Column types = new Utf8Column(n);
+        for (Transaction t : rows) {
+            dates.putInt((int) t.getDate().toEpochDay());
+            times.putInt(t.getTime().toSecondOfDay());
+            descriptions.add(t.getDescription());
+            vendors.add(t.getVendor());
+            amounts.putDouble(t.getAmount());
+            types.add(t.transactionType());
+            balances.putDouble(runningBalanceCents.applyAsLong(t) / 100.0);
+        }
+
+        // body: every buffer padded to 8 bytes, in field order (validity, then offsets/data)
+        Body body = new Body();
+        body.column(dates);
+        body.column(times);
+        descriptions.addTo(body);
+        vendors.addTo(body);
+        body.column(amounts);
+        types.addTo(body);
+        body.column(balances);
+
+        ByteBuffer nodes = little(7 * 16);
+        for (int i = 0; i < 7; i++) nodes.putLong(n).putLong(0); // length, null count
+        Table recordBatch = new Table().addLong(0, n)
+                .addChild(1, new StructVector(7, nodes.array()))
+                .addChild(2, new StructVector(body.buffers.size() / 2, body.bufferTable()));
+        writeMessage(out, message(HEADER_RECORD_BATCH, recordBatch, body.length), body);
+    }
+
+    // Continuation marker, metadata length, FlatBuffer padded to 8, then the body
+    private static void writeMessage(OutputStream out, Table message, Body body) throws IOException {
+        byte[] metadata = new Flat().finish(message);
+        int padded = (metadata.length + 7) & ~7;
+        out.write(little(8).putInt(-1).putInt(padded).array());
+        out.write(metadata);
+        out.write(new byte[padded - metadata.length]);
+        if (body != null) body.writeTo(out);
+    }
+
+    private static ByteBuffer little(int size) {
+        return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static final class Utf8Column {
+        private final ByteBuffer offsets;
+        private byte[] data = new byte[1024];
+        private int length;
+
+        Utf8Column(int rows) {
+            offsets = little((rows + 1) * 4).putInt(0);
+        }
+
+        void add(String value) {
+            byte[] bytes = value == null ? new byte[0] : value.getBytes(StandardCharsets.UTF_8);
+            if (length + bytes.length > data.length) data = Arrays.copyOf(data, Math.max(data.length * 2, length + bytes.length));
+            System.arraycopy(bytes, 0, data, length, bytes.length);
+            length += bytes.length;
+            offsets.putInt(length);
+        }
+
+        void addTo(Body body) {
+            body.empty(); // validity
+            body.add(offsets.array(), offsets.position());
+            body.add(data, length);
+        }
+    }
+
+    // The buffers of a record batch and their (offset, length) entries
+    private static final class Body {
+        final List<byte[]> chunks = new ArrayList<>();
+        final List<Long> buffers = new ArrayList<>();
+        long length;
+
+        void empty() {
+            buffers.add(length);
+            buffers.add(0L);
+        }
+
+        // a fixed-width column: validity, then the values
+        void column(ByteBuffer values) {
+            empty();
+            add(values.array(), values.position());
+        }
+
+        void add(byte[] bytes, int size) {
+            buffers.add(length);
+            buffers.add((long) size);
+            chunks.add(size == bytes.length ? bytes : Arrays.copyOf(bytes, size));
+            int padding = (8 - (size & 7)) & 7;
+            if (padding > 0) chunks.add(new byte[padding]);
+            length += size + padding;
+        }
+
+        byte[] bufferTable() {
+            ByteBuffer table = little(buffers.size() * 8);
+            for (long value : buffers) table.putLong(value);
+            return table.array();
+        }
+
+        void writeTo(OutputStream out) throws IOException {
+            for (byte[] chunk : chunks) out.write(chunk);
+        }
+    }
+
+    // ---- just enough FlatBuffers to write Arrow metadata ----
+    // Objects are laid out front to back: a table's vtable, then the table, then the things it points to, so every
+    // offset points forward as FlatBuffers requires.
+
+    private interface Node {
+    }
+
+    private record Str(String value) implements Node {
+    }
+
+    private record OffsetVector(List<? extends Node> items) implements Node {
+    }
+
+    // count structs of 16 bytes each (FieldNode and Buffer are both two longs)
+    private record StructVector(int count, byte[] raw) implements Node {
+    }
+
+    private static final class Table implements Node {
+        // slot -> size (1, 2, 4, 8) and value, or a child
+        final List<int[]> slots = new ArrayList<>(); // {slot, size}
+        final List<Object> values = new ArrayList<>();
+
+        Table addByte(int slot, byte value) {
+            return put(slot, 1, value);
+        }
+
+        Table addBool(int slot, boolean value) {
+            return put(slot, 1, (byte) (value ? 1 : 0));
+        }
+
+        Table addShort(int slot, short value) {
+            return put(slot, 2, value);
+        }
+
+        Table addInt(int slot, int value) {
+            return put(slot, 4, value);
+        }
+
+        Table addLong(int slot, long value) {
+            return put(slot, 8, value);
+        }
+
+        Table addChild(int slot, Node child) {
+            return put(slot, 4, child);
+        }
+
+        private Table put(int slot, int size, Object value) {
+            slots.add(new int[]{slot, size});
+            values.add(value);
+            return this;
+        }
+    }
+
+    private static final class Flat {
+        private ByteBuffer buffer = little(1024);
+
+        byte[] finish(Node root) {
+            buffer.putInt(0); // root offset, patched below
+            int rootAt = write(root);
+            buffer.putInt(0, rootAt);
+            return Arrays.copyOf(buffer.array(), buffer.position());
+        }
+
+        private int write(Node node) {
+            if (node instanceof Table table) return writeTable(table);
+            if (node instanceof Str str) {
+                byte[] bytes = str.value().getBytes(StandardCharsets.UTF_8);
+                align(4, 0);
+                int at = buffer.position();
+                ensure(4 + bytes.length + 1);
+                buffer.putInt(bytes.length).put(bytes).put((byte) 0);
+                return at;
+            }
+            if (node instanceof OffsetVector vector) {
+                align(4, 0);
+                int at = buffer.position();
+                ensure(4 + vector.items().size() * 4);
+                buffer.putInt(vector.items().size());
+                int first = buffer.position();
+                for (int i = 0; i < vector.items().size(); i++) buffer.putInt(0);
+                for (int i = 0; i < vector.items().size(); i++) {
+                    int slotAt = first + i * 4;
+                    buffer.putInt(slotAt, write(vector.items().get(i)) - slotAt);
+                }
+                return at;
+            }
+            StructVector structs = (StructVector) node;
+            align(8, 4); // the elements (after the length) start 8-aligned
+            int at = buffer.position();
+            ensure(4 + structs.raw().length);
+            buffer.putInt(structs.count()).put(structs.raw());
+            return at;
+        }
+
+        private int writeTable(Table table) {
+            int slotCount = 0;
+            for (int[] slot : table.slots) slotCount = Math.max(slotCount, slot[0] + 1);
+
+            // table layout: soffset to the vtable, then the fields by size (8, 4, 2, 1) so each is aligned
+            int[] fieldOffsets = new int[table.slots.size()];
+            int size = 4;
+            for (int width = 8; width >= 1; width /= 2) {
+                for (int i = 0; i < table.slots.size(); i++) {
+                    if (table.slots.get(i)[1] != width) continue;
+                    size = (size + width - 1) & -width;
+                    fieldOffsets[i] = size;
+                    size += width;
+                }
+            }
+
+            align(2, 0);
+            int vtableAt = buffer.position();
+            ensure(4 + slotCount * 2 + 8 + size);
+            buffer.putShort((short) (4 + slotCount * 2)).putShort((short) size);
+            short[] vtable = new short[slotCount];
+            for (int i = 0; i < table.slots.size(); i++) vtable[table.slots.get(i)[0]] = (short) fieldOffsets[i];
+            for (short offset : vtable) buffer.putShort(offset);
+
+            align(8, 0);
+            int tableAt = buffer.position();
+            ensure(size);
+            buffer.putInt(tableAt - vtableAt);
+            buffer.put(new byte[size - 4]);
+            List<int[]> children = new ArrayList<>(); // {position, index}
+            for (int i = 0; i < table.slots.size(); i++) {
+                int at = tableAt + fieldOffsets[i];
+                Object value = table.values.get(i);
+                if (value instanceof Node) children.add(new int[]{at, i});
+                else if (value instanceof Byte b) buffer.put(at, b);
+                else if (value instanceof Short s) buffer.putShort(at, s);
+                else if (value instanceof Integer v) buffer.putInt(at, v);
+                else buffer.putLong(at, (Long) value);
+            }
+            for (int[] child : children) {
+                buffer.putInt(child[0], write((Node) table.values.get(child[1])) - child[0]);
+            }
+            return tableAt;
+        }
+
+        // pads so that (position + shift) is a multiple of alignment
+        private void align(int alignment, int shift) {
+            ensure(alignment);
+            while ((buffer.position() + shift) % alignment != 0) buffer.put((byte) 0);
+        }
+
+        private void ensure(int more) {
+            if (buffer.remaining() >= more) return;
+            ByteBuffer bigger = little(Math.max(buffer.capacity() * 2, buffer.position() + more));
+            bigger.put(buffer.array(), 0, buffer.position());
+            buffer = bigger;
+        }
+    }
+}
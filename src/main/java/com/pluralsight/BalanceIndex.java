@@ -0,0 +1,255 @@
+package com.pluralsight;
+
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * # BalanceIndex: running balances over the time-ordered ledger.
+ *
+ * Keeps one series for the whole ledger and one per user. A series groups its transactions by day: the days that
+ * have rows, oldest first, each holding its rows sorted by time with running sums, plus two FenwickTrees over the
+ * days (amounts in integer cents, and row counts). So:
+ * - net balance or row count between two dates is two binary searches over the days and two prefix sums: O(log D)
+ * - running balance as of a transaction adds the sums of the earlier days to its own day's running sum: O(log D)
+ * - appending a transaction is an O(log D) tree update plus an insert into its day's (short) list, in any order
+ * D is the number of distinct days with rows, not the number of rows. The ledger file isn't guaranteed to be in
+ * time order and backdated rows arrive through POST, so order only matters for a row on a day the series hasn't
+ * seen yet that falls before its newest day: the day is inserted in place, which shifts the later days, so the two
+ * trees are rebuilt (O(D)) by the next query. Until then appends only touch the days, so a progressive (newest
+ * first) load or a burst of backdated rows costs one O(D) rebuild, not one per row.
+ *
+ * All methods are synchronized because the index is updated from the append path and queried from web threads.
+ */
+public class BalanceIndex {
+
+    // Oldest first, ties broken by time
+    static final Comparator<Transaction> BY_DATETIME_ASCENDING =
+            Comparator.comparing(Transaction::getDate).thenComparing(Transaction::getTime);
+
+    private final Series global = new Series();
+    private final Map<Integer, Series> byUser = new HashMap<>();
+
+    public synchronized void add(Transaction record) {
+        global.add(record);
+        byUser.computeIfAbsent(record.getUserId(), id -> new Series()).add(record);
+    }
+
+    /**
+     * Net balance in cents of all transactions dated start..end inclusive.
+     * userId null means the whole ledger; a null start or end leaves that side open.
+     */
+    public synchronized long balanceCents(Integer userId, LocalDate start, LocalDate end) {
+        Series series = series(userId);
+        if (series == null) return 0;
+        return series.balanceCents(start, end);
+    }
+
+    // Number of transactions dated start..end inclusive (same arguments as balanceCents)
+    public synchronized int count(Integer userId, LocalDate start, LocalDate end) {
+        Series series = series(userId);
+        if (series == null) return 0;
+        return Math.max(0, series.endOf(end) - series.startOf(start));
+    }
+
+    /**
+     * Balance in cents right after the given transaction: everything dated at or before its date/time.
+     * Transactions with the exact same timestamp all report the same running balance.
+     */
+    public synchronized long runningBalanceCents(Integer userId, Transaction record) {
+        Series series = series(userId);
+        if (series == null) return 0;
+        return series.runningBalanceCents(record.getDate(), record.getTime());
+    }
+
+    /**
+     * Pages through a user's (null = everyone) rows newest first without copying the series. Positions count rows
+     * from the newest one (0 = newest). Appends up to max rows that pass filter, starting at position from, and
+     * returns the position right after the last row it looked at (where the next page starts).
+     */
+    public synchronized int pageNewestFirst(Integer userId, int from, int max, Predicate<Transaction> filter,
+                                            List<Transaction> out) {
+        Series series = series(userId);
+        if (series == null) return from;
+        return series.pageNewestFirst(from, max, filter, out);
+    }
+
+    // Newest-first position (see pageNewestFirst) of the first row dated on or before date
+    public synchronized int newestFirstPositionOf(Integer userId, LocalDate date) {
+        Series series = series(userId);
+        if (series == null) return 0;
+        return series.size - series.endOf(date);
+    }
+
+    // the series for a user (or the global one for null) with its trees up to date
+    private Series series(Integer userId) {
+        Series series = userId == null ? global : byUser.get(userId);
+        if (series != null) series.settle();
+        return series;
+    }
+
+    // One day's rows sorted by time, with prefix[k] = cents of rows 0..k
+    private static final class Day {
+        private Transaction[] rows;
+        private long[] prefix;
+        private int count;
+
+        Day(Transaction first) {
+            rows = new Transaction[]{first};
+            prefix = new long[]{first.getAmountCents()};
+            count = 1;
+        }
+
+        // Inserts after any rows with the same time, so equal timestamps keep their arrival order
+        void insert(Transaction record) {
+            int at = upperBound(record.getTime());
+            if (count == rows.length) {
+                rows = Arrays.copyOf(rows, count * 2);
+                prefix = Arrays.copyOf(prefix, count * 2);
+            }
+            System.arraycopy(rows, at, rows, at + 1, count - at);
+            rows[at] = record;
+            count++;
+            for (int k = at; k < count; k++) prefix[k] = (k == 0 ? 0 : prefix[k - 1]) + rows[k].getAmountCents();
+        }
+
+        long total() {
+            return prefix[count - 1];
+        }
+
+        // cents of the rows at or before time
+        long sumThrough(LocalTime time) {
+            int n = upperBound(time);
+            return n == 0 ? 0 : prefix[n - 1];
+        }
+
+        // number of rows at or before time
+        private int upperBound(LocalTime time) {
+            int lo = 0, hi = count;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (rows[mid].getTime().compareTo(time) <= 0) lo = mid + 1;
+                else hi = mid;
+            }
+            return lo;
+        }
+    }
+
+    // A user's (or the whole ledger's) rows grouped by day, with Fenwick trees of cents and counts over the days
+    private static final class Series {
+        private long[] dayKeys = new long[16]; // epoch days, ascending
+        private Day[] days = new Day[16];
+        private int dayCount;
+        private int size;
+        private final FenwickTree sums = new FenwickTree();
+        private final FenwickTree counts = new FenwickTree();
+        private boolean stale; // a day was inserted before the newest one; the trees are rebuilt before the next query
+
+        void add(Transaction record) {
+            long key = record.getDate().toEpochDay();
+            int at = Arrays.binarySearch(dayKeys, 0, dayCount, key);
+            if (at >= 0) {
+                days[at].insert(record);
+                if (!stale) {
+                    sums.add(at, record.getAmountCents());
+                    counts.add(at, 1);
+                }
+            } else {
+                at = -at - 1;
+                if (dayCount == dayKeys.length) {
+                    dayKeys = Arrays.copyOf(dayKeys, dayCount * 2);
+                    days = Arrays.copyOf(days, dayCount * 2);
+                }
+                System.arraycopy(dayKeys, at, dayKeys, at + 1, dayCount - at);
+                System.arraycopy(days, at, days, at + 1, dayCount - at);
+                dayKeys[at] = key;
+                days[at] = new Day(record);
+                dayCount++;
+                if (at < dayCount - 1) {
+                    stale = true;
+                } else if (!stale) {
+                    sums.append(record.getAmountCents());
+                    counts.append(1);
+                }
+            }
+            size++;
+        }
+
+        // Rebuilds the trees if a day was inserted before the newest one since the last query: O(D)
+        void settle() {
+            if (!stale) return;
+            long[] cents = new long[dayCount];
+            long[] rows = new long[dayCount];
+            for (int k = 0; k < dayCount; k++) {
+                cents[k] = days[k].total();
+                rows[k] = days[k].count;
+            }
+            sums.rebuild(cents, dayCount);
+            counts.rebuild(rows, dayCount);
+            stale = false;
+        }
+
+        // number of days before the given date / on or before it
+        private int daysBefore(LocalDate date) {
+            int at = Arrays.binarySearch(dayKeys, 0, dayCount, date.toEpochDay());
+            return at >= 0 ? at : -at - 1;
+        }
+
+        private int daysThrough(LocalDate date) {
+            int at = Arrays.binarySearch(dayKeys, 0, dayCount, date.toEpochDay());
+            return at >= 0 ? at + 1 : -at - 1;
+        }
+
+        // net cents of the rows dated start..end inclusive (either may be null for open)
+        long balanceCents(LocalDate start, LocalDate end) {
+            return sums.prefixSum(end == null ? dayCount : daysThrough(end))
+                    - sums.prefixSum(start == null ? 0 : daysBefore(start));
+        }
+
+        // number of rows dated before start (0 when start is open)
+        int startOf(LocalDate start) {
+            return start == null ? 0 : (int) counts.prefixSum(daysBefore(start));
+        }
+
+        // number of rows dated on or before end (all rows when end is open)
+        int endOf(LocalDate end) {
+            return end == null ? size : (int) counts.prefixSum(daysThrough(end));
+        }
+
+        // cents of every row at or before date/time
+        long runningBalanceCents(LocalDate date, LocalTime time) {
+            int before = daysBefore(date);
+            long cents = sums.prefixSum(before);
+            if (before < dayCount && dayKeys[before] == date.toEpochDay()) cents += days[before].sumThrough(time);
+            return cents;
+        }
+
+        // Same as BalanceIndex.pageNewestFirst for this series
+        int pageNewestFirst(int from, int max, Predicate<Transaction> filter, List<Transaction> out) {
+            int position = Math.max(0, from);
+            int index = size - 1 - position; // oldest-first index of the row at position
+            if (index < 0) return position;
+            // the day holding that row: the first day whose running count passes index
+            int lo = 0, hi = dayCount - 1;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (counts.prefixSum(mid + 1) > index) hi = mid;
+                else lo = mid + 1;
+            }
+            int row = index - (int) counts.prefixSum(lo);
+            int added = 0;
+            for (int d = lo; d >= 0 && added < max; d--) {
+                Transaction[] rows = days[d].rows;
+                for (int i = d == lo ? row : days[d].count - 1; i >= 0 && added < max; i--, position++) {
+                    Transaction t = rows[i];
+                    if (filter.test(t)) {
+                        out.add(t);
+                        added++;
+                    }
+                }
+            }
+            return position;
+        }
+    }
+}
@@ -0,0 +1,423 @@
+package com.pluralsight;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * # ColdSegment: one immutable file of old transactions, stored column by column in compressed blocks.
+ *
+ * Layout: "LSEG" + version, then the blocks, then a footer with one zone map per block, then the footer's offset
+ * and "LSEG" again. A block holds up to blockRows rows, each column encoded on its own and the whole block
+ * deflated:
+ * - epoch day and second of day as zig-zag varint deltas from the previous row (rows are mostly in time order, so
+ *   these are usually one byte)
+ * - amount in cents as a zig-zag varint, user id as a zig-zag varint
+ * - vendor and description through a dictionary local to the block (the strings once, then a varint code per row)
+ * Every block decodes on its own, so a query only inflates the blocks whose zone map (min/max of date, amount and
+ * user id) overlaps it. Rows are built only for the matching rows of those blocks.
+ */
+final class ColdSegment {
+
+    private static final int MAGIC = 0x4C534547; // "LSEG"
+    private static final int VERSION = 1;
+    private static final int TRAILER_BYTES = 12;
+
+    // Per-block zone map plus where the block is
+    record Block(long offset, int compressedLength, int rawLength, int rows, int minDay, int maxDay,
+                 long minCents, long maxCents, int minUser, int maxUser) {
+
+        boolean mightMatch(Query query) {
+            return maxDay >= query.fromDay() && minDay <= query.toDay()
+                    && maxCents >= query.minCents() && minCents <= query.maxCents()
+                    && (query.userId() == null || (query.userId() >= minUser && query.userId() <= maxUser));
+        }
+    }
+
+    // Inclusive bounds; userId null = everyone
+    record Query(int fromDay, int toDay, Integer userId, long minCents, long maxCents) {
+
+        static final Query ALL = new Query(Integer.MIN_VALUE, Integer.MAX_VALUE, null, Long.MIN_VALUE, Long.MAX_VALUE);
+
+        boolean matches(int day, long cents, int user) {
+            return day >= fromDay && day <= toDay && cents >= minCents && cents <= maxCents
+                    && (userId == null || userId == user);
+        }
+    }
+
+    private final Path path;
+    private final List<Block> blocks;
+
+    private ColdSegment(Path path, List<Block> blocks) {
+        this.path = path;
+        this.blocks = blocks;
+    }
+
+    // Reads the footer; blocks are only read when a scan needs them
+    static ColdSegment open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < 8 + TRAILER_BYTES) throw new IOException(path + " is not a segment");
+            ByteBuffer trailer = readFully(channel, size - TRAILER_BYTES, TRAILER_BYTES);
+            long footerOffset = trailer.getLong();
+            if (trailer.getInt() != MAGIC) throw new IOException(path + " is not a segment");
+            ByteBuffer header = readFully(channel, 0, 8);
+            if (header.getInt() != MAGIC || header.getInt() != VERSION) throw new IOException(path + ": unknown segment version");
+
+            ByteBuffer footer = readFully(channel, footerOffset, (int) (size - TRAILER_BYTES - footerOffset));
+            int count = footer.getInt();
+            List<Block> blocks = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                blocks.add(new Block(footer.getLong(), footer.getInt(), footer.getInt(), footer.getInt(),
+                        footer.getInt(), footer.getInt(), footer.getLong(), footer.getLong(), footer.getInt(),
+                        footer.getInt()));
+            }
+            return new ColdSegment(path, List.copyOf(blocks));
+        }
+    }
+
+    Path path() {
+        return path;
+    }
+
+    List<Block> blocks() {
+        return blocks;
+    }
+
+    long rows() {
+        long rows = 0;
+        for (Block block : blocks) rows += block.rows();
+        return rows;
+    }
+
+    /**
+     * Hands every row matching query to sink, inflating only the blocks whose zone map overlaps it.
+     * Returns how many blocks were inflated.
+     */
+    int scan(Query query, Consumer<Transaction> sink) throws IOException {
+        int read = 0;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            Inflater inflater = new Inflater();
+            try {
+                for (Block block : blocks) {
+                    if (!block.mightMatch(query)) continue;
+                    read++;
+                    decode(inflate(channel, inflater, block), query, sink);
+                }
+            } finally {
+                inflater.end();
+            }
+        }
+        return read;
+    }
+
+    /**
+     * Reads the segment back one block at a time, for callers that walk it alongside other rows in the same order
+     * (the archive's check for rows an earlier run already archived). Close it when done.
+     */
+    Cursor cursor() throws IOException {
+        return new Cursor();
+    }
+
+    final class Cursor implements Closeable {
+        private final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        private final Inflater inflater = new Inflater();
+        private int nextBlock;
+        private List<Transaction> rows = List.of(); // the block being walked
+        private int at;
+
+        private Cursor() throws IOException {
+        }
+
+        /**
+         * Moves past every row that comes before t in order, which must be the order the segment was written in and
+         * start with the date (LedgerCompactor.FILE_ORDER). Returns true if the row it stops at equals t. Blocks
+         * whose zone map ends before t's date are skipped without inflating them.
+         */
+        boolean skipTo(Transaction t, Comparator<Transaction> order) throws IOException {
+            int day = (int) t.getDate().toEpochDay();
+            while (true) {
+                for (; at < rows.size(); at++) {
+                    int c = order.compare(rows.get(at), t);
+                    if (c >= 0) return c == 0;
+                }
+                while (nextBlock < blocks.size() && blocks.get(nextBlock).maxDay() < day) nextBlock++;
+                if (nextBlock == blocks.size()) return false;
+                List<Transaction> decoded = new ArrayList<>(blocks.get(nextBlock).rows());
+                decode(inflate(channel, inflater, blocks.get(nextBlock++)), Query.ALL, decoded::add);
+                rows = decoded;
+                at = 0;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            inflater.end();
+            channel.close();
+        }
+    }
+
+    private byte[] inflate(FileChannel channel, Inflater inflater, Block block) throws IOException {
+        byte[] raw = new byte[block.rawLength()];
+        inflater.reset();
+        inflater.setInput(readFully(channel, block.offset(), block.compressedLength()));
+        int n = 0;
+        try {
+            while (n < raw.length && !inflater.finished()) {
+                int got = inflater.inflate(raw, n, raw.length - n);
+                if (got == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+                n += got;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException(path + ": corrupt block", e);
+        }
+        if (n != raw.length) throw new IOException(path + ": block at " + block.offset() + " is truncated");
+        return raw;
+    }
+
+    private static void decode(byte[] raw, Query query, Consumer<Transaction> sink) throws IOException {
+        VarIn in = new VarIn(raw);
+        int rows = (int) in.varLong();
+        int[] days = new int[rows];
+        int[] seconds = new int[rows];
+        long[] cents = new long[rows];
+        int[] users = new int[rows];
+        long previous = 0;
+        for (int i = 0; i < rows; i++) days[i] = (int) (previous += in.zigZag());
+        previous = 0;
+        for (int i = 0; i < rows; i++) seconds[i] = (int) (previous += in.zigZag());
+        for (int i = 0; i < rows; i++) cents[i] = in.zigZag();
+        for (int i = 0; i < rows; i++) users[i] = (int) in.zigZag();
+        String[] vendorDictionary = in.dictionary();
+        int[] vendors = in.codes(rows);
+        String[] descriptionDictionary = in.dictionary();
+        int[] descriptions = in.codes(rows);
+
+        for (int i = 0; i < rows; i++) {
+            if (!query.matches(days[i], cents[i], users[i])) continue;
+            sink.accept(new Transaction(LocalDate.ofEpochDay(days[i]), LocalTime.ofSecondOfDay(seconds[i]),
+                    descriptionDictionary[descriptions[i]], vendorDictionary[vendors[i]], cents[i] / 100.0, users[i]));
+        }
+    }
+
+    private static ByteBuffer readFully(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) throw new IOException("unexpected end of segment");
+        }
+        return buffer.flip();
+    }
+
+    /**
+     * Writes a segment one block at a time, so memory stays at one block whatever the segment's size.
+     * Nothing is readable until close() has written the footer.
+     */
+    static final class Writer implements Closeable {
+        private final FileChannel channel;
+        private final int blockRows;
+        private final List<Block> blocks = new ArrayList<>();
+        private final List<Transaction> pending;
+        private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        private long rows;
+
+        Writer(Path path, int blockRows) throws IOException {
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.WRITE);
+            this.blockRows = blockRows;
+            this.pending = new ArrayList<>(blockRows);
+            channel.write(ByteBuffer.allocate(8).putInt(MAGIC).putInt(VERSION).flip());
+        }
+
+        void add(Transaction record) throws IOException {
+            pending.add(record);
+            rows++;
+            if (pending.size() == blockRows) flushBlock();
+        }
+
+        long rows() {
+            return rows;
+        }
+
+        private void flushBlock() throws IOException {
+            if (pending.isEmpty()) return;
+            int minDay = Integer.MAX_VALUE, maxDay = Integer.MIN_VALUE;
+            long minCents = Long.MAX_VALUE, maxCents = Long.MIN_VALUE;
+            int minUser = Integer.MAX_VALUE, maxUser = Integer.MIN_VALUE;
+
+            VarOut out = new VarOut();
+            out.varLong(pending.size());
+            long previous = 0;
+            for (Transaction t : pending) {
+                int day = (int) t.getDate().toEpochDay();
+                minDay = Math.min(minDay, day);
+                maxDay = Math.max(maxDay, day);
+                out.zigZag(day - previous);
+                previous = day;
+            }
+            previous = 0;
+            for (Transaction t : pending) {
+                int second = t.getTime().toSecondOfDay();
+                out.zigZag(second - previous);
+                previous = second;
+            }
+            for (Transaction t : pending) {
+                long cents = t.getAmountCents();
+                minCents = Math.min(minCents, cents);
+                maxCents = Math.max(maxCents, cents);
+                out.zigZag(cents);
+            }
+            for (Transaction t : pending) {
+                minUser = Math.min(minUser, t.getUserId());
+                maxUser = Math.max(maxUser, t.getUserId());
+                out.zigZag(t.getUserId());
+            }
+            out.dictionaryColumn(pending, Transaction::getVendor);
+            out.dictionaryColumn(pending, Transaction::getDescription);
+
+            byte[] raw = out.toByteArray();
+            deflater.reset();
+            deflater.setInput(raw);
+            deflater.finish();
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(raw.length / 3 + 64);
+            byte[] chunk = new byte[64 * 1024];
+            while (!deflater.finished()) compressed.write(chunk, 0, deflater.deflate(chunk));
+
+            long offset = channel.position();
+            channel.write(ByteBuffer.wrap(compressed.toByteArray()));
+            blocks.add(new Block(offset, compressed.size(), raw.length, pending.size(), minDay, maxDay,
+                    minCents, maxCents, minUser, maxUser));
+            pending.clear();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                flushBlock();
+                ByteArrayOutputStream footerBytes = new ByteArrayOutputStream(4 + blocks.size() * 52);
+                DataOutputStream footer = new DataOutputStream(footerBytes);
+                footer.writeInt(blocks.size());
+                for (Block b : blocks) {
+                    footer.writeLong(b.offset());
+                    footer.writeInt(b.compressedLength());
+                    footer.writeInt(b.rawLength());
+                    footer.writeInt(b.rows());
+                    footer.writeInt(b.minDay());
+                    footer.writeInt(b.maxDay());
+                    footer.writeLong(b.minCents());
+                    footer.writeLong(b.maxCents());
+                    footer.writeInt(b.minUser());
+                    footer.writeInt(b.maxUser());
+                }
+                long footerOffset = channel.position();
+                channel.write(ByteBuffer.wrap(footerBytes.toByteArray()));
+                channel.write(ByteBuffer.allocate(TRAILER_BYTES).putLong(footerOffset).putInt(MAGIC).flip());
+                channel.force(true);
+            } finally {
+                deflater.end();
+                channel.close();
+            }
+        }
+    }
+
+    // Unsigned LEB128 varints, zig-zag for signed values, and dictionary-coded string columns
+    private static final class VarOut extends ByteArrayOutputStream {
+
+        VarOut() {
+            super(16 * 1024);
+        }
+
+        void varLong(long value) {
+            while ((value & ~0x7FL) != 0) {
+                write((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            write((int) value);
+        }
+
+        void zigZag(long value) {
+            varLong((value << 1) ^ (value >> 63));
+        }
+
+        void dictionaryColumn(List<Transaction> rows, Function<Transaction, String> column) {
+            Map<String, Integer> codes = new HashMap<>();
+            List<String> dictionary = new ArrayList<>();
+            int[] rowCodes = new int[rows.size()];
+            for (int i = 0; i < rows.size(); i++) {
+                String value = column.apply(rows.get(i));
+                Integer code = codes.get(value);
+                if (code == null) {
+                    code = dictionary.size();
+                    codes.put(value, code);
+                    dictionary.add(value);
+                }
+                rowCodes[i] = code;
+            }
+            varLong(dictionary.size());
+            for (String value : dictionary) {
+                byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                varLong(bytes.length);
+                write(bytes, 0, bytes.length);
+            }
+            for (int code : rowCodes) varLong(code);
+        }
+    }
+
+    private static final class VarIn {
+        private final byte[] bytes;
+        private int position;
+
+        VarIn(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        long varLong() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                if (position >= bytes.length) throw new IOException("truncated varint");
+                byte b = bytes[position++];
+                value |= (long) (b & 0x7F) << shift;
+                if (b >= 0) return value;
+            }
+            throw new IOException("varint too long");
+        }
+
+        long zigZag() throws IOException {
+            long value = varLong();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        String[] dictionary() throws IOException {
+            String[] dictionary = new String[(int) varLong()];
+            for (int i = 0; i < dictionary.length; i++) {
+                int length = (int) varLong();
+                dictionary[i] = new String(bytes, position, length, StandardCharsets.UTF_8);
+                position += length;
+            }
+            return dictionary;
+        }
+
+        int[] codes(int rows) throws IOException {
+            int[] codes = new int[rows];
+            for (int i = 0; i < rows; i++) codes[i] = (int) varLong();
+            return codes;
+        }
+    }
+}
@@ -0,0 +1,300 @@
+package com.pluralsight;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * # ColdStore: closed years of history moved out of transactions.csv into ColdSegment files.
+ *
+ * The archive tool moves every row dated before a cutoff (the start of the current year by default) into one
+ * segment per year under the cold directory ("cold" unless --cold-dir says otherwise) and rewrites the CSV with
+ * what's left. Segments never change once written; archiving again later just adds new ones. Rows that are already
+ * in a segment of their year are skipped, so re-running an archive that stopped after writing its segments but before
+ * rewriting the CSV doesn't archive them twice (the loader relies on segments not overlapping). Segments are written
+ * from the compacted file, so they hold their rows in LedgerCompactor.FILE_ORDER like the file itself: the check
+ * walks the year's segments alongside the file one block at a time (skipping blocks by their zone maps) instead of
+ * holding the year's rows in memory.
+ *
+ * At startup the segments are decoded into the ledger, so every index and view still sees the whole history;
+ * decoding a segment is much cheaper than parsing the same rows out of the CSV. The blocking load
+ * (Utilities.readFromFileAndAddToLedger) decodes them before the CSV; the progressive one (StartupLoader) reads
+ * newest first, so they come after it. /api/archive/transactions answers date, amount and user queries straight
+ * from the segment files, inflating only the blocks whose zone maps overlap the query.
+ *
+ * Archive: java com.pluralsight.ColdStore --file=transactions.csv --dir=cold --before=2025-01-01 --block-rows=4096
+ * A server can keep running: the archive holds the CSV's OS lock (Utilities.lockFile) from the compaction until the
+ * rewritten file is in place, so the server's appends wait for it instead of landing in the file that is about to
+ * be replaced (or out of order in the compacted one).
+ */
+public final class ColdStore {
+
+    static final int DEFAULT_BLOCK_ROWS = 4096;
+    private static final String EXTENSION = ".seg";
+
+    public record ScanResult(List<Transaction> rows, int segments, int blocks, int blocksRead, long millis) {
+    }
+
+    private static volatile Path directory = Paths.get("cold");
+    private static List<ColdSegment> segments; // opened on first use, guarded by ColdStore.class
+
+    private ColdStore() {
+    }
+
+    public static void configure(String dir) {
+        if (dir == null) return;
+        synchronized (ColdStore.class) {
+            directory = Paths.get(dir);
+            segments = null;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (arg.startsWith("--") && eq > 2) options.put(arg.substring(2, eq), arg.substring(eq + 1));
+        }
+        Path file = Paths.get(options.getOrDefault("file", Utilities.fileName));
+        Path dir = Paths.get(options.getOrDefault("dir", directory.toString()));
+        LocalDate before = options.containsKey("before")
+                ? LocalDate.parse(options.get("before"))
+                : LocalDate.now().withDayOfYear(1);
+        int blockRows = Integer.parseInt(options.getOrDefault("block-rows", String.valueOf(DEFAULT_BLOCK_ROWS)));
+        archive(file, dir, before, blockRows);
+    }
+
+    /**
+     * Moves the rows of file dated before the cutoff into one new segment per year under dir. The file is compacted
+     * first (sorted and de-duplicated in bounded memory), so each segment holds its rows in time order and memory
+     * stays at one block per open segment.
+     */
+    static void archive(Path file, Path dir, LocalDate before, int blockRows) throws IOException {
+        long started = System.currentTimeMillis();
+        // this tool runs in its own process, so nothing else here holds Utilities.fileLock
+        FileChannel lock = Utilities.lockFile(file);
+        try {
+            LedgerCompactor.compact(file, LedgerCompactor.DEFAULT_RUN_ROWS, null, true);
+            Files.createDirectories(dir);
+        } catch (IOException | RuntimeException e) {
+            lock.close();
+            throw e;
+        }
+
+        Path remaining = Paths.get(file + ".archiving");
+        Map<Integer, ColdSegment.Writer> writers = new TreeMap<>();
+        Map<Integer, Path> written = new TreeMap<>();
+        long hotRows = 0;
+        long alreadyArchived = 0;
+        int archivedYear = 0;
+        List<ColdSegment.Cursor> archived = new ArrayList<>(); // archivedYear's segments from earlier runs
+        try {
+            try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8);
+                 BufferedWriter out = Files.newBufferedWriter(remaining, StandardCharsets.UTF_8)) {
+                out.write(LedgerCompactor.HEADER);
+                out.newLine();
+                List<Transaction> parsed = new ArrayList<>(1);
+                String line;
+                while ((line = in.readLine()) != null) {
+                    parsed.clear();
+                    Utilities.readLine(line, parsed::add);
+                    for (Transaction t : parsed) {
+                        if (t.getDate().isBefore(before)) {
+                            int year = t.getDate().getYear();
+                            if (year != archivedYear) { // the compacted file is in date order: one year at a time
+                                closeAll(archived);
+                                archived = archivedSegments(dir, year);
+                                archivedYear = year;
+                            }
+                            if (isArchived(archived, t)) {
+                                alreadyArchived++;
+                                continue;
+                            }
+                            ColdSegment.Writer writer = writers.get(year);
+                            if (writer == null) {
+                                Path tmp = dir.resolve(year + EXTENSION + ".tmp");
+                                writer = new ColdSegment.Writer(tmp, blockRows);
+                                writers.put(year, writer);
+                                written.put(year, tmp);
+                            }
+                            writer.add(t);
+                        } else {
+                            out.write(Utilities.toFileLine(t));
+                            out.newLine();
+                            hotRows++;
+                        }
+                    }
+                }
+            }
+            for (ColdSegment.Writer writer : writers.values()) writer.close();
+            writers.clear();
+
+            // segments first: if we stop half way the rows are in both places, which loading copes with and a
+            // re-run skips
+            for (Map.Entry<Integer, Path> e : written.entrySet()) {
+                Path target = freeName(dir, e.getKey());
+                Files.move(e.getValue(), target, StandardCopyOption.ATOMIC_MOVE);
+                ColdSegment segment = ColdSegment.open(target);
+                System.out.printf("%s: %,d rows in %,d blocks, %,d bytes%n", target, segment.rows(),
+                        segment.blocks().size(), Files.size(target));
+            }
+            Files.move(remaining, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            LedgerCompactor.writeMarker(file, Files.size(file), hotRows); // what's left is still in order
+        } finally {
+            closeAll(archived);
+            for (ColdSegment.Writer writer : writers.values()) writer.close();
+            for (Path tmp : written.values()) Files.deleteIfExists(tmp);
+            Files.deleteIfExists(remaining);
+            lock.close();
+        }
+        synchronized (ColdStore.class) {
+            if (dir.equals(directory)) segments = null;
+        }
+        if (alreadyArchived > 0) System.out.printf("%,d rows were already archived%n", alreadyArchived);
+        System.out.printf("%s: %,d rows left, %,d bytes (%d ms)%n", file, hotRows, Files.size(file),
+                System.currentTimeMillis() - started);
+    }
+
+    // Cursors over dir's segments for year (2021.seg, 2021-2.seg, ...); empty if there are none
+    private static List<ColdSegment.Cursor> archivedSegments(Path dir, int year) throws IOException {
+        List<ColdSegment.Cursor> cursors = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, year + "*" + EXTENSION)) {
+            for (Path path : files) {
+                String name = path.getFileName().toString();
+                if (name.equals(year + EXTENSION) || name.startsWith(year + "-")) {
+                    cursors.add(ColdSegment.open(path).cursor());
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            closeAll(cursors);
+            throw e;
+        }
+        return cursors;
+    }
+
+    // True if one of the segments holds t; rows must be asked for in FILE_ORDER
+    private static boolean isArchived(List<ColdSegment.Cursor> segments, Transaction t) throws IOException {
+        for (ColdSegment.Cursor cursor : segments) {
+            if (cursor.skipTo(t, LedgerCompactor.FILE_ORDER)) return true;
+        }
+        return false;
+    }
+
+    private static void closeAll(List<ColdSegment.Cursor> cursors) throws IOException {
+        for (ColdSegment.Cursor cursor : cursors) cursor.close();
+        cursors.clear();
+    }
+
+    // 2021.seg, or 2021-2.seg etc. when an earlier archive already wrote that year
+    private static Path freeName(Path dir, int year) {
+        Path target = dir.resolve(year + EXTENSION);
+        for (int n = 2; Files.exists(target); n++) target = dir.resolve(year + "-" + n + EXTENSION);
+        return target;
+    }
+
+    private static synchronized List<ColdSegment> segments() {
+        if (segments == null) {
+            List<ColdSegment> opened = new ArrayList<>();
+            if (Files.isDirectory(directory)) {
+                List<Path> paths = new ArrayList<>();
+                try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + EXTENSION)) {
+                    files.forEach(paths::add);
+                    Collections.sort(paths);
+                    for (Path path : paths) opened.add(ColdSegment.open(path));
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Could not open the segments in " + directory, e);
+                }
+            }
+            segments = List.copyOf(opened);
+        }
+        return segments;
+    }
+
+    /**
+     * Hands every archived row to sink (for loading the ledger) and returns the newest date among them, or null
+     * when there's nothing archived.
+     */
+    static LocalDate forEachRow(Consumer<Transaction> sink) {
+        LocalDate[] newest = new LocalDate[1];
+        for (ColdSegment segment : segments()) {
+            LedgerEvents.Load event = new LedgerEvents.Load();
+            event.start();
+            try {
+                segment.scan(ColdSegment.Query.ALL, record -> {
+                    if (newest[0] == null || record.getDate().isAfter(newest[0])) newest[0] = record.getDate();
+                    sink.accept(record);
+                });
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            if (event.stop()) {
+                event.source = segment.path().toString();
+                event.rows = segment.rows();
+                event.bytes = segment.path().toFile().length();
+                event.commit();
+            }
+        }
+        return newest[0];
+    }
+
+    /**
+     * Archived rows dated start..end with amounts minCents..maxCents (any bound may be null) for one user (null =
+     * everyone), newest first. Blocks whose zone maps rule the query out are never read.
+     */
+    public static ScanResult scan(LocalDate start, LocalDate end, Integer userId, Long minCents, Long maxCents)
+            throws IOException {
+        long started = System.currentTimeMillis();
+        ColdSegment.Query query = new ColdSegment.Query(
+                start == null ? Integer.MIN_VALUE : (int) start.toEpochDay(),
+                end == null ? Integer.MAX_VALUE : (int) end.toEpochDay(), userId,
+                minCents == null ? Long.MIN_VALUE : minCents, maxCents == null ? Long.MAX_VALUE : maxCents);
+        List<Transaction> rows = new ArrayList<>();
+        List<ColdSegment> all = segments();
+        int blocks = 0, read = 0;
+        for (ColdSegment segment : all) {
+            blocks += segment.blocks().size();
+            read += segment.scan(query, rows::add);
+        }
+        LedgerEvents.sort(rows, BalanceIndex.BY_DATETIME_ASCENDING.reversed(), "archive scan");
+        return new ScanResult(rows, all.size(), blocks, read, System.currentTimeMillis() - started);
+    }
+
+    // For /api/archive: every segment with its size and date range
+    public static Map<String, Object> status() {
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("directory", directory.toString());
+        List<Map<String, Object>> list = new ArrayList<>();
+        for (ColdSegment segment : segments()) {
+            Map<String, Object> s = new LinkedHashMap<>();
+            int minDay = Integer.MAX_VALUE, maxDay = Integer.MIN_VALUE;
+            for (ColdSegment.Block block : segment.blocks()) {
+                minDay = Math.min(minDay, block.minDay());
+                maxDay = Math.max(maxDay, block.maxDay());
+            }
+            s.put("file", segment.path().getFileName().toString());
+            s.put("rows", segment.rows());
+            s.put("blocks", segment.blocks().size());
+            try {
+                s.put("bytes", Files.size(segment.path()));
+            } catch (IOException e) {
+                s.put("bytes", null);
+            }
+            s.put("from", segment.blocks().isEmpty() ? null : LocalDate.ofEpochDay(minDay).toString());
+            s.put("to", segment.blocks().isEmpty() ? null : LocalDate.ofEpochDay(maxDay).toString());
+            list.add(s);
+        }
+        out.put("segments", list);
+        return out;
+    }
+}
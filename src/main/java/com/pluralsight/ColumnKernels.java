@@ -0,0 +1,31 @@
+package com.pluralsight;
+
+/**
+ * The tight loops behind LedgerColumns, over primitive columns of the first count rows.
+ *
+ * Selections are bitmaps: bit i of bitmap[i / 64] is row i. Kernels that filter only ever clear bits, so they
+ * can be chained (date range, then user, then type) on the same bitmap.
+ *
+ * ScalarKernels is plain Java and always available. VectorKernels (built with -Pvector) does the same with the
+ * JDK Vector API and is picked up at runtime when the JVM was started with --add-modules jdk.incubator.vector.
+ */
+interface ColumnKernels {
+
+    // Sets bit i for every row whose epoch day is within fromDay..toDay (inclusive); other bits are cleared
+    void rangeMask(int[] epochDays, int count, int fromDay, int toDay, long[] bitmap);
+
+    // Clears the bits of rows that don't belong to userId
+    void userMask(int[] userIds, int count, int userId, long[] bitmap);
+
+    // Keeps only rows with a positive amount (sign > 0) or a negative one (sign < 0)
+    void signMask(long[] cents, int count, int sign, long[] bitmap);
+
+    // Sums of the selected amounts: out[0] = credits (negative amounts), out[1] = debits (zero or positive)
+    void signedSums(long[] cents, int count, long[] bitmap, long[] out);
+
+    // Selected rows per type: out[0] = credits (amount < 0), out[1] = debits (amount >= 0)
+    void typeCounts(long[] cents, int count, long[] bitmap, long[] out);
+
+    // Shown in /api/summary so it's easy to tell which implementation is running
+    String name();
+}
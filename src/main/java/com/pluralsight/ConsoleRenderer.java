@@ -0,0 +1,250 @@
+package com.pluralsight;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Scanner;
+import java.util.function.Predicate;
+
+/**
+ * # ConsoleRenderer: how the CLI prints transaction tables.
+ *
+ * The views used to printf every row to System.out, which flushes line by line, so "View All" on a big ledger
+ * scrolled for minutes. Now:
+ * - Rows are formatted by hand into a StringBuilder and written through one 1 MB buffered writer on stdout.
+ * - On a terminal the table is paged: Enter/N next page, P previous, J YYYY-MM-DD jump to a date, Q back to the
+ *   menu. Pages are pulled lazily from a Source, so the ledger views walk the balance index newest first and
+ *   never build the full visible list.
+ * - When stdout isn't a console (redirected to a file or a pipe) everything is dumped in big chunks with a single
+ *   flush at the end, which runs at about disk speed.
+ *
+ * Totals are passed in by the caller (the ledger views get them from the column kernels without touching rows).
+ */
+final class ConsoleRenderer {
+
+    static final int PAGE_ROWS = 25;
+    private static final int BULK_CHUNK_ROWS = 8192;
+
+    private static final Writer out = new BufferedWriter(
+            new OutputStreamWriter(new FileOutputStream(FileDescriptor.out), Charset.defaultCharset()), 1 << 20);
+
+    /**
+     * Where the rows of a view come from, newest first. Positions count rows from the newest one.
+     */
+    interface Source {
+        // Appends up to max rows starting at position from; returns the position where the next page starts
+        int page(int from, int max, List<Transaction> rows);
+
+        // Position of the first row dated on or before date
+        int positionOf(LocalDate date);
+    }
+
+    private ConsoleRenderer() {
+    }
+
+    // A list that's already filtered and sorted newest first (search results, cached reports)
+    static Source of(List<Transaction> newestFirst) {
+        return new Source() {
+            @Override
+            public int page(int from, int max, List<Transaction> rows) {
+                int to = Math.min(newestFirst.size(), from + max);
+                for (int i = from; i < to; i++) rows.add(newestFirst.get(i));
+                return Math.max(from, to);
+            }
+
+            @Override
+            public int positionOf(LocalDate date) {
+                int lo = 0, hi = newestFirst.size();
+                while (lo < hi) {
+                    int mid = (lo + hi) >>> 1;
+                    if (newestFirst.get(mid).getDate().isAfter(date)) lo = mid + 1;
+                    else hi = mid;
+                }
+                return lo;
+            }
+        };
+    }
+
+    // A user's rows (null = everyone) straight out of the balance index, keeping only rows that pass filter
+    static Source ofLedger(BalanceIndex index, Integer userId, Predicate<Transaction> filter) {
+        return new Source() {
+            @Override
+            public int page(int from, int max, List<Transaction> rows) {
+                return index.pageNewestFirst(userId, from, max, filter, rows);
+            }
+
+            @Override
+            public int positionOf(LocalDate date) {
+                return index.newestFirstPositionOf(userId, date);
+            }
+        };
+    }
+
+    // "N transaction(s) | deposits ... | payments ... | net ..."
+    static String totalsLine(long count, double deposits, double payments) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(count).append(count == 1 ? " transaction" : " transactions").append(" | deposits ");
+        appendAmount(sb, Math.round(deposits * 100.0));
+        sb.append(" | payments ");
+        appendAmount(sb, Math.round(payments * 100.0));
+        sb.append(" | net ");
+        appendAmount(sb, Math.round((deposits + payments) * 100.0));
+        return sb.toString();
+    }
+
+    // Totals of a list that's already in memory
+    static String totalsOf(List<Transaction> rows) {
+        long deposits = 0, payments = 0;
+        for (Transaction t : rows) {
+            if (t.getAmountCents() < 0) payments += t.getAmountCents();
+            else deposits += t.getAmountCents();
+        }
+        return totalsLine(rows.size(), deposits / 100.0, payments / 100.0);
+    }
+
+    /**
+     * Shows a view: paged on a terminal, dumped in bulk when stdout is redirected.
+     * input is the CLI's shared Scanner (used for the paging commands).
+     */
+    static void show(String title, Source source, String totals, Scanner input) {
+        System.out.flush(); // anything already printed by the menus goes first
+        try {
+            if (System.console() == null) {
+                dump(title, source, totals);
+            } else {
+                page(title, source, totals, input);
+            }
+        } catch (IOException e) {
+            System.err.println("Could not write to the console: " + e.getMessage());
+        }
+    }
+
+    private static void dump(String title, Source source, String totals) throws IOException {
+        StringBuilder sb = new StringBuilder(1 << 16);
+        sb.append(title).append(System.lineSeparator());
+        List<Transaction> chunk = new ArrayList<>(BULK_CHUNK_ROWS);
+        int position = 0;
+        while (true) {
+            chunk.clear();
+            position = source.page(position, BULK_CHUNK_ROWS, chunk);
+            if (chunk.isEmpty()) break;
+            for (Transaction t : chunk) appendRow(sb, t);
+            out.append(sb);
+            sb.setLength(0);
+        }
+        sb.append(totals).append(System.lineSeparator());
+        out.append(sb);
+        out.flush();
+    }
+
+    private static void page(String title, Source source, String totals, Scanner input) throws IOException {
+        // start position of every page seen so far, so P can go back
+        List<Integer> starts = new ArrayList<>(List.of(0));
+        int current = 0;
+        while (true) {
+            List<Transaction> rows = new ArrayList<>(PAGE_ROWS);
+            int next = source.page(starts.get(current), PAGE_ROWS, rows);
+            boolean more = !rows.isEmpty() && hasRowAt(source, next);
+
+            StringBuilder sb = new StringBuilder(PAGE_ROWS * 140);
+            String nl = System.lineSeparator();
+            sb.append(nl).append(title).append(" (page ").append(current + 1).append(')').append(nl);
+            if (rows.isEmpty()) sb.append(current == 0 ? "No transactions." : "No more transactions.").append(nl);
+            for (Transaction t : rows) appendRow(sb, t);
+            sb.append(totals).append(nl);
+            sb.append(more ? "[Enter/N] next" : "(end)").append(current > 0 ? "  [P] previous" : "")
+                    .append("  [J YYYY-MM-DD] jump to date  [Q] back: ");
+            out.append(sb);
+            out.flush();
+
+            if (!input.hasNextLine()) return;
+            String command = input.nextLine().trim().toLowerCase();
+            if (command.equals("q")) {
+                return;
+            } else if (command.equals("p")) {
+                if (current > 0) current--;
+            } else if (command.startsWith("j")) {
+                try {
+                    int position = source.positionOf(LocalDate.parse(command.substring(1).trim()));
+                    starts.subList(current + 1, starts.size()).clear();
+                    starts.add(position);
+                    current++;
+                } catch (DateTimeParseException e) {
+                    System.out.println("Use J followed by a date like J 2024-03-01");
+                }
+            } else if (command.isEmpty() || command.equals("n")) {
+                if (!more) return; // Enter on the last page goes back to the menu
+                if (current == starts.size() - 1) starts.add(next);
+                current++;
+            }
+        }
+    }
+
+    // true if the source has at least one more row from position on
+    private static boolean hasRowAt(Source source, int position) {
+        List<Transaction> probe = new ArrayList<>(1);
+        source.page(position, 1, probe);
+        return !probe.isEmpty();
+    }
+
+    /**
+     * Appends one table row, same columns as before: date | description | vendor | amount | type | time
+     * (widths 10, 30, 30 with vendor cut at 20, 30 right-aligned with thousands separators, 12, 12).
+     * Built by hand instead of String.format since this runs for every row of a dump.
+     */
+    static void appendRow(StringBuilder sb, Transaction record) {
+        padRight(sb, record.getDate() == null ? "" : record.getDate().toString(), 10, 10);
+        sb.append("  ");
+        padRight(sb, String.valueOf(record.getDescription()), 30, 30);
+        sb.append("  ");
+        padRight(sb, String.valueOf(record.getVendor()), 20, 30);
+        sb.append("  ");
+        int amountStart = sb.length();
+        appendAmount(sb, record.getAmountCents());
+        int amountWidth = sb.length() - amountStart;
+        if (amountWidth < 30) sb.insert(amountStart, " ".repeat(30 - amountWidth));
+        sb.append("  ");
+        padRight(sb, record.transactionType(), 6, 12);
+        sb.append("  ");
+        LocalTime time = record.getTime();
+        if (time == null) {
+            padRight(sb, "", 12, 12);
+        } else {
+            twoDigits(sb, time.getHour()).append(':');
+            twoDigits(sb, time.getMinute()).append(':');
+            twoDigits(sb, time.getSecond()).append("    ");
+        }
+        sb.append(System.lineSeparator());
+    }
+
+    // value cut to maxLength, then padded with spaces to width
+    private static void padRight(StringBuilder sb, String value, int maxLength, int width) {
+        int length = Math.min(value.length(), maxLength);
+        sb.append(value, 0, length);
+        for (int i = length; i < width; i++) sb.append(' ');
+    }
+
+    private static StringBuilder twoDigits(StringBuilder sb, int value) {
+        if (value < 10) sb.append('0');
+        return sb.append(value);
+    }
+
+    // cents as -1,234.56
+    private static void appendAmount(StringBuilder sb, long cents) {
+        if (cents < 0) sb.append('-');
+        long abs = Math.abs(cents);
+        String whole = Long.toString(abs / 100);
+        for (int i = 0; i < whole.length(); i++) {
+            if (i > 0 && (whole.length() - i) % 3 == 0) sb.append(',');
+            sb.append(whole.charAt(i));
+        }
+        sb.append('.');
+        long fraction = abs % 100;
+        if (fraction < 10) sb.append('0');
+        sb.append(fraction);
+    }
+}
@@ -0,0 +1,81 @@
+package com.pluralsight;
+
+/**
+ * # CountMinSketch: depth rows of width counters; a key's estimate is the smallest of its depth counters.
+ *
+ * The estimate never under-counts, and with probability 1 - e^-depth it over-counts by at most
+ * (e / width) * total. Sketches with the same shape merge by adding their counters.
+ *
+ * That bound needs the rows to hash independently, so each row runs its own seeded 64-bit hash over the key's
+ * characters. (Deriving every row from String.hashCode would make two keys with the same hashCode collide in every
+ * row at once.) The seeds are fixed, so every sketch hashes the same way and they stay mergeable.
+ */
+public class CountMinSketch {
+    private final int width;
+    private final int depth;
+    private final long[][] counts;
+    private long total;
+
+    public CountMinSketch(int width, int depth) {
+        this.width = width;
+        this.depth = depth;
+        this.counts = new long[depth][width];
+    }
+
+    public void add(String key, long weight) {
+        for (int row = 0; row < depth; row++) {
+            counts[row][bucket(key, row)] += weight;
+        }
+        total += weight;
+    }
+
+    public long estimate(String key) {
+        long min = Long.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            min = Math.min(min, counts[row][bucket(key, row)]);
+        }
+        return min;
+    }
+
+    public void merge(CountMinSketch other) {
+        if (other.width != width || other.depth != depth) {
+            throw new IllegalArgumentException("Count-Min sketches must have the same width and depth to merge");
+        }
+        for (int row = 0; row < depth; row++) {
+            for (int col = 0; col < width; col++) {
+                counts[row][col] += other.counts[row][col];
+            }
+        }
+        total += other.total;
+    }
+
+    // e / width: the over-count per unit of total weight
+    public double epsilon() {
+        return Math.E / width;
+    }
+
+    // probability that an estimate is off by more than epsilon * total
+    public double delta() {
+        return Math.exp(-depth);
+    }
+
+    public long total() {
+        return total;
+    }
+
+    // the key's column in a row: FNV-1a over the characters starting from a per-row seed, then the murmur3 64-bit
+    // finalizer so every bit of the state reaches the column
+    private int bucket(String key, int row) {
+        long h = 0xCBF29CE484222325L ^ ((row + 1) * 0x9E3779B97F4A7C15L);
+        for (int i = 0; i < key.length(); i++) {
+            h ^= key.charAt(i);
+            h *= 0x100000001B3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return (int) Math.floorMod(h, (long) width);
+    }
+}
@@ -2,8 +2,99 @@ package com.pluralsight;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
 
+//The ledger is append-only, so the position of a transaction in this list doubles as its offset in the append log.
+//Replication and anything else that has to follow the ledger as it grows works with these offsets.
 public final class DataStore {
     public static final List<Transaction> ledger = new ArrayList<>();
+
+    // Callbacks that run every time a row is appended (indexes, replication, etc.)
+    private static final List<Consumer<Transaction>> appendListeners = new CopyOnWriteArrayList<>();
+
+    // Running balances (global and per user) kept up to date on every append
+    public static final BalanceIndex balances = new BalanceIndex();
+
+    // Top-vendor sketches per user and per month kept up to date on every append
+    public static final VendorSketches vendorSketches = new VendorSketches();
+
+    // Transactions ordered by amount in cents (global and per user) for min/max amount searches
+    public static final AmountIndex amounts = new AmountIndex();
+
+    // Dates, amounts and user ids as primitive arrays (same order as the ledger) for the range/type/summary kernels
+    public static final LedgerColumns columns = new LedgerColumns();
+
+    // Results of repeated range/user queries, dropped selectively when a new row falls inside them
+    public static final QueryCache queryCache = new QueryCache();
+
+    // Vendor and description type-ahead, ranked by frequency
+    public static final SuggestIndex suggestions = new SuggestIndex();
+
+    static {
+        onAppend(columns::add); // first, so row i of the columns is always row i of the ledger
+        onAppend(balances::add);
+        onAppend(vendorSketches::add);
+        onAppend(amounts::add);
+        onAppend(suggestions::add);
+        onAppend(queryCache::invalidate);
+    }
+
     private DataStore() {}
+
+    //Single place where rows get appended to the ledger. Wakes up anyone waiting in awaitAppend.
+    public static void append(Transaction record) {
+        synchronized (ledger) {
+            ledger.add(record);
+            for (Consumer<Transaction> listener : appendListeners) {
+                listener.accept(record);
+            }
+            ledger.notifyAll();
+        }
+    }
+
+    //Appends a batch under one lock and returns the offset of its first row
+    public static int appendAll(List<Transaction> records) {
+        synchronized (ledger) {
+            int first = ledger.size();
+            for (Transaction record : records) {
+                ledger.add(record);
+                for (Consumer<Transaction> listener : appendListeners) {
+                    listener.accept(record);
+                }
+            }
+            ledger.notifyAll();
+            return first;
+        }
+    }
+
+    public static void onAppend(Consumer<Transaction> listener) {
+        appendListeners.add(listener);
+    }
+
+    public static int size() {
+        synchronized (ledger) {
+            return ledger.size();
+        }
+    }
+
+    //Copies up to max rows starting at offset so callers can work on them without holding the lock.
+    public static List<Transaction> rowsFrom(int offset, int max) {
+        synchronized (ledger) {
+            int from = Math.max(0, Math.min(offset, ledger.size()));
+            int to = Math.min(ledger.size(), from + Math.max(0, max));
+            return new ArrayList<>(ledger.subList(from, to));
+        }
+    }
+
+    //Blocks until the ledger has more than offset rows or the timeout runs out.
+    public static void awaitAppend(int offset, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        synchronized (ledger) {
+            long remaining;
+            while (ledger.size() <= offset && (remaining = deadline - System.currentTimeMillis()) > 0) {
+                ledger.wait(remaining);
+            }
+        }
+    }
 }
@@ -0,0 +1,51 @@
+package com.pluralsight;
+
+import java.util.Arrays;
+
+//A Fenwick tree (binary indexed tree) over a growing list of long values (amounts in cents).
+//prefixSum(i) is the sum of the first i values and append adds a value to the end; both are O(log n).
+//Index math is 1-based internally: tree[i] holds the sum of the lowbit(i) values ending at position i.
+public class FenwickTree {
+    private long[] tree = new long[16];
+    private int size;
+
+    public int size() {
+        return size;
+    }
+
+    //Sum of the first count values (count is clamped to 0..size)
+    public long prefixSum(int count) {
+        long sum = 0;
+        for (int i = Math.min(count, size); i > 0; i -= i & -i) {
+            sum += tree[i];
+        }
+        return sum;
+    }
+
+    //Appends a value at position size + 1. The new node covers (i - lowbit(i), i], so its sum is the new value plus
+    //the values already in (i - lowbit(i), i - 1], which is a difference of two prefix sums.
+    public void append(long value) {
+        int i = size + 1;
+        if (i >= tree.length) tree = Arrays.copyOf(tree, tree.length * 2);
+        tree[i] = value + prefixSum(i - 1) - prefixSum(i - (i & -i));
+        size = i;
+    }
+
+    //Adds delta to the value at 0-based position index
+    public void add(int index, long delta) {
+        for (int i = index + 1; i <= size; i += i & -i) {
+            tree[i] += delta;
+        }
+    }
+
+    //Rebuilds the tree from scratch in O(n) (each node pushes its sum up to its parent once)
+    public void rebuild(long[] values, int count) {
+        tree = new long[Math.max(16, Integer.highestOneBit(Math.max(1, count)) * 2 + 1)];
+        size = count;
+        for (int i = 1; i <= count; i++) {
+            tree[i] += values[i - 1];
+            int parent = i + (i & -i);
+            if (parent <= count) tree[parent] += tree[i];
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package com.pluralsight;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * # LedgerColumns: the ledger's dates, amounts and user ids as primitive arrays, in append order.
+ *
+ * Range, type and summary queries used to call LocalDate.isBefore/isAfter and getAmount on every Transaction
+ * object. Here the same checks run over int/long arrays (epoch day, amount in cents, user id) through
+ * ColumnKernels, which the JIT (or the Vector API) can chew through many rows at a time. A query produces a
+ * bitmap of matching offsets; only the matching Transactions are ever touched.
+ *
+ * Row i of the columns is row i of the ledger, so appends must happen in the same order and under the same lock
+ * as the ledger's own. The arrays only grow by copying, so a reader can grab them plus the row count and scan
+ * without holding the lock.
+ */
+public class LedgerColumns {
+
+    // Vector kernels when the incubator module is there (and -Dledger.kernels=scalar wasn't given), otherwise scalar
+    static final ColumnKernels kernels = loadKernels();
+
+    // Totals for /api/summary; credits are negative amounts and debits zero or positive, like Transaction's type
+    public record Summary(long count, long credits, long debits, double creditTotal, double debitTotal, double net,
+                          String kernels) {
+    }
+
+    // Matching row offsets (bit i = row i) out of the first count rows
+    public record Selection(long[] bitmap, int count) {
+
+        public int size() {
+            int n = 0;
+            for (int w = 0; w < (count + 63) >>> 6; w++) n += Long.bitCount(bitmap[w]);
+            return n;
+        }
+
+        // The selected rows out of rows (which must hold at least count rows in the same order)
+        public List<Transaction> rows(List<Transaction> rows) {
+            List<Transaction> out = new ArrayList<>(size());
+            for (int w = 0; w < (count + 63) >>> 6; w++) {
+                long bits = bitmap[w];
+                while (bits != 0) {
+                    out.add(rows.get((w << 6) + Long.numberOfTrailingZeros(bits)));
+                    bits &= bits - 1;
+                }
+            }
+            return out;
+        }
+    }
+
+    private int[] epochDays = new int[1024];
+    private long[] cents = new long[1024];
+    private int[] userIds = new int[1024];
+    private int count;
+
+    private static ColumnKernels loadKernels() {
+        if (!"scalar".equals(System.getProperty("ledger.kernels"))
+                && ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+            try {
+                return (ColumnKernels) Class.forName("com.pluralsight.VectorKernels").getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException | LinkageError e) {
+                // built without -Pvector; the scalar kernels do the same job
+            }
+        }
+        return new ScalarKernels();
+    }
+
+    public synchronized void add(Transaction record) {
+        if (count == epochDays.length) {
+            epochDays = Arrays.copyOf(epochDays, count * 2);
+            cents = Arrays.copyOf(cents, count * 2);
+            userIds = Arrays.copyOf(userIds, count * 2);
+        }
+        epochDays[count] = (int) record.getDate().toEpochDay();
+        cents[count] = record.getAmountCents();
+        userIds[count] = record.getUserId();
+        count++;
+    }
+
+    public synchronized int size() {
+        return count;
+    }
+
+    /**
+     * Rows dated start..end inclusive (either may be null for open-ended), optionally only one user's and only
+     * deposits (type "deposits", amount > 0) or payments ("payments", amount < 0).
+     */
+    public Selection select(LocalDate start, LocalDate end, Integer userId, String type) {
+        LedgerEvents.Filter event = new LedgerEvents.Filter();
+        event.start();
+        int n;
+        int[] days, users;
+        long[] amounts;
+        synchronized (this) {
+            n = count;
+            days = epochDays;
+            users = userIds;
+            amounts = cents;
+        }
+        if (start != null && end != null && start.isAfter(end)) {
+            LocalDate tmp = start;
+            start = end;
+            end = tmp;
+        }
+        long[] bitmap = new long[(n + 63) >>> 6];
+        kernels.rangeMask(days, n, start == null ? Integer.MIN_VALUE : (int) start.toEpochDay(),
+                end == null ? Integer.MAX_VALUE : (int) end.toEpochDay(), bitmap);
+        if (userId != null) kernels.userMask(users, n, userId, bitmap);
+        if ("deposits".equalsIgnoreCase(type)) kernels.signMask(amounts, n, 1, bitmap);
+        else if ("payments".equalsIgnoreCase(type)) kernels.signMask(amounts, n, -1, bitmap);
+        Selection selection = new Selection(bitmap, n);
+        if (event.stop()) {
+            event.kind = "columns " + kernels.name();
+            event.rows = n;
+            event.matched = selection.size();
+            event.commit();
+        }
+        return selection;
+    }
+
+    // Counts and totals per type for a date range and optional user
+    public Summary summarize(LocalDate start, LocalDate end, Integer userId) {
+        Selection selection = select(start, end, userId, null);
+        long[] amounts;
+        synchronized (this) {
+            amounts = cents;
+        }
+        long[] counts = new long[2];
+        long[] sums = new long[2];
+        kernels.typeCounts(amounts, selection.count(), selection.bitmap(), counts);
+        kernels.signedSums(amounts, selection.count(), selection.bitmap(), sums);
+        return new Summary(counts[0] + counts[1], counts[0], counts[1], sums[0] / 100.0, sums[1] / 100.0,
+                (sums[0] + sums[1]) / 100.0, kernels.name());
+    }
+}
@@ -0,0 +1,329 @@
+package com.pluralsight;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * # LedgerCompactor: rewrites a transactions file sorted by date and time, without duplicates.
+ *
+ * Loading de-duplicates through the seen set, so the file itself keeps every duplicate and out-of-order row it was
+ * ever given and every startup throws them away again. This is an external merge sort with bounded memory:
+ * - the file is read in runs of --run-rows rows; each run is sorted in memory (FILE_ORDER), its duplicates dropped,
+ *   and spilled to a temp file
+ * - up to FAN_IN runs are merged at a time (extra passes when there are more), dropping duplicates across runs,
+ *   which sit next to each other in FILE_ORDER
+ * - the result goes to a temp file next to the original, is fsynced, picks up whatever was appended to the original
+ *   in the meantime, and is renamed over the original in one atomic move
+ * Memory stays at about one run however large the file is; disk needs about twice the file. Malformed rows are
+ * dropped with the same warnings as loading.
+ *
+ * Appends wait while the compacted file is swapped in: in this process through Utilities.fileLock, and in any other
+ * process (a server next to the offline tool, or the other way round) through the OS lock on <file>.lock
+ * (Utilities.lockFile), which the server's write pipeline and the CLI take for every append too.
+ *
+ * Afterwards <file>.sorted marks the file as compacted, and Utilities loads it on a fast path that compares each row
+ * with the one before it instead of hashing every row into the seen set.
+ *
+ * Offline: java com.pluralsight.LedgerCompactor --file=transactions.csv --run-rows=200000 --tmp-dir=/tmp
+ * Online:  POST /api/admin/compact on a running primary; GET /api/admin/compact shows the last run.
+ */
+public final class LedgerCompactor {
+
+    // A total order that agrees with Transaction.equals: only equal rows compare as 0, so duplicates end up adjacent
+    static final Comparator<Transaction> FILE_ORDER = BalanceIndex.BY_DATETIME_ASCENDING
+            .thenComparingInt(Transaction::getUserId)
+            .thenComparingLong(Transaction::getAmountCents)
+            .thenComparing(Transaction::getDescription)
+            .thenComparing(Transaction::getVendor);
+
+    static final String MARKER_SUFFIX = ".sorted";
+    static final int DEFAULT_RUN_ROWS = 200_000;
+    private static final int FAN_IN = 64;
+    private static final int IO_BUFFER = 1 << 20;
+    static final String HEADER = "userid|date|time|description|vendor|amount";
+
+    public record Result(String file, long rowsIn, long rowsOut, long duplicates, int runs, int mergePasses,
+                         long bytesBefore, long bytesAfter, long appendedDuringCompaction, long millis) {
+    }
+
+    private static final AtomicBoolean running = new AtomicBoolean();
+    private static volatile Result lastResult;
+    private static volatile String lastError;
+    private static volatile long startedMillis;
+
+    private LedgerCompactor() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (arg.startsWith("--") && eq > 2) options.put(arg.substring(2, eq), arg.substring(eq + 1));
+        }
+        Path file = Paths.get(options.getOrDefault("file", Utilities.fileName));
+        int runRows = Integer.parseInt(options.getOrDefault("run-rows", String.valueOf(DEFAULT_RUN_ROWS)));
+        Path tmpDir = options.containsKey("tmp-dir") ? Paths.get(options.get("tmp-dir")) : null;
+        System.out.println(compact(file, runRows, tmpDir));
+    }
+
+    // True if the file was written by compact() (the loader still checks the order row by row)
+    static boolean isCompacted(String fileName) {
+        return Files.exists(Paths.get(fileName + MARKER_SUFFIX));
+    }
+
+    /**
+     * Compacts file in place. Spill files go to a fresh directory under tmpDir (the file's own directory when null)
+     * and are deleted afterwards, whether or not it worked.
+     */
+    public static Result compact(Path file, int runRows, Path tmpDir) throws IOException {
+        return compact(file, runRows, tmpDir, false);
+    }
+
+    // holdingLock: the caller already has file's OS lock (ColdStore.archive), so nothing can be appended meanwhile
+    static Result compact(Path file, int runRows, Path tmpDir, boolean holdingLock) throws IOException {
+        long started = System.currentTimeMillis();
+        Path dir = file.toAbsolutePath().getParent();
+        Path work = Files.createTempDirectory(tmpDir == null ? dir : tmpDir, "compact-");
+        Path compacted = dir.resolve(file.getFileName() + ".compacting");
+        try {
+            // Only whole lines that were there when we started; later appends are copied over at the end
+            long sortedBytes = lastLineEnd(file, Files.size(file));
+
+            // 1. sorted, de-duplicated runs
+            List<Path> runs = new ArrayList<>();
+            List<Transaction> buffer = new ArrayList<>(Math.min(runRows, 1 << 20));
+            long rowsIn = 0;
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    new PrefixStream(Files.newInputStream(file), sortedBytes), StandardCharsets.UTF_8), IO_BUFFER)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    Utilities.readLine(line, buffer::add);
+                    if (buffer.size() >= runRows) {
+                        rowsIn += buffer.size();
+                        runs.add(spill(buffer, work.resolve("run-" + runs.size())));
+                        buffer.clear();
+                    }
+                }
+            }
+            rowsIn += buffer.size();
+            if (!buffer.isEmpty()) runs.add(spill(buffer, work.resolve("run-" + runs.size())));
+            buffer = null; // the last run's rows can go before merging
+            int runCount = runs.size();
+
+            // 2. merge down to at most FAN_IN runs
+            int passes = 0;
+            while (runs.size() > FAN_IN) {
+                List<Path> merged = new ArrayList<>();
+                for (int i = 0; i < runs.size(); i += FAN_IN) {
+                    List<Path> group = runs.subList(i, Math.min(runs.size(), i + FAN_IN));
+                    Path out = work.resolve("pass-" + passes + "-" + merged.size());
+                    try (Writer writer = Files.newBufferedWriter(out, StandardCharsets.UTF_8)) {
+                        merge(group, writer);
+                    }
+                    for (Path run : group) Files.delete(run);
+                    merged.add(out);
+                }
+                runs = merged;
+                passes++;
+            }
+
+            // 3. final merge into a temp file beside the original, then swap it in
+            long rowsOut;
+            long appended;
+            long sortedEnd;
+            try (FileChannel channel = FileChannel.open(compacted, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                Writer writer = new BufferedWriter(Channels.newWriter(channel, StandardCharsets.UTF_8), IO_BUFFER);
+                writer.write(HEADER);
+                writer.write(System.lineSeparator());
+                rowsOut = merge(runs, writer);
+                writer.flush();
+                sortedEnd = channel.position();
+            }
+
+            // rows appended while we were sorting go on the end as they are; the loader sorts that out.
+            // Appends in this process and in others wait until the new file is in place (see Utilities.lockFile)
+            synchronized (Utilities.fileLock) {
+                FileChannel lock = holdingLock ? null : Utilities.lockFile(file);
+                try {
+                    try (FileChannel channel = FileChannel.open(compacted, StandardOpenOption.WRITE);
+                         FileChannel original = FileChannel.open(file, StandardOpenOption.READ)) {
+                        long end = original.size();
+                        appended = end - sortedBytes;
+                        channel.position(sortedEnd);
+                        long at = sortedBytes;
+                        while (at < end) at += original.transferTo(at, end - at, channel);
+                        channel.force(true);
+                    }
+                    // both channels are closed before the rename, which Windows needs
+                    Files.move(compacted, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                } finally {
+                    if (lock != null) lock.close();
+                }
+            }
+            writeMarker(file, sortedEnd, rowsOut);
+
+            return new Result(file.toString(), rowsIn, rowsOut, rowsIn - rowsOut, runCount, passes + 1,
+                    sortedBytes + appended, Files.size(file), appended, System.currentTimeMillis() - started);
+        } finally {
+            try (DirectoryStream<Path> leftovers = Files.newDirectoryStream(work)) {
+                for (Path p : leftovers) Files.deleteIfExists(p);
+            }
+            Files.deleteIfExists(work);
+            Files.deleteIfExists(compacted); // only still there if something failed before the swap
+        }
+    }
+
+    // Starts compact() on a background thread unless one is already running
+    public static boolean compactInBackground(String fileName) {
+        if (!running.compareAndSet(false, true)) return false;
+        startedMillis = System.currentTimeMillis();
+        lastError = null;
+        Thread worker = new Thread(() -> {
+            try {
+                lastResult = compact(Paths.get(fileName), DEFAULT_RUN_ROWS, null);
+            } catch (IOException | RuntimeException e) {
+                lastError = e.getMessage();
+                System.err.println("Compaction of " + fileName + " failed: " + e.getMessage());
+            } finally {
+                running.set(false);
+            }
+        }, "ledger-compactor");
+        worker.setDaemon(true);
+        worker.start();
+        return true;
+    }
+
+    // For GET /api/admin/compact
+    public static Map<String, Object> status() {
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("running", running.get());
+        if (running.get()) out.put("runningForMillis", System.currentTimeMillis() - startedMillis);
+        out.put("lastResult", lastResult);
+        if (lastError != null) out.put("error", lastError);
+        return out;
+    }
+
+    // Sorts a run, drops its duplicates and writes it out in file format
+    private static Path spill(List<Transaction> rows, Path out) throws IOException {
+        rows.sort(FILE_ORDER);
+        try (Writer writer = Files.newBufferedWriter(out, StandardCharsets.UTF_8)) {
+            Transaction previous = null;
+            for (Transaction t : rows) {
+                if (previous != null && FILE_ORDER.compare(previous, t) == 0) continue;
+                writer.write(Utilities.toFileLine(t));
+                writer.write('\n');
+                previous = t;
+            }
+        }
+        return out;
+    }
+
+    // k-way merge of sorted runs into writer, skipping rows equal to the one just written; returns rows written
+    private static long merge(List<Path> runs, Writer writer) throws IOException {
+        PriorityQueue<RunCursor> heap = new PriorityQueue<>((a, b) -> FILE_ORDER.compare(a.current, b.current));
+        List<RunCursor> cursors = new ArrayList<>();
+        try {
+            for (Path run : runs) {
+                RunCursor cursor = new RunCursor(Files.newBufferedReader(run, StandardCharsets.UTF_8));
+                cursors.add(cursor);
+                if (cursor.advance()) heap.add(cursor);
+            }
+            String lineSeparator = System.lineSeparator();
+            long written = 0;
+            Transaction previous = null;
+            while (!heap.isEmpty()) {
+                RunCursor cursor = heap.poll();
+                Transaction t = cursor.current;
+                if (previous == null || FILE_ORDER.compare(previous, t) != 0) {
+                    writer.write(Utilities.toFileLine(t));
+                    writer.write(lineSeparator);
+                    written++;
+                    previous = t;
+                }
+                if (cursor.advance()) heap.add(cursor);
+            }
+            writer.flush();
+            return written;
+        } finally {
+            for (RunCursor cursor : cursors) cursor.reader.close();
+        }
+    }
+
+    private static final class RunCursor {
+        final BufferedReader reader;
+        Transaction current;
+
+        RunCursor(BufferedReader reader) {
+            this.reader = reader;
+        }
+
+        boolean advance() throws IOException {
+            String line = reader.readLine();
+            current = line == null ? null : Utilities.parseTransaction(line.split("\\|", -1));
+            return current != null;
+        }
+    }
+
+    // Offset just past the last line break at or before size (a writer may be half way through a line)
+    private static long lastLineEnd(Path file, long size) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer block = ByteBuffer.allocate(64 * 1024);
+            long end = size;
+            while (end > 0) {
+                long from = Math.max(0, end - block.capacity());
+                block.clear().limit((int) (end - from));
+                while (block.hasRemaining() && channel.read(block, from + block.position()) > 0) {
+                    // keep reading
+                }
+                for (int i = block.position() - 1; i >= 0; i--) {
+                    if (block.get(i) == '\n') return from + i + 1;
+                }
+                end = from;
+            }
+            return 0;
+        }
+    }
+
+    static void writeMarker(Path file, long sortedBytes, long rows) throws IOException {
+        Path marker = Paths.get(file + MARKER_SUFFIX);
+        Path tmp = Paths.get(marker + ".tmp");
+        Files.writeString(tmp, "sortedBytes=" + sortedBytes + System.lineSeparator()
+                + "rows=" + rows + System.lineSeparator()
+                + "compactedAt=" + Instant.now() + System.lineSeparator(), StandardCharsets.UTF_8);
+        Files.move(tmp, marker, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    // The first limit bytes of a stream
+    private static final class PrefixStream extends FilterInputStream {
+        private long remaining;
+
+        PrefixStream(InputStream in, long limit) {
+            super(in);
+            this.remaining = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) return -1;
+            int b = super.read();
+            if (b >= 0) remaining--;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) return -1;
+            int n = super.read(b, off, (int) Math.min(len, remaining));
+            if (n > 0) remaining -= n;
+            return n;
+        }
+    }
+}
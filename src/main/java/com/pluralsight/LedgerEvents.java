@@ -0,0 +1,290 @@
+package com.pluralsight;
+
+import jdk.jfr.Category;
+import jdk.jfr.Configuration;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Recording;
+import jdk.jfr.RecordingState;
+import jdk.jfr.Threshold;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.ParseException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * # LedgerEvents: JDK Flight Recorder events around the ledger's hot paths, and on-demand recordings.
+ *
+ * When a request is slow these tell where the time went: loading, de-duplication, filtering, sorting, writing the
+ * response or appending to the file. Every event carries its row count (and bytes where there are any) plus the
+ * bytes its thread allocated while it ran, read from ThreadMXBean, so GC pressure can be pinned on a step. The
+ * Request event wraps a whole HTTP request the same way. Events show up in JDK Mission Control under "Ledger",
+ * or with: jfr print --categories Ledger recording.jfr
+ *
+ * Nothing is measured unless a recording is running: each call site checks isEnabled first. A recording can be
+ * started without restarting the server or attaching anything through /api/admin/recording (see WebServer), or as
+ * usual with -XX:StartFlightRecording / jcmd JFR.start.
+ */
+final class LedgerEvents {
+
+    private static final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    private static final Path RECORDINGS = Paths.get("recordings");
+    static final Duration MAX_RECORDING = Duration.ofHours(1);
+    // .jfr files kept under recordings/; starting a new one deletes the oldest beyond this
+    private static final int KEPT_RECORDINGS = 10;
+    // JDK events that would put the server's environment (tokens, passwords) into a downloadable file
+    private static final List<String> SECRET_EVENTS = List.of("jdk.InitialEnvironmentVariable", "jdk.InitialSystemProperty");
+
+    private static Recording recording; // the one started through the admin endpoint, guarded by LedgerEvents.class
+    private static Path recordingFile;
+
+    private LedgerEvents() {
+    }
+
+    /**
+     * Base of the ledger events. Use as: event.start(); ... if (event.stop()) { fill in the fields; event.commit(); }
+     * so the fields are only worked out when the event is actually being recorded.
+     */
+    @Category("Ledger")
+    abstract static class Measured extends Event {
+        @Label("Allocated")
+        @Description("Bytes allocated by this thread while the event ran")
+        @DataAmount
+        long allocated;
+
+        private transient long allocatedBefore;
+        private transient boolean started; // false if recording began after start()
+
+        final void start() {
+            if (!isEnabled()) return;
+            started = true;
+            allocatedBefore = allocatedBytes();
+            begin();
+        }
+
+        // Ends the event; true if it passed its threshold and should be filled in and committed
+        final boolean stop() {
+            if (!started || !isEnabled()) return false;
+            end();
+            if (!shouldCommit()) return false;
+            allocated = allocatedBytes() - allocatedBefore;
+            return true;
+        }
+    }
+
+    @Name("com.pluralsight.Load")
+    @Label("Ledger Load")
+    @Description("Rows read from a transactions file or an archive segment")
+    static final class Load extends Measured {
+        @Label("Source")
+        String source;
+        @Label("Rows")
+        long rows;
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+    }
+
+    // One per addToLedger, so only the slow ones are kept by default (resizes, refilling seen, waiting on its lock)
+    @Name("com.pluralsight.DedupInsert")
+    @Label("Dedup Insert")
+    @Description("A row checked against and added to the duplicate set")
+    @Threshold("1 ms")
+    static final class DedupInsert extends Measured {
+        @Label("Rows Hashed")
+        @Description("1, or the whole ledger when the set had to be filled first")
+        long rows;
+        @Label("Duplicate")
+        boolean duplicate;
+    }
+
+    @Name("com.pluralsight.Filter")
+    @Label("Filter")
+    @Description("Rows scanned for a query")
+    static final class Filter extends Measured {
+        @Label("Kind")
+        String kind;
+        @Label("Rows Scanned")
+        long rows;
+        @Label("Rows Matched")
+        long matched;
+        @Label("Parallel")
+        boolean parallel;
+    }
+
+    @Name("com.pluralsight.Sort")
+    @Label("Sort")
+    static final class Sort extends Measured {
+        @Label("Kind")
+        String kind;
+        @Label("Rows")
+        long rows;
+    }
+
+    @Name("com.pluralsight.Serialize")
+    @Label("Serialize")
+    @Description("A transaction listing written to a response")
+    static final class Serialize extends Measured {
+        @Label("Format")
+        String format;
+        @Label("Rows")
+        long rows;
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+    }
+
+    @Name("com.pluralsight.Append")
+    @Label("File Append")
+    @Description("Rows appended to a transactions file")
+    static final class Append extends Measured {
+        @Label("File")
+        String file;
+        @Label("Rows")
+        long rows;
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+    }
+
+    @Name("com.pluralsight.Request")
+    @Label("HTTP Request")
+    static final class Request extends Measured {
+        @Label("Method")
+        String method;
+        @Label("Path")
+        String path;
+        @Label("Status")
+        int status;
+    }
+
+    // Bytes allocated so far by the calling thread (0 where the JVM can't tell)
+    static long allocatedBytes() {
+        if (threads instanceof com.sun.management.ThreadMXBean hotspot && hotspot.isThreadAllocatedMemoryEnabled()) {
+            return hotspot.getCurrentThreadAllocatedBytes();
+        }
+        return 0;
+    }
+
+    // Sorts rows in place inside a Sort event
+    static <T> void sort(List<T> rows, Comparator<? super T> order, String kind) {
+        Sort event = new Sort();
+        event.start();
+        rows.sort(order);
+        if (event.stop()) {
+            event.kind = kind;
+            event.rows = rows.size();
+            event.commit();
+        }
+    }
+
+    // Passes writes through and counts them, for the Bytes field of an event
+    static final class CountingStream extends OutputStream {
+        private final OutputStream out;
+        long count;
+
+        CountingStream(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+
+    /**
+     * Starts a recording with the JDK's "default" (low overhead) or "profile" settings plus every ledger event,
+     * written to recordings/ledger-TIMESTAMP.jfr. It stops by itself after maxDuration (at most an hour) in case
+     * nobody stops it. Environment variables and system properties are left out, and only the newest
+     * KEPT_RECORDINGS files are kept. Throws IllegalStateException if one is already running.
+     */
+    static synchronized Map<String, Object> startRecording(String settings, Duration maxDuration)
+            throws IOException, ParseException {
+        if (recording != null && recording.getState() == RecordingState.RUNNING) {
+            throw new IllegalStateException("A recording is already running");
+        }
+        if (recording != null) recording.close(); // stopped by itself; its file is already written
+        Files.createDirectories(RECORDINGS);
+        pruneRecordings(KEPT_RECORDINGS - 1);
+        Path file = RECORDINGS.resolve("ledger-" + LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss")) + ".jfr");
+        Recording started = new Recording(Configuration.getConfiguration(settings == null ? "default" : settings));
+        started.setName("ledger");
+        for (String event : SECRET_EVENTS) started.disable(event);
+        started.setToDisk(true);
+        started.setDestination(file);
+        started.setDuration(maxDuration == null || maxDuration.compareTo(MAX_RECORDING) > 0 ? MAX_RECORDING : maxDuration);
+        started.start();
+        recording = started;
+        recordingFile = file;
+        return recordingStatus();
+    }
+
+    // Deletes the oldest ledger-*.jfr files under recordings/ until at most keep are left
+    private static void pruneRecordings(int keep) throws IOException {
+        List<Path> files;
+        try (var listing = Files.list(RECORDINGS)) {
+            files = listing.filter(p -> p.getFileName().toString().matches("ledger-.*\\.jfr"))
+                    .sorted(Comparator.comparing(Path::getFileName)).toList();
+        }
+        for (int i = 0; i < files.size() - keep; i++) Files.deleteIfExists(files.get(i));
+    }
+
+    /**
+     * Stops the running recording and returns the file it was written to, or null if nothing was recording.
+     * A recording that already stopped on its own returns its file too.
+     */
+    static synchronized Path stopRecording() {
+        if (recording == null) return null;
+        if (recording.getState() == RecordingState.RUNNING) recording.stop(); // writes the destination file
+        recording.close();
+        recording = null;
+        return recordingFile;
+    }
+
+    static synchronized Map<String, Object> recordingStatus() {
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("state", recording == null ? "NONE" : recording.getState().toString());
+        if (recording != null) {
+            out.put("file", recordingFile.toString());
+            out.put("started", recording.getStartTime() == null ? null : recording.getStartTime().toString());
+            out.put("maxDurationSeconds", recording.getDuration() == null ? null : recording.getDuration().toSeconds());
+            out.put("bytesSoFar", recording.getSize());
+        }
+        out.put("threadAllocationCounting", threads instanceof com.sun.management.ThreadMXBean hotspot
+                && hotspot.isThreadAllocatedMemoryEnabled());
+        return out;
+    }
+}
@@ -0,0 +1,405 @@
+package com.pluralsight;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * # LedgerGenerator: deterministic synthetic ledgers for scale testing.
+ *
+ * Writes a transactions file in the exact userid|date|time|description|vendor|amount format plus a matching
+ * profiles file. The same options and seed always produce byte-identical files, whatever the thread count:
+ * rows are generated in fixed-size chunks, each chunk has its own random stream derived from (seed, chunk number),
+ * and chunks are written in order.
+ *
+ * What makes the data realistic enough to find scaling problems:
+ * - users and vendors are Zipf-distributed (a few very busy users/vendors, a long tail)
+ * - rows are in roughly chronological order, fewer on weekends, mostly during the day, with bursts of several
+ *   purchases by the same user within minutes
+ * - mostly small payments (log-normal) and fewer, larger deposits
+ * - a configurable share of exact duplicate rows, malformed rows, and header lines in the middle of the file,
+ *   which the loader has to skip
+ *
+ * Options (all optional):
+ * --rows=1000000 --users=1000 --vendors=5000 --seed=42 --threads=(cores)
+ * --start=2015-01-01 --end=2025-12-31
+ * --user-skew=1.1 --vendor-skew=1.2         Zipf exponents
+ * --duplicate-rate=0.01 --malformed-rate=0.0005 --header-every=1000000
+ * --out=transactions.csv --profiles=profiles.csv
+ * --force                                   overwrite --out/--profiles if they exist (refused otherwise, so a bare
+ *                                           run in the app's directory can't replace the real ledger)
+ */
+public final class LedgerGenerator {
+
+    // rows per chunk; fixed so the output doesn't depend on the number of threads
+    private static final int CHUNK_ROWS = 1 << 18;
+
+    private static final String[] KNOWN_VENDORS = {"Amazon", "Starbucks", "Chipotle", "Uber", "Costco", "Whole Foods",
+            "Home Depot", "Target", "Walmart", "Shell", "Netflix", "Spotify", "Chase Bank", "Comcast", "Apple"};
+    private static final String[] SYLLABLES = {"ra", "to", "mi", "ka", "lo", "ven", "dor", "tri", "sa", "bel", "no",
+            "qui", "ze", "mar", "pol", "den", "ric", "ast", "ul", "fen"};
+    private static final String[] VENDOR_SUFFIXES = {"Market", "Co", "Cafe", "Supply", "Store", "Services", "Foods",
+            "Outlet", "Group", "Shop"};
+    private static final String[] PAYMENT_DESCRIPTIONS = {"groceries", "coffee", "lunch", "dinner", "fuel",
+            "subscription", "office supplies", "hardware", "ride home", "utilities", "phone bill", "books", "gift",
+            "pharmacy", "parking"};
+    private static final String[] DEPOSIT_DESCRIPTIONS = {"payroll", "invoice paid", "refund", "transfer in",
+            "interest", "cash deposit"};
+    private static final String[] FIRST_NAMES = {"Ahsan", "Billy", "Maria", "Chen", "Fatima", "John", "Aisha", "Luis",
+            "Priya", "Sam", "Olga", "Kwame", "Yuki", "Noah", "Elena", "Omar"};
+    private static final String[] LAST_NAMES = {"Baseer", "Bob", "Garcia", "Wang", "Khan", "Smith", "Okafor", "Silva",
+            "Patel", "Lee", "Ivanova", "Mensah", "Tanaka", "Brown", "Rossi", "Haddad"};
+
+    private record Options(long rows, int users, int vendors, long seed, int threads, LocalDate start, LocalDate end,
+                           double userSkew, double vendorSkew, double duplicateRate, double malformedRate,
+                           long headerEvery, String out, String profiles) {
+    }
+
+    private LedgerGenerator() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> o = new HashMap<>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (arg.startsWith("--") && eq > 2) o.put(arg.substring(2, eq), arg.substring(eq + 1));
+            else if (arg.startsWith("--") && eq < 0) o.put(arg.substring(2), "true");
+        }
+        Options options = new Options(
+                Long.parseLong(o.getOrDefault("rows", "1000000")),
+                Integer.parseInt(o.getOrDefault("users", "1000")),
+                Integer.parseInt(o.getOrDefault("vendors", "5000")),
+                Long.parseLong(o.getOrDefault("seed", "42")),
+                Integer.parseInt(o.getOrDefault("threads", Integer.toString(Runtime.getRuntime().availableProcessors()))),
+                LocalDate.parse(o.getOrDefault("start", "2015-01-01")),
+                LocalDate.parse(o.getOrDefault("end", "2025-12-31")),
+                Double.parseDouble(o.getOrDefault("user-skew", "1.1")),
+                Double.parseDouble(o.getOrDefault("vendor-skew", "1.2")),
+                Double.parseDouble(o.getOrDefault("duplicate-rate", "0.01")),
+                Double.parseDouble(o.getOrDefault("malformed-rate", "0.0005")),
+                Long.parseLong(o.getOrDefault("header-every", "1000000")),
+                o.getOrDefault("out", "transactions.csv"),
+                o.getOrDefault("profiles", "profiles.csv"));
+
+        if (!Boolean.parseBoolean(o.getOrDefault("force", "false"))) {
+            for (String file : List.of(options.out(), options.profiles())) {
+                if (new File(file).exists()) {
+                    System.err.println(file + " already exists; pass --force to overwrite it, or choose --out/--profiles");
+                    System.exit(1);
+                }
+            }
+        }
+
+        long started = System.nanoTime();
+        writeProfiles(options);
+        generate(options);
+        double seconds = (System.nanoTime() - started) / 1e9;
+        System.out.printf(Locale.ROOT, "Wrote %,d rows to %s and %,d users to %s in %.1fs (%,.0f rows/s)%n",
+                options.rows(), options.out(), options.users(), options.profiles(), seconds, options.rows() / seconds);
+    }
+
+    private static void writeProfiles(Options options) throws IOException {
+        SplittableRandom random = new SplittableRandom(options.seed());
+        try (BufferedWriter out = new BufferedWriter(new FileWriter(options.profiles(), StandardCharsets.UTF_8))) {
+            out.write("userid|name|pin|access");
+            out.newLine();
+            for (int i = 0; i < options.users(); i++) {
+                String name = FIRST_NAMES[random.nextInt(FIRST_NAMES.length)] + " " + LAST_NAMES[random.nextInt(LAST_NAMES.length)];
+                String pin = String.format("%04d", random.nextInt(10000));
+                out.write(userId(i) + "|" + name + "|" + pin + "|" + (i == 0)); // the first (busiest) user is the admin
+                out.newLine();
+            }
+        }
+    }
+
+    private static int userId(int rank) {
+        return 1000 + rank;
+    }
+
+    /**
+     * Generates the chunks on a thread pool and writes them in order. At most 2 chunks per thread are in memory
+     * at once, so memory stays bounded no matter how many rows are requested.
+     */
+    private static void generate(Options options) throws Exception {
+        Shared shared = new Shared(options);
+        long chunks = (options.rows() + CHUNK_ROWS - 1) / CHUNK_ROWS;
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, options.threads()));
+        Semaphore inMemory = new Semaphore(Math.max(1, options.threads()) * 2);
+        ArrayDeque<Future<byte[]>> pending = new ArrayDeque<>();
+
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(options.out()), 1 << 20)) {
+            long nextChunk = 0;
+            while (nextChunk < chunks || !pending.isEmpty()) {
+                // keep the pool busy while the writer waits for the oldest chunk
+                while (nextChunk < chunks && inMemory.tryAcquire()) {
+                    long chunk = nextChunk++;
+                    pending.add(pool.submit(() -> new ChunkWriter(shared, chunk).generate()));
+                }
+                byte[] bytes = pending.removeFirst().get();
+                out.write(bytes);
+                inMemory.release();
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    // Read-only data every chunk needs: Zipf tables, vendor names and formatted dates
+    private static final class Shared {
+        final Options options;
+        final double[] userCdf;
+        final double[] vendorCdf;
+        final byte[][] vendorNames;
+        final byte[][] dates; // yyyy-MM-dd for every day of the range
+        final long firstDay;
+        final long days;
+
+        Shared(Options options) {
+            this.options = options;
+            userCdf = zipfCdf(options.users(), options.userSkew());
+            vendorCdf = zipfCdf(options.vendors(), options.vendorSkew());
+            SplittableRandom random = new SplittableRandom(options.seed() ^ 0x5DEECE66DL);
+            vendorNames = new byte[options.vendors()][];
+            for (int i = 0; i < options.vendors(); i++) {
+                vendorNames[i] = vendorName(i, random).getBytes(StandardCharsets.UTF_8);
+            }
+            firstDay = options.start().toEpochDay();
+            days = options.end().toEpochDay() - firstDay + 1;
+            dates = new byte[(int) days][];
+            for (int d = 0; d < days; d++) {
+                dates[d] = LocalDate.ofEpochDay(firstDay + d).toString().getBytes(StandardCharsets.US_ASCII);
+            }
+        }
+
+        private static String vendorName(int rank, SplittableRandom random) {
+            if (rank < KNOWN_VENDORS.length) return KNOWN_VENDORS[rank];
+            StringBuilder sb = new StringBuilder();
+            int syllables = 2 + random.nextInt(2);
+            for (int s = 0; s < syllables; s++) sb.append(SYLLABLES[random.nextInt(SYLLABLES.length)]);
+            sb.setCharAt(0, Character.toUpperCase(sb.charAt(0)));
+            return sb + " " + VENDOR_SUFFIXES[random.nextInt(VENDOR_SUFFIXES.length)] + " " + rank;
+        }
+
+        // cumulative Zipf probabilities: rank r has weight 1 / (r + 1)^skew
+        private static double[] zipfCdf(int n, double skew) {
+            double[] cdf = new double[n];
+            double sum = 0;
+            for (int r = 0; r < n; r++) {
+                sum += 1.0 / Math.pow(r + 1, skew);
+                cdf[r] = sum;
+            }
+            for (int r = 0; r < n; r++) cdf[r] /= sum;
+            return cdf;
+        }
+
+        static int sample(double[] cdf, double u) {
+            int i = Arrays.binarySearch(cdf, u);
+            return Math.min(cdf.length - 1, i >= 0 ? i : -i - 1);
+        }
+    }
+
+    // Generates one chunk of rows into a byte buffer
+    private static final class ChunkWriter {
+        private static final byte[] HEADER = "userid|date|time|description|vendor|amount\n".getBytes(StandardCharsets.US_ASCII);
+
+        private final Shared shared;
+        private final long chunk;
+        private final SplittableRandom random;
+        private byte[] buf = new byte[CHUNK_ROWS * 72];
+        private int len;
+
+        ChunkWriter(Shared shared, long chunk) {
+            this.shared = shared;
+            this.chunk = chunk;
+            // one independent stream per chunk so chunks can be generated in any order on any thread
+            this.random = new SplittableRandom(shared.options.seed() * 0x9E3779B97F4A7C15L + chunk);
+        }
+
+        byte[] generate() {
+            Options options = shared.options;
+            long firstRow = chunk * CHUNK_ROWS;
+            int rows = (int) Math.min(CHUNK_ROWS, options.rows() - firstRow);
+            long[] stamps = timestamps(rows, firstRow);
+
+            // recent rows kept around so duplicates and bursts can refer back to them
+            int[] recentUser = new int[64];
+            long[] recentStamp = new long[64];
+            int[] recentStart = new int[64];
+            int[] recentEnd = new int[64];
+            int recent = 0;
+
+            for (int i = 0; i < rows; i++) {
+                long row = firstRow + i;
+                if (row % options.headerEvery() == 0) append(HEADER);
+
+                if (recent > 0 && random.nextDouble() < options.duplicateRate()) {
+                    // exact copy of a recent row
+                    int r = random.nextInt(Math.min(recent, 64));
+                    append(buf, recentStart[r], recentEnd[r]);
+                    continue;
+                }
+                if (random.nextDouble() < options.malformedRate()) {
+                    malformedRow();
+                    continue;
+                }
+
+                int user;
+                long stamp = stamps[i];
+                if (recent > 0 && random.nextDouble() < 0.15) {
+                    // burst: the previous row's user buys again a few minutes later
+                    int prev = (recent - 1) & 63;
+                    user = recentUser[prev];
+                    stamp = Math.min(shared.days * 86400 - 1, Math.max(stamp, recentStamp[prev] + 30 + random.nextInt(600)));
+                } else {
+                    user = userId(Shared.sample(shared.userCdf, random.nextDouble()));
+                }
+
+                int start = len;
+                writeRow(user, stamp);
+                int slot = recent & 63;
+                recentUser[slot] = user;
+                recentStamp[slot] = stamp;
+                recentStart[slot] = start;
+                recentEnd[slot] = len;
+                recent++;
+            }
+            return Arrays.copyOf(buf, len);
+        }
+
+        /**
+         * Sorted seconds-since-range-start for the chunk. Each chunk covers its own slice of the date range so the
+         * whole file is roughly chronological. Weekends are thinned out and most rows fall during the day.
+         */
+        private long[] timestamps(int rows, long firstRow) {
+            double daysPerRow = (double) shared.days / Math.max(1, shared.options.rows());
+            double sliceStart = firstRow * daysPerRow;
+            double sliceDays = Math.max(1e-9, rows * daysPerRow);
+            long[] stamps = new long[rows];
+            for (int i = 0; i < rows; i++) {
+                long day;
+                do {
+                    day = Math.min(shared.days - 1, (long) (sliceStart + random.nextDouble() * sliceDays));
+                    DayOfWeek dow = LocalDate.ofEpochDay(shared.firstDay + day).getDayOfWeek();
+                    if (dow != DayOfWeek.SATURDAY && dow != DayOfWeek.SUNDAY) break;
+                } while (random.nextDouble() < 0.5);
+                double seconds = random.nextDouble() < 0.7
+                        ? 13 * 3600 + nextGaussian() * 3 * 3600  // around lunch time
+                        : random.nextDouble() * 86400;
+                stamps[i] = day * 86400 + Math.max(0, Math.min(86399, (long) seconds));
+            }
+            Arrays.sort(stamps);
+            return stamps;
+        }
+
+        private double nextGaussian() {
+            // Box-Muller on the chunk's own stream (SplittableRandom has no nextGaussian in Java 17)
+            double u1 = Math.max(1e-12, random.nextDouble());
+            return Math.sqrt(-2 * Math.log(u1)) * Math.cos(2 * Math.PI * random.nextDouble());
+        }
+
+        private void writeRow(int user, long stamp) {
+            int vendor = Shared.sample(shared.vendorCdf, random.nextDouble());
+            boolean deposit = random.nextDouble() < 0.15;
+            long cents;
+            String description;
+            if (deposit) {
+                cents = Math.round(Math.exp(7.0 + nextGaussian() * 0.8) * 100);  // median ~ $1,100
+                description = DEPOSIT_DESCRIPTIONS[random.nextInt(DEPOSIT_DESCRIPTIONS.length)];
+            } else {
+                cents = -Math.max(1, Math.round(Math.exp(3.2 + nextGaussian() * 1.0) * 100)); // median ~ $25
+                description = PAYMENT_DESCRIPTIONS[random.nextInt(PAYMENT_DESCRIPTIONS.length)];
+            }
+
+            appendInt(user);
+            append((byte) '|');
+            append(shared.dates[(int) (stamp / 86400)]);
+            append((byte) '|');
+            int secondOfDay = (int) (stamp % 86400);
+            appendTwoDigits(secondOfDay / 3600);
+            append((byte) ':');
+            appendTwoDigits(secondOfDay / 60 % 60);
+            append((byte) ':');
+            appendTwoDigits(secondOfDay % 60);
+            append((byte) '|');
+            appendAscii(description);
+            append((byte) '|');
+            append(shared.vendorNames[vendor]);
+            append((byte) '|');
+            appendCents(cents);
+            append((byte) '\n');
+        }
+
+        // one of the kinds of bad rows the loader has to survive
+        private void malformedRow() {
+            switch (random.nextInt(4)) {
+                case 0 -> appendAscii("1001|2023-13-45|10:00:00|bad date|Nowhere|-1.00\n");
+                case 1 -> appendAscii("1001|2023-01-01|10:00:00|missing amount|Nowhere\n");
+                case 2 -> appendAscii("1001|2023-01-01|10:00:00|bad amount|Nowhere|12,34.x\n");
+                default -> appendAscii("abc|2023-01-01|10:00:00|bad user|Nowhere|-1.00|extra\n");
+            }
+        }
+
+        private void ensure(int extra) {
+            if (len + extra > buf.length) buf = Arrays.copyOf(buf, Math.max(buf.length * 2, len + extra));
+        }
+
+        private void append(byte b) {
+            ensure(1);
+            buf[len++] = b;
+        }
+
+        private void append(byte[] bytes) {
+            append(bytes, 0, bytes.length);
+        }
+
+        private void append(byte[] bytes, int from, int to) {
+            ensure(to - from);
+            System.arraycopy(bytes, from, buf, len, to - from);
+            len += to - from;
+        }
+
+        private void appendAscii(String s) {
+            ensure(s.length());
+            for (int i = 0; i < s.length(); i++) buf[len++] = (byte) s.charAt(i);
+        }
+
+        private void appendTwoDigits(int v) {
+            ensure(2);
+            buf[len++] = (byte) ('0' + v / 10);
+            buf[len++] = (byte) ('0' + v % 10);
+        }
+
+        private void appendInt(long v) {
+            if (v < 0) {
+                append((byte) '-');
+                v = -v;
+            }
+            ensure(20);
+            int digitsStart = len;
+            do {
+                buf[len++] = (byte) ('0' + v % 10);
+                v /= 10;
+            } while (v > 0);
+            // digits were written backwards
+            for (int i = digitsStart, j = len - 1; i < j; i++, j--) {
+                byte tmp = buf[i];
+                buf[i] = buf[j];
+                buf[j] = tmp;
+            }
+        }
+
+        // cents as a plain decimal with two digits, e.g. -1234 -> -12.34
+        private void appendCents(long cents) {
+            if (cents < 0) {
+                append((byte) '-');
+                cents = -cents;
+            }
+            appendInt(cents / 100);
+            append((byte) '.');
+            appendTwoDigits((int) (cents % 100));
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package com.pluralsight;
+
+import java.util.List;
+
+/**
+ * # Listing: the rows a query returned plus the ledger head they are complete up to.
+ *
+ * head is the ledger size the rows were taken from: every matching row below it is in rows, none above it is.
+ * It's what a listing sends as X-Ledger-Head, so the live feed can continue right after exactly these rows.
+ */
+public record Listing(List<Transaction> rows, int head) {
+}
@@ -0,0 +1,165 @@
+package com.pluralsight;
+
+import io.javalin.http.sse.SseClient;
+
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * # LiveFeed: pushes appended transactions to Server-Sent Events clients.
+ *
+ * Every append is handed to one broadcaster thread, which copies it into the bounded buffer of each subscriber
+ * whose filter (e.g. user and/or deposits/payments) matches. Each subscriber's buffer is drained on its own task; a client that
+ * can't keep up fills its buffer and gets disconnected instead of holding everyone else back.
+ *
+ * Event ids are ledger offsets (a row's position in DataStore.ledger). A reconnecting EventSource sends the last
+ * id it saw as Last-Event-ID, and the feed replays everything after it from the ledger before going live, so the
+ * client receives exactly what it missed. Rows loaded by a progressive startup are history, not activity: they are
+ * neither pushed nor replayed (see StartupLoader.liveFrom).
+ */
+public final class LiveFeed {
+
+    // events a single client may have waiting before it's considered too slow
+    private static final int CLIENT_BUFFER = 256;
+    private static final int REPLAY_CHUNK = 1000;
+
+    private record Event(int offset, Transaction record) {
+    }
+
+    private static final class Subscriber {
+        final SseClient client;
+        final Predicate<Transaction> filter;
+        final Function<Transaction, Object> toPayload;
+        final BlockingQueue<Event> buffer = new ArrayBlockingQueue<>(CLIENT_BUFFER);
+        final AtomicBoolean draining = new AtomicBoolean();
+        volatile boolean live;
+        volatile boolean dropped;
+        volatile int replayEnd; // buffered events below this offset were already sent by the replay
+
+        Subscriber(SseClient client, Predicate<Transaction> filter, Function<Transaction, Object> toPayload) {
+            this.client = client;
+            this.filter = filter;
+            this.toPayload = toPayload;
+        }
+
+        boolean matches(Transaction t) {
+            return filter.test(t);
+        }
+    }
+
+    private static final List<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+    private static final BlockingQueue<Event> appended = new LinkedBlockingQueue<>();
+    private static final ExecutorService senders = Executors.newCachedThreadPool(runnable -> {
+        Thread t = new Thread(runnable, "live-feed-sender");
+        t.setDaemon(true);
+        return t;
+    });
+
+    static {
+        // runs inside DataStore.append while the ledger is locked, so size - 1 is the new row's offset
+        DataStore.onAppend(record -> {
+            int offset = DataStore.ledger.size() - 1;
+            if (offset >= StartupLoader.liveFrom()) appended.add(new Event(offset, record));
+        });
+
+        Thread broadcaster = new Thread(LiveFeed::broadcast, "live-feed-broadcaster");
+        broadcaster.setDaemon(true);
+        broadcaster.start();
+    }
+
+    private LiveFeed() {
+    }
+
+    /**
+     * Registers an SSE client. Rows after lastEventId (-1 for none) that pass the filter are replayed first,
+     * then new appends are pushed as they are committed. toPayload turns a row into the event's JSON body.
+     */
+    public static void subscribe(SseClient client, Predicate<Transaction> filter, int lastEventId,
+                                 Function<Transaction, Object> toPayload) {
+        Subscriber subscriber = new Subscriber(client, filter, toPayload);
+        client.onClose(() -> {
+            subscriber.dropped = true;
+            subscribers.remove(subscriber);
+        });
+        client.keepAlive();
+
+        // Join the broadcast first, then replay up to the head we saw: anything after it is already buffered
+        subscribers.add(subscriber);
+        int head = DataStore.size();
+        subscriber.replayEnd = head;
+        int offset = Math.max(Math.max(0, lastEventId + 1), StartupLoader.liveFrom());
+        while (offset < head && !subscriber.dropped) {
+            List<Transaction> rows = DataStore.rowsFrom(offset, Math.min(REPLAY_CHUNK, head - offset));
+            for (Transaction t : rows) {
+                if (subscriber.matches(t)) send(subscriber, new Event(offset, t));
+                offset++;
+            }
+        }
+        subscriber.live = true;
+        scheduleDrain(subscriber);
+    }
+
+    // number of connected clients (for status output)
+    public static int subscriberCount() {
+        return subscribers.size();
+    }
+
+    private static void broadcast() {
+        while (true) {
+            Event event;
+            try {
+                event = appended.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            for (Subscriber subscriber : subscribers) {
+                if (subscriber.dropped || !subscriber.matches(event.record())) continue;
+                if (!subscriber.buffer.offer(event)) {
+                    drop(subscriber);
+                } else if (subscriber.live) {
+                    scheduleDrain(subscriber);
+                }
+            }
+        }
+    }
+
+    // Sends everything buffered for a subscriber; at most one drain task runs per subscriber at a time
+    private static void scheduleDrain(Subscriber subscriber) {
+        if (!subscriber.draining.compareAndSet(false, true)) return;
+        senders.execute(() -> {
+            try {
+                Event event;
+                while (!subscriber.dropped && (event = subscriber.buffer.poll()) != null) {
+                    if (event.offset() >= subscriber.replayEnd) send(subscriber, event);
+                }
+            } finally {
+                subscriber.draining.set(false);
+            }
+            // an event may have arrived after the last poll but before draining was cleared
+            if (!subscriber.buffer.isEmpty() && !subscriber.dropped) scheduleDrain(subscriber);
+        });
+    }
+
+    private static void send(Subscriber subscriber, Event event) {
+        try {
+            subscriber.client.sendEvent("transaction", subscriber.toPayload.apply(event.record()),
+                    Integer.toString(event.offset()));
+        } catch (Exception e) {
+            drop(subscriber);
+        }
+    }
+
+    // Slow or broken client: forget it and close the stream (EventSource reconnects with Last-Event-ID)
+    private static void drop(Subscriber subscriber) {
+        subscriber.dropped = true;
+        subscribers.remove(subscriber);
+        subscriber.buffer.clear();
+        try {
+            subscriber.client.close();
+        } catch (Exception ignored) {
+        }
+    }
+}
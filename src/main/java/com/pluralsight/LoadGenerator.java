@@ -0,0 +1,299 @@
+package com.pluralsight;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * # LoadGenerator: reproducible load tests against a running (or embedded) WebServer.
+ *
+ * Two modes:
+ * - open (default): requests are scheduled at a fixed arrival rate no matter how fast the server answers, and
+ *   latency is measured from the time a request was *supposed* to be sent. A stalled server therefore shows up
+ *   as high latency instead of silently lowering the request rate (no coordinated omission). Requests still
+ *   unanswered 30 s after the run ends are reported as errors with status -1.
+ * - closed: a fixed number of workers each send a request, wait for the answer, and send the next one.
+ *
+ * The request mix is a list of weighted routes, picked with a seeded Random so a run can be repeated exactly.
+ * The report lists throughput, error rate and latency percentiles per route in a fixed text layout, so two
+ * builds' reports can be compared with diff.
+ *
+ * Options (all optional):
+ * --base=http://localhost:8080   server to test; several comma-separated servers (a primary and its read replicas)
+ *                                share the requests round-robin
+ * --embedded=8085                start a WebServer in this JVM on that port and test it instead of --base
+ * --mode=open|closed
+ * --rate=200                     requests per second (open mode)
+ * --concurrency=16               workers (closed mode)
+ * --duration=30 --warmup=5       seconds; samples from the warm-up are dropped
+ * --seed=42
+ * --mix="5:GET /api/transactions;3:GET /api/transactions/range?start=2023-01-01&end=2023-12-31"
+ *                                weight:METHOD path [body], separated by ';'. {seq} in a path or body becomes a
+ *                                number unique to this run, so POSTed rows aren't duplicates of each other, e.g.
+ *                                1:POST /api/transactions {"userId":1234,"description":"load {seq}","vendor":"LG","amount":-1}
+ *                                Requests with a body also carry an Idempotency-Key.
+ * --out=loadtest-report.txt
+ */
+public final class LoadGenerator {
+
+    // {seq} values (and Idempotency-Keys) are "<run>-<n>": unique across runs as well as within one
+    private static final String RUN = Long.toString(System.currentTimeMillis(), 36);
+    private static final AtomicLong sequence = new AtomicLong();
+
+    private static final String DEFAULT_MIX = "4:GET /api/transactions;"
+            + "3:GET /api/transactions/range?start=2023-01-01&end=2023-12-31;"
+            + "3:GET /api/transactions/user/1234";
+
+    // One entry of the request mix
+    private record Route(int weight, String method, String path, String body) {
+        String label() {
+            return method + " " + path;
+        }
+    }
+
+    // Latencies (microseconds) and outcomes for one route
+    private static final class RouteStats {
+        private long[] latencies = new long[1024];
+        private int count;
+        private long errors;
+        // status code -> count (0 = no response, -1 = still unanswered when an open-loop run gave up waiting)
+        private final TreeMap<Integer, Long> statuses = new TreeMap<>();
+
+        synchronized void record(long micros, int status) {
+            if (count == latencies.length) latencies = Arrays.copyOf(latencies, count * 2);
+            latencies[count++] = micros;
+            statuses.merge(status, 1L, Long::sum);
+            if (status < 200 || status >= 300) errors++;
+        }
+    }
+
+    private LoadGenerator() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (arg.startsWith("--") && eq > 2) options.put(arg.substring(2, eq), arg.substring(eq + 1));
+        }
+        List<String> report = run(options);
+        String out = options.getOrDefault("out", "loadtest-report.txt");
+        Files.write(Paths.get(out), report, StandardCharsets.UTF_8);
+        report.forEach(System.out::println);
+        System.out.println("Report written to " + out);
+        System.exit(0);
+    }
+
+    // Runs one load test with the given options (see above, without "--") and returns the report lines
+    static List<String> run(Map<String, String> options) throws Exception {
+        String base = options.getOrDefault("base", "http://localhost:8080");
+        String mode = options.getOrDefault("mode", "open");
+        double rate = Double.parseDouble(options.getOrDefault("rate", "200"));
+        int concurrency = Integer.parseInt(options.getOrDefault("concurrency", "16"));
+        int duration = Integer.parseInt(options.getOrDefault("duration", "30"));
+        int warmup = Integer.parseInt(options.getOrDefault("warmup", "5"));
+        long seed = Long.parseLong(options.getOrDefault("seed", "42"));
+        List<Route> mix = parseMix(options.getOrDefault("mix", DEFAULT_MIX));
+
+        if (options.containsKey("embedded")) {
+            String port = options.get("embedded");
+            WebServer.main(new String[]{"--port=" + port});
+            base = "http://localhost:" + port;
+        }
+
+        String[] bases = base.split(",");
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(4, concurrency));
+        HttpClient client = HttpClient.newBuilder()
+                .connectTimeout(Duration.ofSeconds(5))
+                .executor(pool)
+                .build();
+        Map<String, RouteStats> stats = new LinkedHashMap<>();
+        for (Route r : mix) stats.put(r.label(), new RouteStats());
+
+        System.out.printf("Running %s-loop load against %s for %ds (+%ds warm-up)%n", mode, base, duration, warmup);
+        long started = System.nanoTime();
+        long measureFrom = started + TimeUnit.SECONDS.toNanos(warmup);
+        long stopAt = measureFrom + TimeUnit.SECONDS.toNanos(duration);
+
+        if (mode.equals("closed")) {
+            runClosed(client, bases, mix, stats, concurrency, seed, measureFrom, stopAt);
+        } else {
+            runOpen(client, bases, mix, stats, rate, seed, measureFrom, stopAt);
+        }
+        pool.shutdownNow();
+        return report(stats, duration, mode, base, rate, concurrency, duration, warmup, seed, mix);
+    }
+
+    private static List<Route> parseMix(String spec) {
+        List<Route> routes = new ArrayList<>();
+        for (String entry : spec.split(";")) {
+            String e = entry.trim();
+            if (e.isEmpty()) continue;
+            int colon = e.indexOf(':');
+            String[] parts = e.substring(colon + 1).trim().split(" ", 3);
+            routes.add(new Route(Integer.parseInt(e.substring(0, colon).trim()), parts[0].toUpperCase(Locale.ROOT),
+                    parts[1], parts.length > 2 ? parts[2] : null));
+        }
+        if (routes.isEmpty()) throw new IllegalArgumentException("mix has no routes");
+        return routes;
+    }
+
+    private static Route pick(List<Route> mix, Random random) {
+        int total = 0;
+        for (Route r : mix) total += r.weight();
+        int n = random.nextInt(total);
+        for (Route r : mix) {
+            n -= r.weight();
+            if (n < 0) return r;
+        }
+        return mix.get(mix.size() - 1);
+    }
+
+    // Each request goes to the next server in bases
+    private static HttpRequest request(String[] bases, Route route) {
+        long n = sequence.incrementAndGet();
+        String seq = RUN + "-" + n;
+        String base = bases[(int) (n % bases.length)];
+        HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(base + route.path().replace("{seq}", seq)))
+                .timeout(Duration.ofSeconds(30));
+        if (route.body() != null) {
+            builder.header("Content-Type", "application/json")
+                    .header("Idempotency-Key", seq)
+                    .method(route.method(), HttpRequest.BodyPublishers.ofString(route.body().replace("{seq}", seq)));
+        } else {
+            builder.method(route.method(), HttpRequest.BodyPublishers.noBody());
+        }
+        return builder.build();
+    }
+
+    // status recorded for open-loop requests that never completed
+    private static final int TIMED_OUT = -1;
+
+    // An open-loop request that hasn't been answered yet
+    private record Pending(long due, String label) {
+    }
+
+    /**
+     * Open loop: request i is due at start + i / rate. Latency is measured from that due time, so time spent
+     * waiting behind a slow server counts against the server. Whatever is still unanswered 30 s after the last
+     * request was due is recorded as a timeout (TIMED_OUT, latency up to that moment) rather than left out, which
+     * would hide exactly the slowest requests; an answer arriving after that is ignored.
+     */
+    private static void runOpen(HttpClient client, String[] bases, List<Route> mix, Map<String, RouteStats> stats,
+                                double rate, long seed, long measureFrom, long stopAt) throws InterruptedException {
+        Random random = new Random(seed);
+        long start = System.nanoTime();
+        double intervalNanos = TimeUnit.SECONDS.toNanos(1) / rate;
+        // request number -> request; whoever removes an entry (the answer or the give-up below) records it
+        Map<Long, Pending> inFlight = new ConcurrentHashMap<>();
+        for (long i = 0; ; i++) {
+            long due = start + (long) (i * intervalNanos);
+            if (due >= stopAt) break;
+            long wait = due - System.nanoTime();
+            if (wait > 0) TimeUnit.NANOSECONDS.sleep(wait);
+
+            Route route = pick(mix, random);
+            long n = i;
+            inFlight.put(n, new Pending(due, route.label()));
+            client.sendAsync(request(bases, route), HttpResponse.BodyHandlers.discarding())
+                    .whenComplete((response, error) -> {
+                        if (inFlight.remove(n) != null && due >= measureFrom) {
+                            long micros = (System.nanoTime() - due) / 1000;
+                            stats.get(route.label()).record(micros, error == null ? response.statusCode() : 0);
+                        }
+                    });
+        }
+        // let the last requests finish (they were all due before stopAt)
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (!inFlight.isEmpty() && System.nanoTime() < deadline) Thread.sleep(10);
+        for (Long n : new ArrayList<>(inFlight.keySet())) {
+            Pending pending = inFlight.remove(n);
+            if (pending != null && pending.due() >= measureFrom) {
+                stats.get(pending.label()).record((System.nanoTime() - pending.due()) / 1000, TIMED_OUT);
+            }
+        }
+    }
+
+    // Closed loop: each worker sends its next request as soon as the previous one is answered
+    private static void runClosed(HttpClient client, String[] bases, List<Route> mix, Map<String, RouteStats> stats,
+                                  int concurrency, long seed, long measureFrom, long stopAt) throws InterruptedException {
+        ExecutorService workers = Executors.newFixedThreadPool(concurrency);
+        for (int w = 0; w < concurrency; w++) {
+            Random random = new Random(seed + w);
+            workers.execute(() -> {
+                while (System.nanoTime() < stopAt) {
+                    Route route = pick(mix, random);
+                    long sent = System.nanoTime();
+                    int status;
+                    try {
+                        status = client.send(request(bases, route), HttpResponse.BodyHandlers.discarding()).statusCode();
+                    } catch (IOException e) {
+                        status = 0;
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    if (sent >= measureFrom) stats.get(route.label()).record((System.nanoTime() - sent) / 1000, status);
+                }
+            });
+        }
+        workers.shutdown();
+        workers.awaitTermination(1, TimeUnit.MINUTES);
+    }
+
+    // Builds the report: one block of settings, then one fixed-width line per route (in mix order) and a total
+    private static List<String> report(Map<String, RouteStats> stats, double seconds, String mode, String base,
+                                       double rate, int concurrency, int duration, int warmup, long seed,
+                                       List<Route> mix) {
+        List<String> lines = new ArrayList<>();
+        lines.add("# ledger load test");
+        lines.add("mode=" + mode + " base=" + base + " duration=" + duration + "s warmup=" + warmup + "s seed=" + seed
+                + (mode.equals("closed") ? " concurrency=" + concurrency : " rate=" + rate + "/s"));
+        for (Route r : mix) lines.add("mix " + r.weight() + " " + r.label());
+        lines.add("");
+        lines.add(String.format(Locale.ROOT, "%-60s %9s %9s %7s %9s %9s %9s %9s %9s  %s",
+                "route", "requests", "req/s", "err%", "p50ms", "p90ms", "p99ms", "p99.9ms", "maxms", "statuses"));
+
+        RouteStats all = new RouteStats();
+        for (Map.Entry<String, RouteStats> e : stats.entrySet()) {
+            RouteStats s = e.getValue();
+            synchronized (s) {
+                for (int i = 0; i < s.count; i++) append(all, s.latencies[i]);
+                all.errors += s.errors;
+                s.statuses.forEach((k, v) -> all.statuses.merge(k, v, Long::sum));
+                lines.add(line(e.getKey(), s, seconds));
+            }
+        }
+        lines.add(line("TOTAL", all, seconds));
+        return lines;
+    }
+
+    private static void append(RouteStats stats, long value) {
+        if (stats.count == stats.latencies.length) stats.latencies = Arrays.copyOf(stats.latencies, stats.count * 2);
+        stats.latencies[stats.count++] = value;
+    }
+
+    private static String line(String label, RouteStats s, double seconds) {
+        long[] sorted = Arrays.copyOf(s.latencies, s.count);
+        Arrays.sort(sorted);
+        return String.format(Locale.ROOT, "%-60.60s %9d %9.1f %7.2f %9.2f %9.2f %9.2f %9.2f %9.2f  %s",
+                label, s.count, s.count / seconds, s.count == 0 ? 0.0 : 100.0 * s.errors / s.count,
+                percentile(sorted, 50), percentile(sorted, 90), percentile(sorted, 99), percentile(sorted, 99.9),
+                sorted.length == 0 ? 0.0 : sorted[sorted.length - 1] / 1000.0, s.statuses);
+    }
+
+    // nearest-rank percentile of sorted microsecond latencies, in milliseconds
+    private static double percentile(long[] sorted, double p) {
+        if (sorted.length == 0) return 0;
+        int rank = (int) Math.ceil(p / 100.0 * sorted.length);
+        return sorted[Math.max(0, Math.min(sorted.length - 1, rank - 1))] / 1000.0;
+    }
+}
@@ -0,0 +1,196 @@
+package com.pluralsight;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.BiConsumer;
+import java.util.function.BinaryOperator;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * # ParallelScan: full-ledger filters and aggregates split across cores.
+ *
+ * Queries that no index can answer (free-form custom search, wide date ranges, admin views over every user) walk
+ * the whole ledger. Here the rows are split into segments that are filtered (and sorted, or folded into a partial
+ * aggregate) on a dedicated ForkJoinPool, then merged back together. Merging keeps the requested order, so
+ * callers get the same newest-first list a sequential stream would give them.
+ *
+ * Small scans aren't worth the task overhead, so anything under the cost threshold runs sequentially on the
+ * calling thread. Both knobs can be set with system properties:
+ * -Dledger.scan.threads=8 (defaults to the number of cores), -Dledger.scan.threshold=50000 (rows).
+ *
+ * ScanBenchmark measures the speedup for different ledger sizes and thread counts.
+ */
+public final class ParallelScan {
+
+    // Below this many rows a scan stays sequential
+    static final int SEQUENTIAL_THRESHOLD = Integer.getInteger("ledger.scan.threshold", 50_000);
+
+    // Rows a single task filters before it stops splitting
+    static final int SEGMENT_ROWS = 16_384;
+
+    // Its own pool so long scans don't starve the common pool (parallel streams, CompletableFutures)
+    private static final ForkJoinPool pool = newPool(Integer.getInteger("ledger.scan.threads",
+            Runtime.getRuntime().availableProcessors()));
+
+    private ParallelScan() {
+    }
+
+    // A scan pool with daemon threads named ledger-scan-N
+    static ForkJoinPool newPool(int threads) {
+        return new ForkJoinPool(Math.max(1, threads), p -> {
+            ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+            t.setName("ledger-scan-" + t.getPoolIndex());
+            t.setDaemon(true);
+            return t;
+        }, null, false);
+    }
+
+    /**
+     * Rows matching the filter, sorted by order. rows must not change during the call, so pass a snapshot
+     * (or the CLI ledger, which only the CLI thread touches).
+     */
+    public static List<Transaction> filterSorted(List<Transaction> rows, Predicate<? super Transaction> filter,
+                                                 Comparator<? super Transaction> order) {
+        return filterSorted(rows, filter, order, pool, SEQUENTIAL_THRESHOLD);
+    }
+
+    static List<Transaction> filterSorted(List<Transaction> rows, Predicate<? super Transaction> filter,
+                                          Comparator<? super Transaction> order, ForkJoinPool pool, int threshold) {
+        LedgerEvents.Filter event = new LedgerEvents.Filter();
+        event.start();
+        List<Transaction> source = rows instanceof RandomAccess ? rows : new ArrayList<>(rows);
+        boolean sequential = source.size() < threshold || pool.getParallelism() == 1;
+        List<Transaction> out = sequential
+                ? new FilterSortTask(source, 0, source.size(), filter, order).filterSegment()
+                : pool.invoke(new FilterSortTask(source, 0, source.size(), filter, order));
+        // allocated only counts the calling thread, so for a parallel scan it leaves out the pool's share
+        if (event.stop()) {
+            event.kind = "scan";
+            event.rows = source.size();
+            event.matched = out.size();
+            event.parallel = !sequential;
+            event.commit();
+        }
+        return out;
+    }
+
+    /**
+     * Folds the matching rows into partial results (one per segment) and combines them.
+     * identity makes an empty partial result, accumulator adds one row to it and combiner merges two of them.
+     */
+    public static <A> A aggregate(List<Transaction> rows, Predicate<? super Transaction> filter, Supplier<A> identity,
+                                  BiConsumer<A, Transaction> accumulator, BinaryOperator<A> combiner) {
+        return aggregate(rows, filter, identity, accumulator, combiner, pool, SEQUENTIAL_THRESHOLD);
+    }
+
+    static <A> A aggregate(List<Transaction> rows, Predicate<? super Transaction> filter, Supplier<A> identity,
+                           BiConsumer<A, Transaction> accumulator, BinaryOperator<A> combiner, ForkJoinPool pool,
+                           int threshold) {
+        List<Transaction> source = rows instanceof RandomAccess ? rows : new ArrayList<>(rows);
+        AggregateTask<A> task = new AggregateTask<>(source, 0, source.size(), filter, identity, accumulator, combiner);
+        if (source.size() < threshold || pool.getParallelism() == 1) {
+            return task.foldSegment();
+        }
+        return pool.invoke(task);
+    }
+
+    // Filters and sorts one segment, or splits it in two and merges the sorted halves. ForkJoinTask is
+    // Serializable, but tasks never leave the pool, so they don't get a serialVersionUID.
+    @SuppressWarnings("serial")
+    private static final class FilterSortTask extends RecursiveTask<List<Transaction>> {
+        private final List<Transaction> rows;
+        private final int from;
+        private final int to;
+        private final Predicate<? super Transaction> filter;
+        private final Comparator<? super Transaction> order;
+
+        FilterSortTask(List<Transaction> rows, int from, int to, Predicate<? super Transaction> filter,
+                       Comparator<? super Transaction> order) {
+            this.rows = rows;
+            this.from = from;
+            this.to = to;
+            this.filter = filter;
+            this.order = order;
+        }
+
+        @Override
+        protected List<Transaction> compute() {
+            if (to - from <= SEGMENT_ROWS) return filterSegment();
+            int mid = (from + to) >>> 1;
+            FilterSortTask left = new FilterSortTask(rows, from, mid, filter, order);
+            left.fork();
+            List<Transaction> right = new FilterSortTask(rows, mid, to, filter, order).compute();
+            return merge(left.join(), right, order);
+        }
+
+        List<Transaction> filterSegment() {
+            List<Transaction> out = new ArrayList<>();
+            for (int i = from; i < to; i++) {
+                Transaction t = rows.get(i);
+                if (filter.test(t)) out.add(t);
+            }
+            LedgerEvents.sort(out, order, "scan segment");
+            return out;
+        }
+    }
+
+    // Two-way merge of sorted lists; on ties the left (earlier in the ledger) row goes first, like a stable sort
+    static List<Transaction> merge(List<Transaction> left, List<Transaction> right, Comparator<? super Transaction> order) {
+        if (left.isEmpty()) return right;
+        if (right.isEmpty()) return left;
+        List<Transaction> out = new ArrayList<>(left.size() + right.size());
+        int i = 0, j = 0;
+        while (i < left.size() && j < right.size()) {
+            if (order.compare(right.get(j), left.get(i)) < 0) out.add(right.get(j++));
+            else out.add(left.get(i++));
+        }
+        while (i < left.size()) out.add(left.get(i++));
+        while (j < right.size()) out.add(right.get(j++));
+        return out;
+    }
+
+    // Folds one segment, or splits it in two and combines the halves (not serialized either, like FilterSortTask)
+    @SuppressWarnings("serial")
+    private static final class AggregateTask<A> extends RecursiveTask<A> {
+        private final List<Transaction> rows;
+        private final int from;
+        private final int to;
+        private final Predicate<? super Transaction> filter;
+        private final Supplier<A> identity;
+        private final BiConsumer<A, Transaction> accumulator;
+        private final BinaryOperator<A> combiner;
+
+        AggregateTask(List<Transaction> rows, int from, int to, Predicate<? super Transaction> filter,
+                      Supplier<A> identity, BiConsumer<A, Transaction> accumulator, BinaryOperator<A> combiner) {
+            this.rows = rows;
+            this.from = from;
+            this.to = to;
+            this.filter = filter;
+            this.identity = identity;
+            this.accumulator = accumulator;
+            this.combiner = combiner;
+        }
+
+        @Override
+        protected A compute() {
+            if (to - from <= SEGMENT_ROWS) return foldSegment();
+            int mid = (from + to) >>> 1;
+            AggregateTask<A> left = new AggregateTask<>(rows, from, mid, filter, identity, accumulator, combiner);
+            left.fork();
+            A right = new AggregateTask<>(rows, mid, to, filter, identity, accumulator, combiner).compute();
+            return combiner.apply(left.join(), right);
+        }
+
+        A foldSegment() {
+            A partial = identity.get();
+            for (int i = from; i < to; i++) {
+                Transaction t = rows.get(i);
+                if (filter.test(t)) accumulator.accept(partial, t);
+            }
+            return partial;
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package com.pluralsight;
+
+import java.time.LocalDate;
+import java.util.*;
+import java.util.function.Supplier;
+
+/**
+ * # QueryCache: results of repeated date-range and per-user queries, kept until a new row could change them.
+ *
+ * The month/year reports, /api/transactions/range and /api/transactions/user/{id} are asked again and again with
+ * the same parameters, and each time they scan and sort the whole ledger. This keeps the sorted result lists.
+ *
+ * - Keys are the route plus normalized parameters (parsed dates, reversed bounds swapped) plus who is asking,
+ *   since a regular CLI user only sees their own rows.
+ * - Eviction is LRU, bounded by number of entries and by the total rows held; one huge result is never cached.
+ * - Every entry remembers the user (null = everyone) and the date range it covers. An appended row only drops
+ *   the entries it would show up in; everything else stays warm.
+ * - Queries that are still running when a matching row is appended don't get cached, so a stale list can't sneak in.
+ * - getListing also keeps the ledger head the rows were taken at. An entry that is still there had no matching row
+ *   appended since, so that head stays right for it (X-Ledger-Head, where the live feed picks up).
+ *
+ * There is one cache per ledger (DataStore.queryCache for the default one, one per TenantLedger).
+ */
+public class QueryCache {
+
+    static final int DEFAULT_MAX_ENTRIES = 512;
+    static final long DEFAULT_MAX_ROWS = 500_000;
+
+    private static final int MAX_LISTED_ENTRIES = 100;
+
+    private record Entry(String route, String key, Integer userId, LocalDate start, LocalDate end,
+                         List<Transaction> rows, int head, long createdMillis) {
+    }
+
+    // A query being computed right now; flagged stale if a row it would include is appended meanwhile
+    private static final class Pending {
+        final Integer userId;
+        final LocalDate start;
+        final LocalDate end;
+        boolean stale;
+
+        Pending(Integer userId, LocalDate start, LocalDate end) {
+            this.userId = userId;
+            this.start = start;
+            this.end = end;
+        }
+    }
+
+    private static final class RouteStats {
+        long hits;
+        long misses;
+        long invalidations;
+        long evictions;
+    }
+
+    private final int maxEntries;
+    private final long maxRows;
+
+    // key -> entry, least recently used first. Everything below is guarded by this map.
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final List<Pending> pending = new ArrayList<>();
+    private final Map<String, RouteStats> stats = new TreeMap<>();
+    private long cachedRows;
+
+    public QueryCache() {
+        this(DEFAULT_MAX_ENTRIES, DEFAULT_MAX_ROWS);
+    }
+
+    public QueryCache(int maxEntries, long maxRows) {
+        this.maxEntries = maxEntries;
+        this.maxRows = maxRows;
+    }
+
+    /**
+     * Returns the cached rows for this query or runs it and caches the result.
+     * route names the query for the hit-rate metrics, viewer says who is asking, userId is the only user whose
+     * rows can be in the result (null = any user), start/end the inclusive date range it covers (null = open).
+     */
+    public List<Transaction> get(String route, String viewer, Integer userId, LocalDate start, LocalDate end,
+                                 Supplier<List<Transaction>> query) {
+        return getListing(route, viewer, userId, start, end, () -> new Listing(query.get(), -1)).rows();
+    }
+
+    // get for a query that also reports the ledger head its rows are complete up to; a hit returns the cached head
+    public Listing getListing(String route, String viewer, Integer userId, LocalDate start, LocalDate end,
+                              Supplier<Listing> query) {
+        if (start != null && end != null && start.isAfter(end)) {
+            LocalDate tmp = start;
+            start = end;
+            end = tmp;
+        }
+        String key = route + "|" + viewer + "|" + (userId == null ? "*" : userId) + "|"
+                + (start == null ? "*" : start) + "|" + (end == null ? "*" : end);
+
+        Pending mine = new Pending(userId, start, end);
+        synchronized (entries) {
+            RouteStats routeStats = stats.computeIfAbsent(route, r -> new RouteStats());
+            Entry hit = entries.get(key);
+            if (hit != null) {
+                routeStats.hits++;
+                return new Listing(hit.rows(), hit.head());
+            }
+            routeStats.misses++;
+            pending.add(mine);
+        }
+
+        List<Transaction> rows;
+        int head;
+        try {
+            Listing listing = query.get();
+            rows = List.copyOf(listing.rows());
+            head = listing.head();
+        } finally {
+            synchronized (entries) {
+                pending.remove(mine);
+            }
+        }
+
+        synchronized (entries) {
+            if (!mine.stale && rows.size() <= maxRows / 4) {
+                Entry old = entries.put(key, new Entry(route, key, userId, start, end, rows, head, System.currentTimeMillis()));
+                if (old != null) cachedRows -= old.rows().size();
+                cachedRows += rows.size();
+                evict();
+            }
+        }
+        return new Listing(rows, head);
+    }
+
+    // Drops least recently used entries until both limits hold again
+    private void evict() {
+        Iterator<Entry> it = entries.values().iterator();
+        while ((entries.size() > maxEntries || cachedRows > maxRows) && it.hasNext()) {
+            Entry eldest = it.next();
+            it.remove();
+            cachedRows -= eldest.rows().size();
+            stats.computeIfAbsent(eldest.route(), r -> new RouteStats()).evictions++;
+        }
+    }
+
+    // Append listener: drops only the entries (and in-flight queries) whose user and date range contain the row
+    public void invalidate(Transaction record) {
+        synchronized (entries) {
+            Iterator<Entry> it = entries.values().iterator();
+            while (it.hasNext()) {
+                Entry entry = it.next();
+                if (covers(entry.userId(), entry.start(), entry.end(), record)) {
+                    it.remove();
+                    cachedRows -= entry.rows().size();
+                    stats.computeIfAbsent(entry.route(), r -> new RouteStats()).invalidations++;
+                }
+            }
+            for (Pending p : pending) {
+                if (covers(p.userId, p.start, p.end, record)) p.stale = true;
+            }
+        }
+    }
+
+    private static boolean covers(Integer userId, LocalDate start, LocalDate end, Transaction record) {
+        if (userId != null && record.getUserId() != userId) return false;
+        LocalDate date = record.getDate();
+        if (date == null) return true;
+        return (start == null || !date.isBefore(start)) && (end == null || !date.isAfter(end));
+    }
+
+    // Empties the cache (metrics are kept) and returns how many entries were dropped
+    public int clear() {
+        synchronized (entries) {
+            int dropped = entries.size();
+            entries.clear();
+            cachedRows = 0;
+            return dropped;
+        }
+    }
+
+    // Limits, per-route hit rates and the most recently used entries for the admin endpoint
+    public Map<String, Object> status() {
+        synchronized (entries) {
+            Map<String, Object> out = new LinkedHashMap<>();
+            out.put("maxEntries", maxEntries);
+            out.put("maxRows", maxRows);
+            out.put("entries", entries.size());
+            out.put("rows", cachedRows);
+
+            Map<String, Object> routes = new LinkedHashMap<>();
+            stats.forEach((route, s) -> {
+                Map<String, Object> m = new LinkedHashMap<>();
+                long lookups = s.hits + s.misses;
+                m.put("hits", s.hits);
+                m.put("misses", s.misses);
+                m.put("hitRate", lookups == 0 ? 0.0 : (double) s.hits / lookups);
+                m.put("invalidations", s.invalidations);
+                m.put("evictions", s.evictions);
+                routes.put(route, m);
+            });
+            out.put("routes", routes);
+
+            // LinkedHashMap iterates least recently used first, so walk it backwards
+            List<Entry> recent = new ArrayList<>(entries.values());
+            Collections.reverse(recent);
+            long now = System.currentTimeMillis();
+            out.put("cached", recent.stream().limit(MAX_LISTED_ENTRIES).map(e -> {
+                Map<String, Object> m = new LinkedHashMap<>();
+                m.put("key", e.key());
+                m.put("rows", e.rows().size());
+                m.put("ageSeconds", (now - e.createdMillis()) / 1000);
+                return m;
+            }).toList());
+            return out;
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package com.pluralsight;
+
+import java.io.*;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * # Replication: log shipping from a primary WebServer to read-only followers.
+ *
+ * Since the ledger is append-only, the position of a row in DataStore.ledger is its offset in the log.
+ * A follower connects over TCP, says where it wants to start and the primary streams every row from there on.
+ *
+ * Protocol (one UTF-8 line per message):
+ * - follower -> primary: FROM offset
+ * - primary -> follower: ROW offset|userid|date|time|description|vendor|amount
+ * - primary -> follower: HEAD size   (sent after each batch and as a heartbeat while idle)
+ *
+ * The follower applies rows in order to its own in-memory ledger, so its offsets always match the primary's.
+ * If the connection drops it reconnects and resumes from the first offset it hasn't applied yet.
+ */
+public final class Replication {
+
+    // How many rows the primary sends before flushing and reporting its head again
+    private static final int BATCH_SIZE = 1000;
+
+    // How long the primary waits for new rows before sending a heartbeat
+    private static final long HEARTBEAT_MILLIS = 1000;
+
+    private static final long RECONNECT_MILLIS = 2000;
+
+    // Follower state (only set when this process runs as a follower)
+    private static volatile String primaryAddress;
+    private static volatile long primaryHead;
+    private static volatile long lastContactMillis;
+    private static volatile boolean connected;
+    private static volatile boolean caughtUp; // has applied everything the primary had at some point
+
+    // Primary state
+    private static volatile int replicationPort = -1;
+    private static final AtomicInteger followerCount = new AtomicInteger();
+
+    private Replication() {
+    }
+
+    // true if this process is a read-only follower of another ledger
+    public static boolean isFollower() {
+        return primaryAddress != null;
+    }
+
+    /**
+     * Opens the replication port on the primary. Every follower gets its own daemon thread that streams rows
+     * from the offset the follower asked for.
+     */
+    public static void startPrimary(int port) throws IOException {
+        ServerSocket server = new ServerSocket(port);
+        replicationPort = server.getLocalPort();
+        Thread acceptor = new Thread(() -> {
+            while (!server.isClosed()) {
+                try {
+                    Socket follower = server.accept();
+                    Thread sender = new Thread(() -> serveFollower(follower), "replication-sender-" + follower.getPort());
+                    sender.setDaemon(true);
+                    sender.start();
+                } catch (IOException e) {
+                    System.err.println("Replication accept failed: " + e.getMessage());
+                }
+            }
+        }, "replication-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        System.out.println("Replication log served on port " + replicationPort);
+    }
+
+    private static void serveFollower(Socket socket) {
+        followerCount.incrementAndGet();
+        try (socket;
+             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+             BufferedWriter out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8))) {
+
+            String hello = in.readLine();
+            if (hello == null || !hello.startsWith("FROM ")) return;
+            int offset = Integer.parseInt(hello.substring(5).trim());
+
+            while (true) {
+                List<Transaction> batch = DataStore.rowsFrom(offset, BATCH_SIZE);
+                for (Transaction record : batch) {
+                    out.write("ROW " + offset + "|" + Utilities.toFileLine(record));
+                    out.newLine();
+                    offset++;
+                }
+                out.write("HEAD " + DataStore.size());
+                out.newLine();
+                out.flush();
+
+                // Nothing new to send so wait for an append (or send a heartbeat when the wait times out)
+                if (batch.size() < BATCH_SIZE) {
+                    DataStore.awaitAppend(offset, HEARTBEAT_MILLIS);
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            System.err.println("Replication follower disconnected: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            followerCount.decrementAndGet();
+        }
+    }
+
+    /**
+     * Makes this process a follower of the primary at host:port. Rows are applied on a background thread
+     * starting from whatever this ledger already holds; the connection is retried forever.
+     */
+    public static void startFollower(String host, int port) {
+        primaryAddress = host + ":" + port;
+        Thread applier = new Thread(() -> {
+            while (true) {
+                try {
+                    follow(host, port);
+                } catch (IOException | RuntimeException e) {
+                    System.err.println("Replication from " + primaryAddress + " failed: " + e.getMessage());
+                }
+                connected = false;
+                try {
+                    Thread.sleep(RECONNECT_MILLIS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }, "replication-applier");
+        applier.setDaemon(true);
+        applier.start();
+    }
+
+    private static void follow(String host, int port) throws IOException {
+        try (Socket socket = new Socket(host, port);
+             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+             BufferedWriter out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8))) {
+
+            int applied = DataStore.size();
+            out.write("FROM " + applied);
+            out.newLine();
+            out.flush();
+            connected = true;
+
+            String line;
+            while ((line = in.readLine()) != null) {
+                lastContactMillis = System.currentTimeMillis();
+                if (line.startsWith("HEAD ")) {
+                    primaryHead = Long.parseLong(line.substring(5).trim());
+                    if (applied >= primaryHead) caughtUp = true;
+                } else if (line.startsWith("ROW ")) {
+                    int bar = line.indexOf('|');
+                    int offset = Integer.parseInt(line.substring(4, bar));
+                    if (offset != applied) {
+                        throw new IllegalStateException("expected offset " + applied + " but primary sent " + offset);
+                    }
+                    String[] fields = line.substring(bar + 1).split("\\|", -1);
+                    // the primary's ledger has no duplicates, so one here means the two ledgers differ: counting it
+                    // anyway would shift every later offset. Drop the connection; the next one starts from our size
+                    if (!Utilities.addToLedger(Utilities.parseTransaction(fields))) {
+                        caughtUp = false;
+                        throw new IllegalStateException("row at offset " + offset
+                                + " is already in this follower's ledger; it has diverged from the primary");
+                    }
+                    applied++;
+                }
+            }
+        }
+    }
+
+    // true once a follower has applied every row the primary reported (used for /api/ready)
+    public static boolean isCaughtUp() {
+        return caughtUp;
+    }
+
+    // Replication status for /api/replication: role, offsets and how far behind the primary this follower is
+    public static Map<String, Object> status() {
+        Map<String, Object> status = new LinkedHashMap<>();
+        int size = DataStore.size();
+        if (isFollower()) {
+            status.put("role", "follower");
+            status.put("primary", primaryAddress);
+            status.put("connected", connected);
+            status.put("appliedOffset", size);
+            status.put("primaryHead", primaryHead);
+            status.put("lagRows", Math.max(0, primaryHead - size));
+            status.put("lastContactMillisAgo", lastContactMillis == 0 ? -1 : System.currentTimeMillis() - lastContactMillis);
+        } else {
+            status.put("role", "primary");
+            status.put("head", size);
+            status.put("replicationPort", replicationPort);
+            status.put("followers", followerCount.get());
+        }
+        return status;
+    }
+}
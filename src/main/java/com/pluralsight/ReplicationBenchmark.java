@@ -0,0 +1,165 @@
+package com.pluralsight;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * # ReplicationBenchmark: read throughput of a primary alone and with 1, 2, 4... read replicas, all on localhost.
+ *
+ * Starts a real primary WebServer process (--replication-port) in --dir, which must hold the transactions.csv to
+ * serve, then adds follower processes one step at a time. At each step it waits until every follower has caught
+ * up (/api/ready), then runs a closed-loop LoadGenerator whose requests go round-robin to the primary and all
+ * followers, and keeps its TOTAL line. Every process is stopped at the end.
+ *
+ * All processes share this machine's cores, so throughput can only grow with followers while there are idle
+ * cores (and while the load generator itself isn't the bottleneck); the report records the core count.
+ *
+ * Options: --dir=. --followers=0,1,2,4 --port=8090 --replication-port=9190 --heap=1g
+ *          --concurrency=32 --duration=20 --warmup=5 --seed=42 --mix=... (LoadGenerator syntax)
+ *          --out=replication-benchmark.txt
+ */
+public final class ReplicationBenchmark {
+
+    private static final String DEFAULT_MIX = "3:GET /api/summary?start=2023-01-01&end=2023-12-31;"
+            + "3:GET /api/balance?user=1234&start=2023-01-01&end=2023-12-31;"
+            + "2:GET /api/transactions/range?start=2023-06-01&end=2023-06-07;"
+            + "2:GET /api/reports/top-vendors?k=10";
+
+    // LoadGenerator report lines start with the route label padded to this many characters
+    private static final int LABEL_WIDTH = 60;
+
+    private static final List<Process> processes = new ArrayList<>();
+
+    private ReplicationBenchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (arg.startsWith("--") && eq > 2) options.put(arg.substring(2, eq), arg.substring(eq + 1));
+        }
+        Path dir = Paths.get(options.getOrDefault("dir", "."));
+        int port = Integer.parseInt(options.getOrDefault("port", "8090"));
+        int replicationPort = Integer.parseInt(options.getOrDefault("replication-port", "9190"));
+        String heap = options.getOrDefault("heap", "1g");
+        String out = options.getOrDefault("out", "replication-benchmark.txt");
+        TreeSet<Integer> steps = new TreeSet<>();
+        for (String n : options.getOrDefault("followers", "0,1,2,4").split(",")) steps.add(Integer.parseInt(n.trim()));
+
+        Map<String, String> load = new HashMap<>();
+        load.put("mode", "closed");
+        load.put("concurrency", options.getOrDefault("concurrency", "32"));
+        load.put("duration", options.getOrDefault("duration", "20"));
+        load.put("warmup", options.getOrDefault("warmup", "5"));
+        load.put("seed", options.getOrDefault("seed", "42"));
+        load.put("mix", options.getOrDefault("mix", DEFAULT_MIX));
+
+        if (!Files.exists(dir.resolve(Utilities.fileName))) {
+            System.err.println("No " + Utilities.fileName + " in " + dir.toAbsolutePath());
+            System.exit(1);
+        }
+        Path logs = Files.createTempDirectory("replication-benchmark");
+        Runtime.getRuntime().addShutdownHook(new Thread(ReplicationBenchmark::stopAll));
+        HttpClient client = HttpClient.newHttpClient();
+
+        List<String> lines = new ArrayList<>();
+        lines.add("# read replicas on localhost");
+        lines.add("cores=" + Runtime.getRuntime().availableProcessors() + " heap=" + heap + " mode=closed concurrency="
+                + load.get("concurrency") + " duration=" + load.get("duration") + "s warmup=" + load.get("warmup")
+                + "s seed=" + load.get("seed"));
+        for (String route : load.get("mix").split(";")) lines.add("mix " + route.trim());
+        lines.add("process logs in " + logs);
+        lines.add("");
+        System.out.println(String.join("\n", lines));
+
+        List<String> bases = new ArrayList<>();
+        start(dir, logs.resolve("primary.log"), heap, "--port=" + port, "--replication-port=" + replicationPort);
+        bases.add("http://localhost:" + port);
+        awaitReady(client, bases.get(0));
+
+        String header = null;
+        for (int followers : steps) {
+            while (bases.size() - 1 < followers) {
+                int followerPort = port + bases.size();
+                start(logs.toAbsolutePath(), logs.resolve("follower-" + bases.size() + ".log"), heap,
+                        "--port=" + followerPort, "--follow=localhost:" + replicationPort);
+                bases.add("http://localhost:" + followerPort);
+            }
+            for (String base : bases) awaitReady(client, base);
+            load.put("base", String.join(",", bases));
+            for (String line : LoadGenerator.run(load)) {
+                if (header == null && line.startsWith("route")) {
+                    header = String.format(Locale.ROOT, "%-9s", "followers") + line.substring(LABEL_WIDTH);
+                    lines.add(header);
+                    System.out.println(header);
+                }
+                if (line.startsWith("TOTAL")) {
+                    String row = String.format(Locale.ROOT, "%-9d", followers) + line.substring(LABEL_WIDTH);
+                    lines.add(row);
+                    System.out.println(row);
+                }
+            }
+        }
+
+        Files.write(Paths.get(out), lines, StandardCharsets.UTF_8);
+        System.out.println("Report written to " + out);
+        stopAll();
+        System.exit(0);
+    }
+
+    // A WebServer process with this JVM's java and class path, running in dir
+    private static void start(Path dir, Path log, String heap, String... args) throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add(ProcessHandle.current().info().command().orElse("java"));
+        command.add("-Xmx" + heap);
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(WebServer.class.getName());
+        command.addAll(Arrays.asList(args));
+        Process process = new ProcessBuilder(command).directory(dir.toFile()).redirectErrorStream(true)
+                .redirectOutput(log.toFile()).start();
+        synchronized (processes) {
+            processes.add(process);
+        }
+    }
+
+    // Polls /api/ready until it says 200 (loaded, or caught up with the primary); gives up after five minutes
+    private static void awaitReady(HttpClient client, String base) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + Duration.ofMinutes(5).toMillis();
+        HttpRequest request = HttpRequest.newBuilder(URI.create(base + "/api/ready")).timeout(Duration.ofSeconds(5)).build();
+        while (System.currentTimeMillis() < deadline) {
+            try {
+                if (client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode() == 200) return;
+            } catch (IOException e) {
+                // not listening yet
+            }
+            Thread.sleep(250);
+        }
+        throw new IllegalStateException(base + " wasn't ready after five minutes");
+    }
+
+    private static void stopAll() {
+        synchronized (processes) {
+            for (Process process : processes) process.destroy();
+            for (Process process : processes) {
+                try {
+                    if (!process.waitFor(10, TimeUnit.SECONDS)) process.destroyForcibly();
+                } catch (InterruptedException e) {
+                    process.destroyForcibly();
+                }
+            }
+            processes.clear();
+        }
+    }
+}
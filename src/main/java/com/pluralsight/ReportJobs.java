@@ -0,0 +1,327 @@
+package com.pluralsight;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * # ReportJobs: large reports computed in the background and cached on disk.
+ *
+ * A multi-year range.txt or a full export can take seconds, which used to block a Jetty thread on every click.
+ * Instead a job is submitted, a small bounded pool computes it, and the client polls for status/progress and
+ * downloads the finished file.
+ *
+ * Report types:
+ * - "range":  the same lines as /api/transactions/range.txt (start and end required)
+ * - "export": rows in the transactions file format, newest first (start and end optional)
+ *
+ * Finished results live in report-cache/, one file per job (key.id.txt), and the cache maps type and range to the
+ * newest one. The cache is LRU with a cap on entries and total bytes, and an appended row drops every cached report
+ * whose range contains the row's date. A job whose file was dropped answers 410 until it is submitted again; a job
+ * that went stale while it ran keeps its file to itself, and it's deleted when the job is forgotten.
+ *
+ * Dropping happens on the append path, so it only unlinks entries; the files are deleted on the cleaner thread.
+ */
+public final class ReportJobs {
+
+    public enum Status {QUEUED, RUNNING, DONE, FAILED}
+
+    // Status returned by GET /api/reports/jobs/{id}
+    public record JobView(String id, String type, String start, String end, Status status, long processed,
+                          long total, double progress, boolean cached, String error) {
+    }
+
+    private static final Path CACHE_DIR = Paths.get("report-cache");
+    private static final int MAX_CACHED_REPORTS = 32;
+    private static final long MAX_CACHE_BYTES = 256L * 1024 * 1024;
+    private static final int MAX_TRACKED_JOBS = 1000;
+
+    // Two workers and a short queue: a burst of big reports gets a 503 instead of piling up
+    private static final ThreadPoolExecutor workers = new ThreadPoolExecutor(2, 2, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(16), runnable -> {
+        Thread t = new Thread(runnable, "report-worker");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // Cached results: report key -> cached file, least recently used first
+    private static final LinkedHashMap<String, CachedReport> cache = new LinkedHashMap<>(16, 0.75f, true);
+    private static long cacheBytes;
+
+    // Submitted jobs, oldest first
+    private static final LinkedHashMap<String, Job> jobs = new LinkedHashMap<>();
+    // The ones still queued or running (the only ones an append can make stale), guarded by jobs
+    private static final Set<Job> unfinished = new HashSet<>();
+
+    // Deletes dropped report files off the append path
+    private static final ExecutorService cleaner = Executors.newSingleThreadExecutor(runnable -> {
+        Thread t = new Thread(runnable, "report-cleaner");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private static final AtomicLong jobCounter = new AtomicLong();
+
+    static {
+        // Cached files from a previous run can't be trusted since the ledger may have changed since
+        try {
+            Files.createDirectories(CACHE_DIR);
+            try (DirectoryStream<Path> old = Files.newDirectoryStream(CACHE_DIR)) {
+                for (Path p : old) Files.deleteIfExists(p);
+            }
+        } catch (IOException e) {
+            System.err.println("Could not prepare " + CACHE_DIR + ": " + e.getMessage());
+        }
+        DataStore.onAppend(ReportJobs::invalidate);
+    }
+
+    private record CachedReport(String key, LocalDate start, LocalDate end, Path file, long bytes) {
+        boolean covers(LocalDate date) {
+            return (start == null || !date.isBefore(start)) && (end == null || !date.isAfter(end));
+        }
+    }
+
+    private static final class Job {
+        final String id;
+        final String type;
+        final LocalDate start;
+        final LocalDate end;
+        volatile Status status = Status.QUEUED;
+        volatile long processed;
+        volatile long total;
+        volatile boolean stale; // a row inside the range was appended while the job ran
+        volatile boolean cached;
+        volatile String error;
+        volatile Path result;
+
+        Job(String id, String type, LocalDate start, LocalDate end) {
+            this.id = id;
+            this.type = type;
+            this.start = start;
+            this.end = end;
+        }
+
+        String key() {
+            return type + "_" + (start == null ? "all" : start) + "_" + (end == null ? "all" : end);
+        }
+
+        boolean covers(LocalDate date) {
+            return (start == null || !date.isBefore(start)) && (end == null || !date.isAfter(end));
+        }
+
+        JobView view() {
+            long t = total;
+            return new JobView(id, type, start == null ? null : start.toString(), end == null ? null : end.toString(),
+                    status, processed, t, status == Status.DONE ? 1.0 : (t == 0 ? 0.0 : (double) processed / t),
+                    cached, error);
+        }
+    }
+
+    private ReportJobs() {
+    }
+
+    /**
+     * Submits a report job. If the same report is already cached the job is finished right away.
+     * Throws IllegalArgumentException for an unknown type and RejectedExecutionException when the queue is full.
+     */
+    public static JobView submit(String type, LocalDate start, LocalDate end) {
+        String reportType = type == null ? "" : type.trim().toLowerCase(Locale.ROOT);
+        if (!reportType.equals("range") && !reportType.equals("export")) {
+            throw new IllegalArgumentException("type must be range or export");
+        }
+        if (reportType.equals("range") && (start == null || end == null)) {
+            throw new IllegalArgumentException("start and end are required as YYYY-MM-DD");
+        }
+        if (start != null && end != null && start.isAfter(end)) {
+            LocalDate tmp = start;
+            start = end;
+            end = tmp;
+        }
+        Job job = new Job(Long.toString(jobCounter.incrementAndGet()), reportType, start, end);
+
+        synchronized (cache) {
+            CachedReport hit = cache.get(job.key());
+            if (hit != null) {
+                job.result = hit.file();
+                job.cached = true;
+                job.processed = job.total = 1;
+                job.status = Status.DONE;
+            }
+        }
+        // tracked before it starts, so a row appended while it reads the ledger marks it stale
+        Job dropped = null;
+        synchronized (jobs) {
+            jobs.put(job.id, job);
+            if (job.status != Status.DONE) unfinished.add(job);
+            if (jobs.size() > MAX_TRACKED_JOBS) dropped = jobs.remove(jobs.keySet().iterator().next());
+        }
+        if (dropped != null) forget(dropped);
+        if (job.status != Status.DONE) {
+            try {
+                workers.execute(() -> run(job));
+            } catch (RejectedExecutionException e) { // the queue is full
+                synchronized (jobs) {
+                    jobs.remove(job.id);
+                    unfinished.remove(job);
+                }
+                throw e;
+            }
+        }
+        return job.view();
+    }
+
+    // status of a job, or null if the id is unknown
+    public static JobView status(String id) {
+        Job job;
+        synchronized (jobs) {
+            job = jobs.get(id);
+        }
+        return job == null ? null : job.view();
+    }
+
+    /**
+     * Opens the finished result of a job, or returns null if it isn't done or its file was dropped from the cache
+     * since. An open stream keeps reading the file even if it's deleted meanwhile.
+     */
+    public static InputStream openResult(String id) throws IOException {
+        Job job;
+        synchronized (jobs) {
+            job = jobs.get(id);
+        }
+        if (job == null || job.status != Status.DONE || job.result == null) return null;
+        synchronized (cache) {
+            cache.get(job.key()); // touch it so a download counts as a use
+        }
+        try {
+            return Files.newInputStream(job.result);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    // A job that dropped out of the jobs map: a result only it had (stale, or never cached) goes with it
+    private static void forget(Job job) {
+        Path file = job.result;
+        if (file == null) return;
+        synchronized (cache) {
+            for (CachedReport report : cache.values()) {
+                if (report.file().equals(file)) return;
+            }
+        }
+        deleteLater(file);
+    }
+
+    private static void run(Job job) {
+        job.status = Status.RUNNING;
+        Path file = CACHE_DIR.resolve(job.key() + "." + job.id + ".txt");
+        try {
+            List<Transaction> rows = job.type.equals("range")
+                    ? Utilities.transactionsByDuration(job.start, job.end)
+                    : exportRows(job.start, job.end);
+            job.total = rows.size();
+
+            try (BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+                if (job.type.equals("export")) {
+                    out.write("userid|date|time|description|vendor|amount");
+                    out.newLine();
+                }
+                long n = 0;
+                for (Transaction t : rows) {
+                    out.write(job.type.equals("range") ? Utilities.formatTransaction(t) : Utilities.toFileLine(t));
+                    out.newLine();
+                    if (++n % 1000 == 0) job.processed = n;
+                }
+                job.processed = n;
+            }
+
+            // checked and cached under the cache lock, which invalidate holds while it marks jobs stale, so a row
+            // appended in between can't slip past both
+            // a stale result still goes to the caller, it just isn't cached for anyone else
+            synchronized (cache) {
+                job.result = file;
+                if (!job.stale) putInCache(new CachedReport(job.key(), job.start, job.end, file, Files.size(file)));
+            }
+            job.status = Status.DONE;
+        } catch (Exception e) {
+            job.error = e.getMessage();
+            job.status = Status.FAILED;
+            deleteLater(file);
+        } finally {
+            synchronized (jobs) {
+                unfinished.remove(job);
+            }
+        }
+    }
+
+    // export rows in the requested range (whole ledger if open), newest first
+    private static List<Transaction> exportRows(LocalDate start, LocalDate end) {
+        List<Transaction> rows = new ArrayList<>();
+        for (Transaction t : DataStore.rowsFrom(0, Integer.MAX_VALUE)) {
+            if ((start == null || !t.getDate().isBefore(start)) && (end == null || !t.getDate().isAfter(end))) {
+                rows.add(t);
+            }
+        }
+        rows.sort(BalanceIndex.BY_DATETIME_ASCENDING.reversed());
+        return rows;
+    }
+
+    private static void putInCache(CachedReport report) {
+        synchronized (cache) {
+            CachedReport previous = cache.put(report.key(), report);
+            if (previous != null) {
+                // two jobs for the same report ran at once: the newer file wins, the older one is dropped
+                cacheBytes -= previous.bytes();
+                deleteLater(previous.file());
+            }
+            cacheBytes += report.bytes();
+            // evict least recently used reports until both limits hold again
+            Iterator<CachedReport> it = cache.values().iterator();
+            while ((cache.size() > MAX_CACHED_REPORTS || cacheBytes > MAX_CACHE_BYTES) && it.hasNext()) {
+                CachedReport eldest = it.next();
+                if (eldest == report) break;
+                it.remove();
+                cacheBytes -= eldest.bytes();
+                deleteLater(eldest.file());
+            }
+        }
+    }
+
+    // Append listener: drops cached reports (and marks unfinished jobs) whose range contains the new row.
+    // Both happen under the cache lock (see run); the jobs lock is only ever taken inside it, never the other way.
+    // It runs under the ledger lock, so it does no file work itself: dropped files are deleted by the cleaner.
+    private static void invalidate(Transaction record) {
+        if (record.getDate() == null) return;
+        synchronized (cache) {
+            Iterator<CachedReport> it = cache.values().iterator();
+            while (it.hasNext()) {
+                CachedReport report = it.next();
+                if (report.covers(record.getDate())) {
+                    it.remove();
+                    cacheBytes -= report.bytes();
+                    deleteLater(report.file());
+                }
+            }
+            synchronized (jobs) {
+                for (Job job : unfinished) {
+                    if (job.covers(record.getDate())) job.stale = true;
+                }
+            }
+        }
+    }
+
+    private static void deleteLater(Path file) {
+        cleaner.execute(() -> {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                System.err.println("Could not delete cached report " + file + ": " + e.getMessage());
+            }
+        });
+    }
+}
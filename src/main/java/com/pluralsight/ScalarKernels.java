@@ -0,0 +1,80 @@
+package com.pluralsight;
+
+// Plain loops over the columns; the fallback whenever the Vector API isn't available
+final class ScalarKernels implements ColumnKernels {
+
+    @Override
+    public void rangeMask(int[] epochDays, int count, int fromDay, int toDay, long[] bitmap) {
+        for (int w = 0; w < (count + 63) >>> 6; w++) {
+            long bits = 0;
+            int base = w << 6;
+            int end = Math.min(count, base + 64);
+            for (int i = base; i < end; i++) {
+                int day = epochDays[i];
+                if (day >= fromDay && day <= toDay) bits |= 1L << (i - base);
+            }
+            bitmap[w] = bits;
+        }
+    }
+
+    @Override
+    public void userMask(int[] userIds, int count, int userId, long[] bitmap) {
+        for (int w = 0; w < (count + 63) >>> 6; w++) {
+            long bits = bitmap[w];
+            while (bits != 0) {
+                int bit = Long.numberOfTrailingZeros(bits);
+                if (userIds[(w << 6) + bit] != userId) bitmap[w] &= ~(1L << bit);
+                bits &= bits - 1;
+            }
+        }
+    }
+
+    @Override
+    public void signMask(long[] cents, int count, int sign, long[] bitmap) {
+        for (int w = 0; w < (count + 63) >>> 6; w++) {
+            long bits = bitmap[w];
+            while (bits != 0) {
+                int bit = Long.numberOfTrailingZeros(bits);
+                long amount = cents[(w << 6) + bit];
+                if (sign > 0 ? amount <= 0 : amount >= 0) bitmap[w] &= ~(1L << bit);
+                bits &= bits - 1;
+            }
+        }
+    }
+
+    @Override
+    public void signedSums(long[] cents, int count, long[] bitmap, long[] out) {
+        long credits = 0, debits = 0;
+        for (int w = 0; w < (count + 63) >>> 6; w++) {
+            long bits = bitmap[w];
+            while (bits != 0) {
+                long amount = cents[(w << 6) + Long.numberOfTrailingZeros(bits)];
+                if (amount < 0) credits += amount;
+                else debits += amount;
+                bits &= bits - 1;
+            }
+        }
+        out[0] = credits;
+        out[1] = debits;
+    }
+
+    @Override
+    public void typeCounts(long[] cents, int count, long[] bitmap, long[] out) {
+        long credits = 0, selected = 0;
+        for (int w = 0; w < (count + 63) >>> 6; w++) {
+            long bits = bitmap[w];
+            selected += Long.bitCount(bits);
+            while (bits != 0) {
+                if (cents[(w << 6) + Long.numberOfTrailingZeros(bits)] < 0) credits++;
+                bits &= bits - 1;
+            }
+        }
+        out[0] = credits;
+        out[1] = selected - credits;
+    }
+
+    @Override
+    public String name() {
+        return "scalar";
+    }
+}
@@ -0,0 +1,149 @@
+package com.pluralsight;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.YearMonth;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * # ScanBenchmark: how much ParallelScan speeds up full-ledger queries for different sizes and core counts.
+ *
+ * Builds seeded in-memory ledgers of each size and times three queries that no index can answer:
+ * - range:  a two-year date range, sorted newest first (admin range report)
+ * - search: free-form "vendor contains" search, sorted newest first (customSearch)
+ * - vendors: exact vendor totals across everyone (top-vendors with mode=exact)
+ *
+ * Each query runs with 1 thread (sequential) and with pools of 2, 4, ... up to the core count. Every parallel
+ * result is checked against the sequential one before it is timed.
+ *
+ * Options: --sizes=100000,1000000,4000000 --runs=7 --seed=42 --out=scan-benchmark.txt
+ *          --threads=1,2,4,8 (defaults to powers of two up to the core count)
+ * Larger sizes need a bigger heap, e.g. -Xmx4g for 4M rows.
+ */
+public final class ScanBenchmark {
+
+    private static final Comparator<Transaction> NEWEST_FIRST = BalanceIndex.BY_DATETIME_ASCENDING.reversed();
+
+    private ScanBenchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (arg.startsWith("--") && eq > 2) options.put(arg.substring(2, eq), arg.substring(eq + 1));
+        }
+        int runs = Integer.parseInt(options.getOrDefault("runs", "7"));
+        long seed = Long.parseLong(options.getOrDefault("seed", "42"));
+        String out = options.get("out");
+        int cores = Runtime.getRuntime().availableProcessors();
+
+        List<Integer> threadCounts = new ArrayList<>();
+        if (options.containsKey("threads")) {
+            for (String t : options.get("threads").split(",")) threadCounts.add(Integer.parseInt(t.trim()));
+        } else {
+            for (int t = 1; t < cores; t *= 2) threadCounts.add(t);
+            threadCounts.add(cores);
+        }
+
+        List<String> lines = new ArrayList<>();
+        lines.add("# ledger parallel scan benchmark");
+        lines.add("cores=" + cores + " runs=" + runs + " seed=" + seed + " (median ms, speedup vs 1 thread)");
+        lines.add("");
+        StringBuilder header = new StringBuilder(String.format(Locale.ROOT, "%-8s %10s", "query", "rows"));
+        for (int t : threadCounts) header.append(String.format(Locale.ROOT, " %16s", t + " thr"));
+        lines.add(header.toString());
+        System.out.println(String.join("\n", lines));
+
+        for (String size : options.getOrDefault("sizes", "100000,1000000,4000000").split(",")) {
+            List<Transaction> rows = generate(Integer.parseInt(size.trim()), seed);
+            LocalDate from = LocalDate.of(2022, 1, 1);
+            LocalDate to = LocalDate.of(2023, 12, 31);
+            Predicate<Transaction> inRange = t -> !t.getDate().isBefore(from) && !t.getDate().isAfter(to);
+            Predicate<Transaction> search = t -> t.getVendor().toLowerCase().contains("mart");
+
+            List<Query> queries = List.of(
+                    new Query("range", pool -> ParallelScan.filterSorted(rows, inRange, NEWEST_FIRST, pool, 0)),
+                    new Query("search", pool -> ParallelScan.filterSorted(rows, search, NEWEST_FIRST, pool, 0)),
+                    new Query("vendors", pool -> vendorTotals(rows, pool)));
+
+            for (Query query : queries) {
+                StringBuilder line = new StringBuilder(String.format(Locale.ROOT, "%-8s %10d", query.name(), rows.size()));
+                Object expected = null;
+                double baseline = 0;
+                for (int threads : threadCounts) {
+                    ForkJoinPool pool = ParallelScan.newPool(threads);
+                    try {
+                        Object result = query.run().apply(pool);
+                        if (expected == null) expected = result;
+                        else if (!expected.equals(result)) {
+                            throw new IllegalStateException(query.name() + " with " + threads + " threads differs from 1 thread");
+                        }
+                        double median = median(query, pool, runs);
+                        if (threads == 1) baseline = median;
+                        line.append(String.format(Locale.ROOT, " %9.1f (%4.1fx)", median, baseline / median));
+                    } finally {
+                        pool.shutdown();
+                    }
+                }
+                lines.add(line.toString());
+                System.out.println(line);
+            }
+        }
+        if (out != null) {
+            Files.write(Paths.get(out), lines, StandardCharsets.UTF_8);
+            System.out.println("Report written to " + out);
+        }
+    }
+
+    private record Query(String name, Function<ForkJoinPool, Object> run) {
+    }
+
+    // Median wall time of runs executions (after two warm-up runs), in milliseconds
+    private static double median(Query query, ForkJoinPool pool, int runs) {
+        for (int i = 0; i < 2; i++) query.run().apply(pool);
+        double[] times = new double[runs];
+        for (int i = 0; i < runs; i++) {
+            long started = System.nanoTime();
+            query.run().apply(pool);
+            times[i] = (System.nanoTime() - started) / 1_000_000.0;
+        }
+        Arrays.sort(times);
+        return times[runs / 2];
+    }
+
+    // Same fold as VendorSketches.exactTopVendors(mode=exact, by=count) but with an explicit pool
+    private static Map<String, Long> vendorTotals(List<Transaction> rows, ForkJoinPool pool) {
+        YearMonth from = YearMonth.of(2021, 1);
+        return ParallelScan.aggregate(rows, t -> !YearMonth.from(t.getDate()).isBefore(from), HashMap<String, Long>::new,
+                (m, t) -> m.merge(t.getVendor(), 1L, Long::sum),
+                (a, b) -> {
+                    b.forEach((k, v) -> a.merge(k, v, Long::sum));
+                    return a;
+                }, pool, 0);
+    }
+
+    // Seeded rows spread over 2020-2025 across 1000 users and 500 vendors, in no particular date order
+    static List<Transaction> generate(int count, long seed) {
+        SplittableRandom random = new SplittableRandom(seed);
+        String[] vendors = new String[500];
+        String[] stems = {"Mart", "Cafe", "Fuel", "Books", "Market", "Air", "Pharmacy", "Grill", "Store", "Cloud"};
+        for (int i = 0; i < vendors.length; i++) vendors[i] = stems[i % stems.length] + " " + i;
+        LocalDate first = LocalDate.of(2020, 1, 1);
+        List<Transaction> rows = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            LocalDate date = first.plusDays(random.nextInt(6 * 365));
+            LocalTime time = LocalTime.ofSecondOfDay(random.nextInt(24 * 3600));
+            double amount = random.nextInt(10) == 0 ? random.nextInt(500_000) / 100.0 : -random.nextInt(20_000) / 100.0;
+            rows.add(new Transaction(date, time, "purchase " + i, vendors[random.nextInt(vendors.length)], amount,
+                    1000 + random.nextInt(1000)));
+        }
+        return rows;
+    }
+}
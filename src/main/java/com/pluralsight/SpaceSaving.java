@@ -0,0 +1,165 @@
+package com.pluralsight;
+
+import java.util.*;
+
+/**
+ * # SpaceSaving: weighted heavy-hitter sketch that keeps at most capacity counters.
+ *
+ * When a new key arrives and the table is full, the smallest counter is handed over to the new key and its old
+ * count becomes the new key's error. Guarantees for every tracked key:
+ * - count - error <= true weight <= count
+ * - any key whose true weight is above total / capacity is always tracked
+ *
+ * Two sketches can be merged (per-month sketches are merged into a report), which keeps the same guarantees with
+ * the error bound of the combined stream.
+ *
+ * Counters live in parallel arrays (grown on demand up to capacity, since most sketches never fill up) with a
+ * min-heap of their slots ordered by count, so finding the smallest counter is O(1) and every add is O(log capacity).
+ * Weights are arbitrary (spend in cents), so the unit-increment stream-summary bucket list doesn't apply.
+ */
+public class SpaceSaving {
+
+    // A tracked key's over-estimated weight and how much of it may not belong to the key
+    public record Counter(String key, long count, long error) {
+    }
+
+    private final int capacity;
+    private final Map<String, Integer> slots = new HashMap<>(); // key -> slot in the arrays below
+    private String[] keys = new String[4];
+    private long[] counts = new long[4];
+    private long[] errors = new long[4];
+    private int[] heap = new int[4];    // slots, smallest count first
+    private int[] heapPos = new int[4]; // slot -> its index in heap
+    private int size;
+    private long total;
+
+    public SpaceSaving(int capacity) {
+        this.capacity = capacity;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    // true once every counter is in use; the next new key will take over the smallest one
+    public boolean isFull() {
+        return size >= capacity;
+    }
+
+    public boolean contains(String key) {
+        return slots.containsKey(key);
+    }
+
+    // total weight of everything that was added
+    public long total() {
+        return total;
+    }
+
+    public void add(String key, long weight) {
+        total += weight;
+        Integer slot = slots.get(key);
+        if (slot != null) {
+            counts[slot] += weight;
+            siftDown(heapPos[slot]);
+        } else if (size < capacity) {
+            put(key, weight, 0);
+        } else {
+            // take over the smallest counter; its count is the most this key could have been missed by
+            int min = heap[0];
+            long minCount = counts[min];
+            slots.remove(keys[min]);
+            keys[min] = key;
+            counts[min] = minCount + weight;
+            errors[min] = minCount;
+            slots.put(key, min);
+            siftDown(0);
+        }
+    }
+
+    // a new counter in the next free slot (the table isn't full)
+    private void put(String key, long count, long error) {
+        if (size == keys.length) {
+            int grown = Math.min(capacity, size * 2);
+            keys = Arrays.copyOf(keys, grown);
+            counts = Arrays.copyOf(counts, grown);
+            errors = Arrays.copyOf(errors, grown);
+            heap = Arrays.copyOf(heap, grown);
+            heapPos = Arrays.copyOf(heapPos, grown);
+        }
+        int slot = size++;
+        keys[slot] = key;
+        counts[slot] = count;
+        errors[slot] = error;
+        slots.put(key, slot);
+        heap[slot] = slot;
+        heapPos[slot] = slot;
+        siftUp(slot);
+    }
+
+    private void siftUp(int i) {
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (counts[heap[parent]] <= counts[heap[i]]) break;
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int i) {
+        while (true) {
+            int smallest = i, left = 2 * i + 1, right = left + 1;
+            if (left < size && counts[heap[left]] < counts[heap[smallest]]) smallest = left;
+            if (right < size && counts[heap[right]] < counts[heap[smallest]]) smallest = right;
+            if (smallest == i) return;
+            swap(i, smallest);
+            i = smallest;
+        }
+    }
+
+    private void swap(int i, int j) {
+        int a = heap[i], b = heap[j];
+        heap[i] = b;
+        heap[j] = a;
+        heapPos[b] = i;
+        heapPos[a] = j;
+    }
+
+    // smallest tracked count, or 0 if the table still has room (then nothing untracked can have any weight)
+    private long minCount() {
+        return size < capacity ? 0 : counts[heap[0]];
+    }
+
+    /**
+     * Merges another sketch into this one. A key missing from one side may still have had up to that side's
+     * minimum count there, so that minimum is added to both its count and its error.
+     */
+    public void merge(SpaceSaving other) {
+        long thisMin = minCount();
+        long otherMin = other.minCount();
+        List<Counter> merged = new ArrayList<>(size + other.size);
+        for (int i = 0; i < size; i++) {
+            Integer o = other.slots.get(keys[i]);
+            merged.add(o == null
+                    ? new Counter(keys[i], counts[i] + otherMin, errors[i] + otherMin)
+                    : new Counter(keys[i], counts[i] + other.counts[o], errors[i] + other.errors[o]));
+        }
+        for (int i = 0; i < other.size; i++) {
+            if (!slots.containsKey(other.keys[i])) {
+                merged.add(new Counter(other.keys[i], other.counts[i] + thisMin, other.errors[i] + thisMin));
+            }
+        }
+        slots.clear();
+        size = 0;
+        merged.sort(Comparator.comparingLong(Counter::count).reversed().thenComparing(Counter::key));
+        for (Counter c : merged.subList(0, Math.min(capacity, merged.size()))) put(c.key(), c.count(), c.error());
+        total += other.total;
+    }
+
+    // the k largest counters, biggest first
+    public List<Counter> top(int k) {
+        List<Counter> out = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) out.add(new Counter(keys[i], counts[i], errors[i]));
+        out.sort(Comparator.comparingLong(Counter::count).reversed().thenComparing(Counter::key));
+        return out.size() > k ? out.subList(0, k) : out;
+    }
+}
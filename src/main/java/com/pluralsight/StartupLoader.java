@@ -0,0 +1,193 @@
+package com.pluralsight;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * # StartupLoader: loads the transactions file in the background, newest rows first.
+ *
+ * By default WebServer parses the whole file before it opens its port, which on a big ledger is long enough for
+ * an orchestrator to give up on it. With --startup=progressive the server starts right away and this loader reads
+ * the file from the end backwards in 1 MB blocks. The file is appended to as transactions happen, so its tail is
+ * the most recent activity and recent-range queries have their rows long before the old history is in.
+ *
+ * /api/health only says the process is alive. /api/ready answers 503 with the progress below until the whole file
+ * is loaded, and while it isn't, data responses carry X-Ledger-Partial: true and X-Ledger-Loaded-Since (the oldest
+ * date loaded so far) so clients know the answer may be incomplete.
+ *
+ * Rows still go through Utilities.addToLedger, so de-duplication, indexes, caches and replication see them as
+ * ordinary appends, except the live feed: it only pushes rows from liveFrom() on, so clients watching for new
+ * activity aren't sent the history as it loads. Archived years (ColdStore segments) are loaded after the file.
+ */
+public final class StartupLoader {
+
+    public enum State {WAITING, LOADING, READY, FAILED}
+
+    private static final int BLOCK_BYTES = 1 << 20;
+
+    private static volatile State state = State.WAITING;
+    private static volatile String file;
+    private static volatile long totalBytes;
+    private static volatile long bytesRead;
+    private static volatile long rowsLoaded;
+    private static volatile LocalDate loadedSince;
+    private static volatile long startedMillis;
+    private static volatile long finishedMillis;
+    private static volatile String error;
+    private static volatile int liveFrom;
+
+    private StartupLoader() {
+    }
+
+    public static boolean isReady() {
+        return state == State.READY;
+    }
+
+    // Ledger offset of the first row that is new activity rather than loaded history (Integer.MAX_VALUE while a
+    // progressive load runs; writes are refused until it's done, so everything appended meanwhile is history)
+    public static int liveFrom() {
+        return liveFrom;
+    }
+
+    // For the blocking startup: the file was loaded before the server opened
+    public static void markReady(String fileName) {
+        file = fileName;
+        finishedMillis = System.currentTimeMillis();
+        rowsLoaded = DataStore.size();
+        state = State.READY;
+    }
+
+    // Oldest date among the rows loaded so far (null until the first row)
+    public static LocalDate loadedSince() {
+        return loadedSince;
+    }
+
+    // Starts the background load; whenDone runs on the loader thread once the whole file is in
+    public static void startInBackground(String fileName, Runnable whenDone) {
+        file = fileName;
+        liveFrom = Integer.MAX_VALUE;
+        state = State.LOADING;
+        startedMillis = System.currentTimeMillis();
+        Thread loader = new Thread(() -> {
+            try {
+                loadBackwards(Paths.get(fileName));
+                loadArchive();
+                finished();
+                whenDone.run();
+            } catch (NoSuchFileException e) {
+                // same as the blocking load: a missing file just means an empty ledger
+                System.err.println("ERROR: File not found: " + fileName);
+                loadArchive();
+                finished();
+                whenDone.run();
+            } catch (IOException | RuntimeException e) {
+                error = e.getMessage();
+                state = State.FAILED;
+                System.err.println("Background load of " + fileName + " failed: " + e.getMessage());
+            }
+        }, "ledger-loader");
+        loader.setDaemon(true);
+        loader.start();
+    }
+
+    /**
+     * Reads the file block by block from the end. A line cut by a block boundary is carried over and completed
+     * by the next (earlier) block; lines inside a block are handled last to first.
+     */
+    static void loadBackwards(Path path) throws IOException {
+        LedgerEvents.Load event = new LedgerEvents.Load();
+        event.start();
+        long rowsBefore = rowsLoaded;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long pos = channel.size();
+            totalBytes = pos;
+            byte[] carry = new byte[0];
+            ByteBuffer block = ByteBuffer.allocate(BLOCK_BYTES);
+            while (pos > 0) {
+                int length = (int) Math.min(BLOCK_BYTES, pos);
+                pos -= length;
+                block.clear().limit(length);
+                while (block.hasRemaining()) {
+                    if (channel.read(block, pos + block.position()) < 0) throw new IOException("file shrank while loading");
+                }
+
+                // this block followed by the unfinished line from the block after it
+                byte[] bytes = Arrays.copyOf(block.array(), length + carry.length);
+                System.arraycopy(carry, 0, bytes, length, carry.length);
+
+                // everything before the first line break may continue in the previous block
+                int firstBreak = 0;
+                while (firstBreak < bytes.length && bytes[firstBreak] != '\n') firstBreak++;
+                int end = bytes.length;
+                for (int i = end - 1; i > firstBreak; i--) {
+                    if (bytes[i] == '\n') {
+                        addLine(bytes, i + 1, end);
+                        end = i;
+                    }
+                }
+                if (firstBreak < bytes.length) addLine(bytes, firstBreak + 1, end);
+                carry = Arrays.copyOf(bytes, Math.min(firstBreak, bytes.length));
+                bytesRead = totalBytes - pos - carry.length;
+            }
+            addLine(carry, 0, carry.length); // the file's first line
+            bytesRead = totalBytes;
+        }
+        if (event.stop()) {
+            event.source = path + " (backwards)";
+            event.rows = rowsLoaded - rowsBefore;
+            event.bytes = totalBytes;
+            event.commit();
+        }
+    }
+
+    private static void finished() {
+        finishedMillis = System.currentTimeMillis();
+        liveFrom = DataStore.size();
+        state = State.READY;
+    }
+
+    private static void addLine(byte[] bytes, int from, int to) {
+        if (from >= to) return;
+        Utilities.readLine(new String(bytes, from, to - from, StandardCharsets.UTF_8), StartupLoader::add);
+    }
+
+    // The archived years (ColdStore) are older than anything in the file, so they come last
+    private static void loadArchive() {
+        ColdStore.forEachRow(StartupLoader::add);
+    }
+
+    private static void add(Transaction record) {
+        if (Utilities.addToLedger(record)) {
+            rowsLoaded++;
+            LocalDate oldest = loadedSince;
+            if (oldest == null || record.getDate().isBefore(oldest)) loadedSince = record.getDate();
+        }
+    }
+
+    // Progress for /api/ready
+    public static Map<String, Object> status() {
+        Map<String, Object> out = new LinkedHashMap<>();
+        long total = totalBytes;
+        long now = finishedMillis != 0 ? finishedMillis : System.currentTimeMillis();
+        out.put("state", state);
+        out.put("file", file);
+        out.put("rowsLoaded", rowsLoaded);
+        out.put("bytesRead", bytesRead);
+        out.put("totalBytes", total);
+        out.put("progress", state == State.READY ? 1.0 : (total == 0 ? 0.0 : (double) bytesRead / total));
+        out.put("loadedSince", loadedSince == null ? null : loadedSince.toString());
+        out.put("elapsedMillis", startedMillis == 0 ? 0 : now - startedMillis);
+        if (error != null) out.put("error", error);
+        return out;
+    }
+}
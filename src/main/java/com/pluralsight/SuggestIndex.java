@@ -0,0 +1,246 @@
+package com.pluralsight;
+
+import java.util.*;
+
+/**
+ * # SuggestIndex: type-ahead over vendor and description values, ranked by how often they occur.
+ *
+ * One radix trie per field over the normalized values (trimmed, whitespace collapsed, lower case). Each node keeps
+ * the ids of the MAX_K most frequent values below it, so a suggestion is a walk down the prefix (one child lookup
+ * per edge) and a copy of that node's list: no scan, whatever the number of distinct values.
+ *
+ * Appends update the tries in place. A row bumps its value's count and offers the value to the nodes on its path,
+ * from its own node up; counts only ever grow, so a value can only move up a node's list or push out its last entry,
+ * and the lists stay exact. A node's list is never easier to get into than its children's, so the walk up stops at
+ * the first node that doesn't take the value. Spellings already seen go straight to their node, so most rows are
+ * one hash lookup plus a few short lists. Ties go to the value seen first.
+ *
+ * Suggestions are shown with the case the value was first seen with ("Tolo Cafe 54", not "tolo cafe 54").
+ */
+public class SuggestIndex {
+
+    // suggestions kept per node; k can't be larger than this
+    static final int MAX_K = 10;
+
+    public enum Field {
+        VENDOR, DESCRIPTION;
+
+        // "vendor" / "description"; throws IllegalArgumentException for anything else
+        static Field parse(String s) {
+            if (s == null || s.isBlank()) throw new IllegalArgumentException("field is required (vendor or description)");
+            return valueOf(s.trim().toUpperCase(Locale.ROOT));
+        }
+    }
+
+    public record Suggestion(String value, int count) {
+    }
+
+    private final Trie vendors = new Trie();
+    private final Trie descriptions = new Trie();
+
+    public void add(Transaction record) {
+        vendors.add(record.getVendor());
+        descriptions.add(record.getDescription());
+    }
+
+    // Up to k of the most frequent values of field starting with prefix (compared normalized), most frequent first
+    public List<Suggestion> suggest(Field field, String prefix, int k) {
+        return (field == Field.VENDOR ? vendors : descriptions).suggest(normalize(prefix, false), Math.min(k, MAX_K));
+    }
+
+    // Number of distinct normalized values of field
+    public int distinct(Field field) {
+        return (field == Field.VENDOR ? vendors : descriptions).distinct();
+    }
+
+    /**
+     * Lower case with runs of whitespace collapsed to one space and leading whitespace dropped. Values also lose
+     * trailing whitespace; a prefix keeps one trailing space so "tolo " only matches "tolo ..." and not "toloache".
+     */
+    static String normalize(String s, boolean value) {
+        return squeeze(s, value).toLowerCase(Locale.ROOT);
+    }
+
+    // normalize without the lower-casing: how a value is shown
+    private static String squeeze(String s, boolean value) {
+        if (s == null) return "";
+        StringBuilder out = new StringBuilder(s.length());
+        boolean space = false;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (Character.isWhitespace(c)) {
+                space = out.length() > 0;
+                continue;
+            }
+            if (space) out.append(' ');
+            space = false;
+            out.append(c);
+        }
+        if (space && !value) out.append(' ');
+        return out.toString();
+    }
+
+    private static final class Node {
+        String label;      // the edge from the parent to this node
+        Node parent;
+        char[] keys = {};  // first character of each child's label, sorted
+        Node[] children = {};
+        int childCount;
+        int value = -1;    // id of the value that ends here
+        int[] top;         // ids of the most frequent values at or below this node, best first
+        int topSize;
+
+        Node(String label, Node parent, int capacity) {
+            this.label = label;
+            this.parent = parent;
+            this.top = new int[capacity];
+        }
+
+        Node child(char c) {
+            int i = Arrays.binarySearch(keys, 0, childCount, c);
+            return i < 0 ? null : children[i];
+        }
+
+        // Adds a child, or replaces the one whose label starts with the same character
+        void put(Node child) {
+            char c = child.label.charAt(0);
+            int i = Arrays.binarySearch(keys, 0, childCount, c);
+            if (i >= 0) {
+                children[i] = child;
+                return;
+            }
+            i = -i - 1;
+            if (childCount == keys.length) {
+                int size = Math.max(2, childCount * 2);
+                keys = Arrays.copyOf(keys, size);
+                children = Arrays.copyOf(children, size);
+            }
+            System.arraycopy(keys, i, keys, i + 1, childCount - i);
+            System.arraycopy(children, i, children, i + 1, childCount - i);
+            keys[i] = c;
+            children[i] = child;
+            childCount++;
+        }
+    }
+
+    private static final class Trie {
+        private final Node root = new Node("", null, MAX_K);
+        private final Map<String, Node> bySpelling = new HashMap<>(); // raw value -> the node its value ends at
+        private String[] values = new String[1024];
+        private int[] counts = new int[1024];
+        private int size;
+
+        synchronized void add(String raw) {
+            if (raw == null) return;
+            Node node = bySpelling.get(raw);
+            if (node == null) {
+                node = insert(raw);
+                if (node == null) return;
+                bySpelling.put(raw, node);
+            }
+            int id = node.value;
+            counts[id]++;
+            Node n = node;
+            while (n != null && offer(n, id)) n = n.parent;
+        }
+
+        // The node for raw's normalized value, created (with its value id) if it isn't in the trie yet
+        private Node insert(String raw) {
+            String key = normalize(raw, true);
+            if (key.isEmpty()) return null;
+            Node node = root;
+            int i = 0;
+            while (i < key.length()) {
+                Node child = node.child(key.charAt(i));
+                if (child == null) {
+                    child = new Node(key.substring(i), node, 1);
+                    node.put(child);
+                    node = child;
+                    break;
+                }
+                int common = 1;
+                while (common < child.label.length() && i + common < key.length()
+                        && child.label.charAt(common) == key.charAt(i + common)) common++;
+                if (common < child.label.length()) {
+                    // split the edge; everything below the new node is below child, so it starts with child's list
+                    Node middle = new Node(child.label.substring(0, common), node, Math.min(MAX_K, child.topSize + 1));
+                    System.arraycopy(child.top, 0, middle.top, 0, child.topSize);
+                    middle.topSize = child.topSize;
+                    child.label = child.label.substring(common);
+                    child.parent = middle;
+                    middle.put(child);
+                    node.put(middle);
+                    child = middle;
+                }
+                node = child;
+                i += common;
+            }
+            if (node.value < 0) node.value = newValue(squeeze(raw, true));
+            return node;
+        }
+
+        private int newValue(String display) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+                counts = Arrays.copyOf(counts, size * 2);
+            }
+            values[size] = display;
+            return size++;
+        }
+
+        // Moves id up (or into) node's list after its count went up by one; false if it isn't in the list
+        private boolean offer(Node node, int id) {
+            int pos = -1;
+            for (int j = 0; j < node.topSize; j++) {
+                if (node.top[j] == id) {
+                    pos = j;
+                    break;
+                }
+            }
+            if (pos < 0) {
+                if (node.topSize < MAX_K) {
+                    if (node.topSize == node.top.length) {
+                        node.top = Arrays.copyOf(node.top, Math.min(MAX_K, node.top.length * 2));
+                    }
+                    pos = node.topSize++;
+                } else if (before(id, node.top[MAX_K - 1])) {
+                    pos = MAX_K - 1;
+                } else {
+                    return false;
+                }
+                node.top[pos] = id;
+            }
+            while (pos > 0 && before(id, node.top[pos - 1])) {
+                node.top[pos] = node.top[pos - 1];
+                node.top[--pos] = id;
+            }
+            return true;
+        }
+
+        private boolean before(int a, int b) {
+            return counts[a] != counts[b] ? counts[a] > counts[b] : a < b;
+        }
+
+        synchronized List<Suggestion> suggest(String prefix, int k) {
+            Node node = root;
+            int i = 0;
+            while (i < prefix.length()) {
+                node = node.child(prefix.charAt(i));
+                if (node == null) return List.of();
+                // the prefix may end part-way along this edge
+                int n = Math.min(node.label.length(), prefix.length() - i);
+                if (!node.label.regionMatches(0, prefix, i, n)) return List.of();
+                i += n;
+            }
+            List<Suggestion> out = new ArrayList<>(Math.min(k, node.topSize));
+            for (int j = 0; j < node.topSize && j < k; j++) {
+                out.add(new Suggestion(values[node.top[j]], counts[node.top[j]]));
+            }
+            return out;
+        }
+
+        synchronized int distinct() {
+            return size;
+        }
+    }
+}
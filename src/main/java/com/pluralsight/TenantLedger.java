@@ -0,0 +1,209 @@
+package com.pluralsight;
+
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * # TenantLedger: one company's ledger and indexes inside a shared web server.
+ *
+ * The CLI and the original web server keep a single ledger in static state (DataStore, Utilities), which means one
+ * ledger per JVM. A TenantLedger holds the same pieces as instance fields, so the web server can host many of them:
+ * its own transactions file, de-duplication set, balance/amount indexes, vendor sketches, suggestions and query
+ * cache. No endpoint reads user profiles, so tenants don't load any.
+ *
+ * The default tenant wraps the static ledger, so the existing endpoints, CLI, replication and live feed keep
+ * working on it unchanged.
+ */
+public class TenantLedger {
+
+    // Rough heap cost of one row with its share of the set and indexes, used for the memory budgets
+    static final long BYTES_PER_ROW = 400;
+
+    private final String id;
+    private final String transactionsFile;
+    private final List<Transaction> rows;
+    private final Set<Transaction> seen;
+    private final BalanceIndex balances;
+    private final AmountIndex amounts;
+    private final VendorSketches vendorSketches;
+    private final QueryCache queryCache;
+    private final LedgerColumns columns;
+    private final SuggestIndex suggestions;
+
+    // Requests allowed to run against this tenant at the same time
+    private final Semaphore permits;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private volatile long lastUsedMillis = System.currentTimeMillis();
+    private volatile boolean loaded;
+
+    // A tenant with its own file under the tenants directory
+    TenantLedger(String id, String transactionsFile, int maxConcurrentRequests) {
+        this(id, transactionsFile, new ArrayList<>(), new HashSet<>(), new BalanceIndex(),
+                new AmountIndex(), new VendorSketches(), new QueryCache(), new LedgerColumns(), new SuggestIndex(),
+                maxConcurrentRequests);
+    }
+
+    private TenantLedger(String id, String transactionsFile, List<Transaction> rows,
+                         Set<Transaction> seen, BalanceIndex balances, AmountIndex amounts,
+                         VendorSketches vendorSketches, QueryCache queryCache, LedgerColumns columns,
+                         SuggestIndex suggestions, int maxConcurrentRequests) {
+        this.id = id;
+        this.transactionsFile = transactionsFile;
+        this.rows = rows;
+        this.seen = seen;
+        this.balances = balances;
+        this.amounts = amounts;
+        this.vendorSketches = vendorSketches;
+        this.queryCache = queryCache;
+        this.columns = columns;
+        this.suggestions = suggestions;
+        this.permits = new Semaphore(maxConcurrentRequests);
+    }
+
+    // The process-wide ledger that the CLI, DataStore and the un-prefixed endpoints use
+    static TenantLedger ofDefault() {
+        TenantLedger ledger = new TenantLedger("default", Utilities.fileName, DataStore.ledger, Utilities.seen,
+                DataStore.balances, DataStore.amounts, DataStore.vendorSketches, DataStore.queryCache, DataStore.columns,
+                DataStore.suggestions, Integer.MAX_VALUE);
+        ledger.loaded = true; // WebServer.main loads (or replicates) it
+        return ledger;
+    }
+
+    public String id() {
+        return id;
+    }
+
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    public boolean isDefault() {
+        return rows == DataStore.ledger;
+    }
+
+    public BalanceIndex balances() {
+        return balances;
+    }
+
+    public AmountIndex amounts() {
+        return amounts;
+    }
+
+    public VendorSketches vendorSketches() {
+        return vendorSketches;
+    }
+
+    public LedgerColumns columns() {
+        return columns;
+    }
+
+    public QueryCache queryCache() {
+        return queryCache;
+    }
+
+    public SuggestIndex suggestions() {
+        return suggestions;
+    }
+
+    /**
+     * Reads the tenant's transactions file the first time it is used. Stops with IllegalStateException if the ledger grows
+     * past maxBytes (its share of the memory budget).
+     */
+    synchronized void ensureLoaded(long maxBytes) {
+        if (loaded) return;
+        Utilities.readFromFile(transactionsFile, record -> {
+            if ((long) rows.size() * BYTES_PER_ROW > maxBytes) {
+                throw new IllegalStateException("tenant " + id + " is over its memory budget of " + maxBytes + " bytes");
+            }
+            add(record);
+        });
+        loaded = true;
+    }
+
+    // Adds a row unless it's a duplicate; the default tenant goes through the regular static append path
+    public boolean add(Transaction record) {
+        if (isDefault()) return Utilities.addToLedger(record);
+        LedgerEvents.DedupInsert event = new LedgerEvents.DedupInsert();
+        event.start();
+        synchronized (rows) {
+            boolean added = seen.add(record);
+            if (event.stop()) {
+                event.rows = 1;
+                event.duplicate = !added;
+                event.commit();
+            }
+            if (!added) return false;
+            rows.add(record);
+            columns.add(record); // under the same lock so the offsets line up
+        }
+        balances.add(record);
+        amounts.add(record);
+        vendorSketches.add(record);
+        suggestions.add(record);
+        queryCache.invalidate(record);
+        return true;
+    }
+
+    // A copy of every row, safe to stream while appends continue
+    public List<Transaction> snapshot() {
+        synchronized (rows) {
+            return new ArrayList<>(rows);
+        }
+    }
+
+    public int size() {
+        synchronized (rows) {
+            return rows.size();
+        }
+    }
+
+    // Rows dated start..end inclusive, newest first
+    public List<Transaction> byDuration(LocalDate start, LocalDate end) {
+        if (isDefault()) return Utilities.transactionsByDuration(start, end);
+        return select(start, end, null, null);
+    }
+
+    // Rows picked by the column kernels (see LedgerColumns.select), newest first
+    public List<Transaction> select(LocalDate start, LocalDate end, Integer userId, String type) {
+        return selectWithHead(start, end, userId, type).rows();
+    }
+
+    // select, plus the number of rows the columns held when they were scanned
+    public Listing selectWithHead(LocalDate start, LocalDate end, Integer userId, String type) {
+        LedgerColumns.Selection selection = columns.select(start, end, userId, type);
+        List<Transaction> matched;
+        synchronized (rows) {
+            matched = selection.rows(rows);
+        }
+        return new Listing(ParallelScan.filterSorted(matched, t -> true, BalanceIndex.BY_DATETIME_ASCENDING.reversed()),
+                selection.count());
+    }
+
+    public long estimatedBytes() {
+        return size() * BYTES_PER_ROW;
+    }
+
+    // Takes one of the tenant's request slots; false means it is already at its concurrency cap
+    boolean tryEnter() {
+        if (!permits.tryAcquire()) return false;
+        inFlight.incrementAndGet();
+        lastUsedMillis = System.currentTimeMillis();
+        return true;
+    }
+
+    void exit() {
+        inFlight.decrementAndGet();
+        lastUsedMillis = System.currentTimeMillis();
+        permits.release();
+    }
+
+    int inFlight() {
+        return inFlight.get();
+    }
+
+    long lastUsedMillis() {
+        return lastUsedMillis;
+    }
+}
@@ -0,0 +1,170 @@
+package com.pluralsight;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * # TenantRegistry: hosts many tenant ledgers in one web server.
+ *
+ * Tenant "acme" lives in tenants/acme/transactions.csv. It is selected with the
+ * /t/acme/api/... URL prefix or an X-Tenant: acme header; requests without either use the default ledger.
+ *
+ * - Tenants are loaded the first time a request needs them, by that request, once it holds one of the tenant's
+ *   tenantConcurrency permits (so a burst of first requests can't start more loads than the cap, and the sweeper
+ *   doesn't unload a tenant that is still loading). Looking a tenant up and taking its permit happen under the
+ *   same lock as unloading, so a request never ends up on a tenant the sweeper just dropped.
+ * - Each tenant may use at most tenantMemoryBytes (estimated from its row count). A load only gets what's left of
+ *   totalMemoryBytes after the loaded tenants and the other loads in progress, unloading least recently used idle
+ *   tenants first to make room. Requests get 507 when that's not enough and 429 over the concurrency cap, instead of
+ *   slowing down the other tenants.
+ * - A sweeper unloads tenants that have been idle for idleMillis, and unloads the least recently used idle ones
+ *   early when all loaded tenants together go over totalMemoryBytes.
+ */
+public final class TenantRegistry {
+
+    private static final Pattern TENANT_ID = Pattern.compile("^[a-z0-9][a-z0-9_-]{0,63}$");
+
+    private static Path baseDir = Paths.get("tenants");
+    private static long tenantMemoryBytes = 256L * 1024 * 1024;
+    private static long totalMemoryBytes = Runtime.getRuntime().maxMemory() / 2;
+    private static int tenantConcurrency = 8;
+    private static long idleMillis = TimeUnit.MINUTES.toMillis(15);
+
+    private static final TenantLedger DEFAULT = TenantLedger.ofDefault();
+    private static final Map<String, TenantLedger> tenants = new ConcurrentHashMap<>();
+    private static long reservedBytes; // budgets of the loads in progress, guarded by TenantRegistry.class
+    private static ScheduledExecutorService sweeper;
+
+    private TenantRegistry() {
+    }
+
+    // Sets the limits (null keeps the current value) and starts the idle sweeper
+    public static synchronized void configure(String dir, Long memoryBytesPerTenant, Integer concurrencyPerTenant,
+                                              Long idleTimeoutMillis) {
+        if (dir != null) baseDir = Paths.get(dir);
+        if (memoryBytesPerTenant != null) tenantMemoryBytes = memoryBytesPerTenant;
+        if (concurrencyPerTenant != null) tenantConcurrency = concurrencyPerTenant;
+        if (idleTimeoutMillis != null) idleMillis = idleTimeoutMillis;
+        if (sweeper == null) {
+            sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread t = new Thread(runnable, "tenant-sweeper");
+                t.setDaemon(true);
+                return t;
+            });
+            sweeper.scheduleAtFixedRate(TenantRegistry::sweep, 30, 30, TimeUnit.SECONDS);
+        }
+    }
+
+    public static TenantLedger defaultTenant() {
+        return DEFAULT;
+    }
+
+    /**
+     * Returns the tenant with this id, not loaded yet if this is its first use (see load). Throws
+     * NoSuchElementException if the id is invalid or has no directory.
+     */
+    public static TenantLedger get(String id) {
+        if (id == null || !TENANT_ID.matcher(id).matches()) {
+            throw new NoSuchElementException("Unknown tenant: " + id);
+        }
+        Path dir = baseDir.resolve(id);
+        TenantLedger tenant = tenants.computeIfAbsent(id, key -> {
+            if (!Files.isDirectory(dir)) return null;
+            return new TenantLedger(key, dir.resolve("transactions.csv").toString(), tenantConcurrency);
+        });
+        if (tenant == null) throw new NoSuchElementException("Unknown tenant: " + id);
+        return tenant;
+    }
+
+    /**
+     * Looks the tenant up (see get) and takes one of its request slots; null means it is at its concurrency cap.
+     * Release the slot with exit(). Holds TenantRegistry.class so the sweeper can't unload it in between.
+     */
+    public static synchronized TenantLedger enter(String id) {
+        TenantLedger tenant = get(id);
+        return tenant.tryEnter() ? tenant : null;
+    }
+
+    /**
+     * Reads the tenant's transactions file unless it is loaded already; call it holding one of the tenant's permits. The
+     * load may use the tenant's own budget or what is left of the total, whichever is smaller. Throws
+     * IllegalStateException (and forgets the tenant) if there is no room left or its files need more than that.
+     */
+    public static void load(TenantLedger tenant) {
+        if (tenant.isLoaded()) return;
+        long budget;
+        synchronized (TenantRegistry.class) {
+            budget = Math.min(tenantMemoryBytes, freeBytes(tenantMemoryBytes));
+            if (budget <= 0) {
+                tenants.remove(tenant.id(), tenant);
+                throw new IllegalStateException("No memory left to load tenant " + tenant.id()
+                        + ": loaded tenants use the whole budget of " + totalMemoryBytes + " bytes");
+            }
+            reservedBytes += budget;
+        }
+        try {
+            tenant.ensureLoaded(budget);
+        } catch (IllegalStateException e) {
+            tenants.remove(tenant.id(), tenant);
+            throw e;
+        } finally {
+            synchronized (TenantRegistry.class) {
+                reservedBytes -= budget;
+            }
+        }
+    }
+
+    /**
+     * Bytes left under totalMemoryBytes once the loaded tenants and the loads in progress are counted. Unloads the
+     * least recently used idle tenants while fewer than wanted bytes are left. Call it holding TenantRegistry.class.
+     */
+    private static long freeBytes(long wanted) {
+        long used = reservedBytes;
+        List<TenantLedger> loaded = new ArrayList<>();
+        for (TenantLedger t : tenants.values()) {
+            if (!t.isLoaded()) continue;
+            loaded.add(t);
+            used += t.estimatedBytes();
+        }
+        if (totalMemoryBytes - used >= wanted) return totalMemoryBytes - used;
+        loaded.sort(Comparator.comparingLong(TenantLedger::lastUsedMillis));
+        for (TenantLedger t : loaded) {
+            if (totalMemoryBytes - used >= wanted) break;
+            if (t.inFlight() == 0 && tenants.remove(t.id(), t)) used -= t.estimatedBytes();
+        }
+        return totalMemoryBytes - used;
+    }
+
+    // Loaded tenants and their usage, for /api/tenants
+    public static List<Map<String, Object>> status() {
+        long now = System.currentTimeMillis();
+        List<Map<String, Object>> out = new ArrayList<>();
+        for (TenantLedger t : tenants.values()) {
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("tenant", t.id());
+            m.put("rows", t.size());
+            m.put("estimatedBytes", t.estimatedBytes());
+            m.put("inFlight", t.inFlight());
+            m.put("idleSeconds", (now - t.lastUsedMillis()) / 1000);
+            out.add(m);
+        }
+        out.sort(Comparator.comparing(m -> (String) m.get("tenant")));
+        return out;
+    }
+
+    // Unloads idle tenants, then the least recently used idle ones while the total is over budget
+    static void sweep() {
+        long now = System.currentTimeMillis();
+        synchronized (TenantRegistry.class) {
+            tenants.values().removeIf(t -> t.inFlight() == 0 && now - t.lastUsedMillis() > idleMillis);
+            freeBytes(0);
+        }
+    }
+}
@@ -68,6 +68,11 @@ public class Transaction {
         this.amount = amount;
     }
 
+    //amount in whole cents, rounded the same way equals/hashCode compare amounts
+    public long getAmountCents() {
+        return Math.round(amount * 100.0);
+    }
+
     public String getTransactionType() {
         return transactionType;
     }
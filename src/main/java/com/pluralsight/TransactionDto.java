@@ -0,0 +1,13 @@
+package com.pluralsight;
+
+//DTOs are simple containers for a set of data. They typically have no business logic just fields,
+// constructors, and getters and setters
+
+//I took date and time as strings to avoid needing extra JSON serializer modules for Java time that I was having trouble with.
+
+//Records are a shorthand way of creating a class that stores data and its members are immutable.
+//Records auto-generate constructor, accessors, equals, hashCode, toString
+//runningBalance is the balance right after the transaction (for the whole ledger or for one user, depending on the listing)
+record TransactionDto(String date, String time, String description, String vendor, double amount, String type,
+                      double runningBalance) {
+}
@@ -0,0 +1,5 @@
+package com.pluralsight;
+
+//Body of POST /api/transactions. date and time are optional (now, like the CLI); everything else is required.
+record TransactionRequest(Integer userId, String date, String time, String description, String vendor, Double amount) {
+}
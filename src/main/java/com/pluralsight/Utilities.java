@@ -1,10 +1,16 @@
 package com.pluralsight;
 
 import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.time.LocalDate;
 import java.time.LocalTime;
 import java.util.*;
+import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.function.Predicate;
 import java.util.regex.Pattern;
 
 
@@ -46,6 +52,11 @@ public final class Utilities {
     // Transactions CSV file (pipe-delimited: userid|date|time|description|vendor|amount).
     static String fileName = "transactions.csv";
 
+    // Held while appending to fileName, and by LedgerCompactor while it swaps in the compacted file, so no append
+    // lands in the old file after its tail has been copied. It only covers this JVM; lockFile does the same across
+    // processes (a server and the CLI compactor or archiver).
+    static final Object fileLock = new Object();
+
     // The in-memory ledger that loads transactions from the file and adds new transactions go here.
     static List<Transaction> ledger = DataStore.ledger;
 
@@ -62,6 +73,10 @@ public final class Utilities {
     //Used to prevent duplicates when re-reading/saving/logging in and out new users.
     static Set<Transaction> seen = new HashSet<>(ledger);
 
+    // True after a fast-path load of a compacted file skipped seen; the first addToLedger fills it from the ledger.
+    // Guarded by seen.
+    private static boolean seenIsPartial;
+
     // Private constructor to prevent instantiation (utility class)
     private Utilities() {
     }
@@ -232,6 +247,11 @@ public final class Utilities {
      */
     private static void readUsersFromFile() {
         idToUser.clear();
+        readUsersFromFile(profilesFileName, idToUser);
+    }
+
+    // Same as above for any profiles file and target map (each tenant of the web server has its own)
+    static void readUsersFromFile(String profilesFileName, Map<Integer, User> idToUser) {
         try (BufferedReader br = new BufferedReader(new FileReader(profilesFileName))) {
             String line;
             while ((line = br.readLine()) != null) {
@@ -292,17 +312,6 @@ public final class Utilities {
         return isAdmin() || (currentUser != null && record.getUserId() == currentUser.getId());
     }
 
-    /**
-     * Filters the global ledger down to only the transactions the current user is
-     * allowed to see, then sorts newest-first.
-     */
-    private static List<Transaction> visibleSorted() {
-        return ledger.stream()
-                .filter(Utilities::canView)
-                .sorted(BY_DATETIME_DESCENDING)
-                .toList();
-    }
-
     /**
      * Logs out the current user and restarts the CLI to authenticate again.
      * Simple flow reset via recursion into startCliApplication()
@@ -415,9 +424,10 @@ public final class Utilities {
     }
 
     /**
-     * Fully parameterized search across (optional) start/end date, description, vendor, and exact amount.
+     * Fully parameterized search across (optional) start/end date, description, vendor, and a min/max amount range.
      * - All filters are optional; blank input is skipped
      * - Always respects visibility—filters are applied after restricting to what the current user can see.
+     * - With an amount range the candidates come from the amount index instead of a full scan
      * - Sorts newest-first before iterating.
      */
     private static void customSearch() {
@@ -432,18 +442,19 @@ public final class Utilities {
         System.out.print("End Date (YYYY-MM-DD) or leave it blank: ");
         String endDateInput = sc.nextLine().trim();
 
-        System.out.print("Description contains (blank to skip): ");
-        String descriptionInput = sc.nextLine().trim();
+        String descriptionInput = readWithSuggestions("Description contains (blank to skip): ", SuggestIndex.Field.DESCRIPTION);
 
-        System.out.print("Vendor contains (blank to skip): ");
-        String vendorInput = sc.nextLine().trim();
+        String vendorInput = readWithSuggestions("Vendor contains (blank to skip): ", SuggestIndex.Field.VENDOR);
 
-        System.out.print("Amount or leave it blank: ");
-        String amountInput = sc.nextLine().trim();
+        System.out.print("Minimum amount or leave it blank (payments are negative): ");
+        String minAmountInput = sc.nextLine().trim();
+
+        System.out.print("Maximum amount or leave it blank (same as minimum for an exact amount): ");
+        String maxAmountInput = sc.nextLine().trim();
 
         // this is where I parse optional filters absorb parse errors silently to keep UX simple
         LocalDate startDate = null, endDate = null;
-        Double amountQuery = null;
+        Long minCents = null, maxCents = null;
         try {
             if (!startDateInput.isEmpty()) startDate = LocalDate.parse(startDateInput);
         } catch (Exception ignored) {
@@ -453,78 +464,107 @@ public final class Utilities {
         } catch (Exception ignored) {
         }
         try {
-            if (!amountInput.isEmpty()) amountQuery = Double.parseDouble(amountInput);
+            minCents = AmountIndex.parseCents(minAmountInput);
+        } catch (Exception ignored) {
+        }
+        try {
+            maxCents = AmountIndex.parseCents(maxAmountInput);
         } catch (Exception ignored) {
         }
 
         String descriptionQuery = descriptionInput.isEmpty() ? null : descriptionInput.toLowerCase();
         String vendorQuery = vendorInput.isEmpty() ? null : vendorInput.toLowerCase();
 
-        // Visibility first -> then sort -> then apply filters in one pass
-        List<Transaction> visible = ledger.stream()
-                .filter(Utilities::canView)           // admin => all; user => only their userId
-                .sorted(BY_DATETIME_DESCENDING)       // newest first
-                .toList();
-
-        boolean anyPrinted = false;
-
-        for (Transaction record : visible) {
+        // All filters in one pass (visibility included), then newest first.
+        // An amount range narrows the candidates through the amount index (admins search everyone, users only
+        // their own rows); anything else is a full scan, which gets split across cores once the ledger is big.
+        List<Transaction> candidates = (minCents == null && maxCents == null)
+                ? ledger
+                : DataStore.amounts.range(isAdmin() ? null : currentUser.getId(), minCents, maxCents);
+        LocalDate finalStart = startDate;
+        LocalDate finalEnd = endDate;
+        Predicate<Transaction> matches = record -> {
+            if (!canView(record)) return false;           // admin => all; user => only their userId
             LocalDate d = record.getDate();
-
-            if (startDate != null && d.isBefore(startDate)) continue;
-            if (endDate != null && d.isAfter(endDate)) continue;
-
+            if (finalStart != null && d.isBefore(finalStart)) return false;
+            if (finalEnd != null && d.isAfter(finalEnd)) return false;
             if (descriptionQuery != null &&
-                    !record.getDescription().toLowerCase().contains(descriptionQuery)) continue;
-
-            if (vendorQuery != null &&
-                    !record.getVendor().toLowerCase().contains(vendorQuery)) continue;
+                    !record.getDescription().toLowerCase().contains(descriptionQuery)) return false;
+            return vendorQuery == null || record.getVendor().toLowerCase().contains(vendorQuery);
+        };
+        List<Transaction> visible = ParallelScan.filterSorted(candidates, matches, BY_DATETIME_DESCENDING);
 
-            if (amountQuery != null && record.getAmount() != amountQuery) continue;
-
-            printFormatted(record);
-            anyPrinted = true;
+        if (visible.isEmpty()) {
+            System.out.println("No transactions match your filters."); //if nothing matched let the user know
+            return;
         }
-
-        if (!anyPrinted)
-            System.out.println("No transactions match your filters."); //if nothing was printed let the user know
+        ConsoleRenderer.show("Search results", ConsoleRenderer.of(visible), ConsoleRenderer.totalsOf(visible), sc);
     }
 
     // Convenience wrapper for vendor-only search
     private static void searchByVendor() {
-        searchByField(Transaction::getVendor, "vendor name");
+        searchByField(Transaction::getVendor, SuggestIndex.Field.VENDOR, "vendor name");
     }
 
     /**
      * General-use case-insensitive search on a given string field of Transaction.
      * - It takes field getter function (vendor or description) as a parameter
+     * - suggestField picks the suggestions offered when the input ends with "?"
      * - label used to prompt the user
      */
-    private static void searchByField(Function<Transaction, String> getter, String prompt) {
+    private static void searchByField(Function<Transaction, String> getter, SuggestIndex.Field suggestField, String prompt) {
 //        if (sc.hasNextLine()) sc.nextLine(); // Clear newline from a prior nextInt/nextDouble
-        System.out.print("Enter " + prompt + ": ");
-        String query = sc.nextLine().trim().toLowerCase();
-
-        // Restrict to visible rows, newest-first
-        List<Transaction> visible = ledger.stream()
-                .filter(Utilities::canView)
-                .sorted(BY_DATETIME_DESCENDING)
-                .toList();
+        String query = readWithSuggestions("Enter " + prompt + " (end with ? for suggestions): ", suggestField).toLowerCase();
 
-        boolean any = false;
-        for (Transaction t : visible) {
+        // Restrict to visible rows that match, newest-first
+        List<Transaction> matching = ParallelScan.filterSorted(ledger, t -> {
             String field = getter.apply(t);
-            if (field != null && field.toLowerCase().contains(query)) {
-                printFormatted(t);
-                any = true;
+            return canView(t) && field != null && field.toLowerCase().contains(query);
+        }, BY_DATETIME_DESCENDING);
+
+        if (matching.isEmpty()) {
+            System.out.println("No matching transactions.");
+            return;
+        }
+        ConsoleRenderer.show("Transactions matching \"" + query + "\"", ConsoleRenderer.of(matching),
+                ConsoleRenderer.totalsOf(matching), sc);
+    }
+
+    /**
+     * Reads a search term. Input ending in "?" (like "tol?") lists the most frequent matching values from the
+     * suggestion index; the user picks one by number or types again. Only admins get suggestions, since the index
+     * covers every user's transactions; everyone else just has the "?" dropped.
+     */
+    private static String readWithSuggestions(String prompt, SuggestIndex.Field field) {
+        System.out.print(prompt);
+        String input = sc.nextLine().trim();
+        while (input.endsWith("?")) {
+            String prefix = input.substring(0, input.length() - 1).trim();
+            if (!isAdmin()) return prefix;
+            List<SuggestIndex.Suggestion> suggestions = DataStore.suggestions.suggest(field, prefix, SuggestIndex.MAX_K);
+            if (suggestions.isEmpty()) {
+                System.out.println("No suggestions for \"" + prefix + "\".");
+                return prefix;
+            }
+            for (int i = 0; i < suggestions.size(); i++) {
+                System.out.printf("  %2d) %s (%d)%n", i + 1, suggestions.get(i).value(), suggestions.get(i).count());
+            }
+            System.out.print("Pick a number, or type again (blank keeps \"" + prefix + "\"): ");
+            input = sc.nextLine().trim();
+            if (input.isEmpty()) return prefix;
+            try {
+                int pick = Integer.parseInt(input);
+                if (pick >= 1 && pick <= suggestions.size()) return suggestions.get(pick - 1).value();
+            } catch (NumberFormatException ignored) {
+                // not a number: it's a new search term (possibly ending in "?" again)
             }
         }
-        if (!any) System.out.println("No matching transactions.");
+        return input;
     }
 
     // description-only search.
     private static void searchByDescription() {
-        searchByField(Transaction::getDescription, "transaction description");
+        searchByField(Transaction::getDescription, SuggestIndex.Field.DESCRIPTION, "transaction description");
     }
 
     //Prints all transactions from the previous calendar year (inclusive)
@@ -573,18 +613,21 @@ public final class Utilities {
             end = tmp;
         }
 
-        System.out.println("Displaying transactions between " + start + " and " + end);
-
-        // Only transactions the current user can see which is already sorted newest-first
-        List<Transaction> view = visibleSorted();
-
-        for (Transaction t : view) {
-            LocalDate d = t.getDate();
-            // inclusive range: start <= d <= end
-            if (!d.isBefore(start) && !d.isAfter(end)) {
-                printFormatted(t);
-            }
-        }
+        // Only transactions the current user can see which is already sorted newest-first.
+        // The month/year reports get asked for over and over so the result is cached until a row lands in the range
+        LocalDate finalStart = start;
+        LocalDate finalEnd = end;
+        List<Transaction> view = DataStore.queryCache.get("cli-range",
+                isAdmin() ? "admin" : "user:" + currentUser.getId(), isAdmin() ? null : currentUser.getId(), start, end,
+                // inclusive range: start <= d <= end
+                () -> ParallelScan.filterSorted(
+                        DataStore.columns.select(finalStart, finalEnd, isAdmin() ? null : currentUser.getId(), null).rows(ledger),
+                        t -> true, BY_DATETIME_DESCENDING));
+
+        // the totals come from the column kernels rather than another pass over the rows
+        LedgerColumns.Summary summary = DataStore.columns.summarize(start, end, isAdmin() ? null : currentUser.getId());
+        ConsoleRenderer.show("Transactions between " + start + " and " + end, ConsoleRenderer.of(view),
+                ConsoleRenderer.totalsLine(summary.count(), summary.debitTotal(), summary.creditTotal()), sc);
     }
 
     /**
@@ -593,31 +636,32 @@ public final class Utilities {
      * - "debit" : deposits (amount > 0)
      * - anything else: all
      * Always respects visibility and prints newest-first.
+     * Pages are read straight out of the balance index (which keeps every user's rows in time order), so nothing
+     * is copied or sorted up front; the header totals come from the column kernels.
      */
     private static void printByTypeSorted(String transactionType) {
         // Normalize input; anything else falls back to "all"
         String type = (transactionType == null) ? "all" : transactionType.toLowerCase();
 
-        // Only the transactions the current user can see, already sorted newest-first
-        List<Transaction> view = visibleSorted();
+        // admins page through the global series, everyone else through their own
+        Integer userId = isAdmin() ? null : currentUser.getId();
+        LedgerColumns.Summary summary = DataStore.columns.summarize(null, null, userId);
 
         switch (type) {
             case "credit": // payments (amount < 0)
-                for (Transaction t : view) {
-                    if (t.getAmount() < 0) printFormatted(t);
-                }
+                ConsoleRenderer.show("Payments", ConsoleRenderer.ofLedger(DataStore.balances, userId, t -> t.getAmount() < 0),
+                        ConsoleRenderer.totalsLine(summary.credits(), 0, summary.creditTotal()), sc);
                 break;
 
             case "debit":  // deposits (amount > 0)
-                for (Transaction t : view) {
-                    if (t.getAmount() > 0) printFormatted(t);
-                }
+                ConsoleRenderer.show("Deposits", ConsoleRenderer.ofLedger(DataStore.balances, userId, t -> t.getAmount() > 0),
+                        ConsoleRenderer.totalsLine(DataStore.columns.select(null, null, userId, "deposits").size(),
+                                summary.debitTotal(), 0), sc);
                 break;
 
             default:       // "all"
-                for (Transaction t : view) {
-                    printFormatted(t);
-                }
+                ConsoleRenderer.show("All transactions", ConsoleRenderer.ofLedger(DataStore.balances, userId, t -> true),
+                        ConsoleRenderer.totalsLine(summary.count(), summary.debitTotal(), summary.creditTotal()), sc);
         }
     }
 
@@ -658,9 +702,7 @@ public final class Utilities {
         Transaction record = new Transaction(date, time, description, vendor, amount, currentUser.getId());
 
         // Only adds to memory if not seen before and also avoids duplicate file writes during load
-        if (seen.add(record)) {
-            ledger.add(record);
-        }
+        addToLedger(record);
 
         writeToFile(record);
 
@@ -683,21 +725,49 @@ public final class Utilities {
         // PrintWriter → gives me printf/format() and convenient println() APIs. which is why I can do
         // out.printf(...)
 
-        try (FileWriter fw = new FileWriter(fileName, true);
-             BufferedWriter bw = new BufferedWriter(fw);
-             PrintWriter out = new PrintWriter(bw)) {
-
-            // userid|date|time|description|vendor|amount
-            out.printf("%d|%s|%s|%s|%s|%.2f%n",
-                    record.getUserId(),
-                    record.getDate(),
-                    record.getTime().toString(),  // seconds precision ensured at creation using withNano(0)
-                    record.getDescription(),
-                    record.getVendor(),
-                    record.getAmount());
-        } catch (IOException e) {
-            System.err.println("Could not write to file: " + e.getMessage());
+        LedgerEvents.Append event = new LedgerEvents.Append();
+        event.start();
+        String line = toFileLine(record);
+        synchronized (fileLock) {
+            try {
+                FileChannel lock = lockFile(Paths.get(fileName)); // a server may be compacting the same file
+                try (FileWriter fw = new FileWriter(fileName, true);
+                     BufferedWriter bw = new BufferedWriter(fw);
+                     PrintWriter out = new PrintWriter(bw)) {
+
+                    // userid|date|time|description|vendor|amount
+                    out.println(line);
+                } finally {
+                    lock.close();
+                }
+            } catch (IOException e) {
+                System.err.println("Could not write to file: " + e.getMessage());
+            }
         }
+        if (event.stop()) {
+            event.file = fileName;
+            event.rows = 1;
+            event.bytes = line.length() + System.lineSeparator().length();
+            event.commit();
+        }
+    }
+
+    /**
+     * Takes the OS lock on file's sidecar (<file>.lock), waiting for any other process that holds it, so appends
+     * and file swaps in different processes take turns. Close the returned channel to release it. Call it holding
+     * fileLock: the OS lock belongs to the whole process, so two threads asking for it at once would fail with
+     * OverlappingFileLockException.
+     */
+    static FileChannel lockFile(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(Paths.get(file + ".lock"), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE);
+        try {
+            channel.lock();
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        return channel;
     }
 
     /**
@@ -705,82 +775,203 @@ public final class Utilities {
      * - Skips headers even if they appear mid-file
      * - Parses rows; malformed rows are skipped with a warning
      * - Uses seen which is a set to avoid duplicates in ledger
+     * - On the first load, archived years (ColdStore segments) go in first, without seen
+     * - A file compacted by LedgerCompactor is loaded without seen as well (see readCompactedFile)
      */
     public static void readFromFileAndAddToLedger() {
-        // Expect rows like: userid|date|time|description|vendor|amount
-        try (BufferedReader br = new BufferedReader(new FileReader(fileName))) {
-            String line;
-            while ((line = br.readLine()) != null) {
-                String s = line.trim();
-                if (s.isEmpty()) continue;
-
-                String[] t = s.split("\\|", -1);
+        if (DataStore.size() != 0) {
+            // logging back in: only what's new in the file gets added
+            readFromFile(fileName, Utilities::addToLedger);
+            return;
+        }
+        synchronized (seen) {
+            seenIsPartial = true;
+        }
+        // segments never hold duplicates, and the file's rows are checked against them below
+        LocalDate coldUntil = ColdStore.forEachRow(Utilities::appendNew);
+        if (LedgerCompactor.isCompacted(fileName)) {
+            readCompactedFile(fileName, coldUntil);
+        } else {
+            readFromFile(fileName, Utilities::addToLedger);
+        }
+    }
 
-                // Skip header anywhere (case-insensitive)
-                if (t.length >= 6
-                        && t[0].trim().equalsIgnoreCase("userid")
-                        && t[1].trim().equalsIgnoreCase("date")
-                        && t[2].trim().equalsIgnoreCase("time")
-                        && t[3].trim().equalsIgnoreCase("description")
-                        && t[4].trim().equalsIgnoreCase("vendor")
-                        && t[5].trim().equalsIgnoreCase("amount")) {
-                    continue;
+    /**
+     * Fast path for a compacted file: its rows come in LedgerCompactor.FILE_ORDER with no duplicates, so instead of
+     * hashing every row into seen each row is only compared with the one before it (equal = duplicate, skipped).
+     * seen is filled later by whoever needs it first. Rows appended since the compaction are normally newer and
+     * stay on the fast path; the first row that is out of order sends it and the rest through addToLedger.
+     * Rows no newer than coldUntil (the newest archived date, or null) could be in a segment, so they also go
+     * through addToLedger.
+     */
+    private static void readCompactedFile(String fileName, LocalDate coldUntil) {
+        Transaction[] previous = new Transaction[1];
+        boolean[] inOrder = {true};
+        readFromFile(fileName, record -> {
+            if (inOrder[0] && (coldUntil == null || record.getDate().isAfter(coldUntil))) {
+                int order = previous[0] == null ? 1 : LedgerCompactor.FILE_ORDER.compare(record, previous[0]);
+                if (order == 0) return; // same as the row before
+                if (order > 0) {
+                    appendNew(record);
+                    previous[0] = record;
+                    return;
                 }
+                inOrder[0] = false; // out of order: the seen set takes over from here
+            }
+            addToLedger(record);
+        });
+    }
 
-                if (t.length != 6) {
-                    System.err.println("Skipping line: expected 6 fields (userid|date|time|description|vendor|amount)");
-                    continue;
-                }
+    // Appends a row that's known not to be in the ledger yet; seen only has to hear about it once it's been filled
+    private static void appendNew(Transaction record) {
+        synchronized (seen) {
+            if (!seenIsPartial) seen.add(record);
+        }
+        DataStore.append(record);
+    }
 
-                try {
-                    int userId = Integer.parseInt(t[0].trim());
-                    LocalDate date = LocalDate.parse(t[1].trim()); // YYYY-MM-DD
-                    LocalTime time = LocalTime.parse(t[2].trim()); // HH:mm:ss
-                    String description = t[3].trim();
-                    String vendor = t[4].trim();
-                    double amount = Double.parseDouble(t[5].trim());
-
-                    // Use the userId from the file
-                    Transaction record = new Transaction(date, time, description, vendor, amount, userId);
-                    if (seen.add(record)) { // returns false if duplicate
-                        ledger.add(record); // only add if not already present
-                    }
-                } catch (Exception ex) {
-                    System.err.println("Skipping line (bad data): " + ex.getMessage());
-                }
+    /**
+     * Reads every valid row of a transactions file and hands it to sink (which does the de-duplication).
+     * Same header/malformed-row handling as above; used for the main ledger and for every tenant's file.
+     */
+    static void readFromFile(String fileName, Consumer<Transaction> sink) {
+        LedgerEvents.Load event = new LedgerEvents.Load();
+        event.start();
+        long[] rows = new long[1];
+        Consumer<Transaction> counted = record -> {
+            rows[0]++;
+            sink.accept(record);
+        };
+        // Expect rows like: userid|date|time|description|vendor|amount
+        try (BufferedReader br = new BufferedReader(new FileReader(fileName))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                readLine(line, counted);
             }
         } catch (FileNotFoundException e) {
             System.err.println("ERROR: File not found: " + fileName);
         } catch (IOException e) {
             System.err.println("I/O error reading " + fileName + ": " + e.getMessage());
         }
+        if (event.stop()) {
+            event.source = fileName;
+            event.rows = rows[0];
+            event.bytes = new File(fileName).length();
+            event.commit();
+        }
+    }
+
+    // Handles one line of a transactions file: blank lines and headers are skipped, malformed rows reported.
+    // Only parse errors are caught; an exception from sink (e.g. a tenant over its memory budget) stops the read.
+    static void readLine(String line, Consumer<Transaction> sink) {
+        String s = line.trim();
+        if (s.isEmpty()) return;
+
+        String[] t = s.split("\\|", -1);
+
+        // Skip header anywhere (case-insensitive)
+        if (isTransactionHeader(t)) {
+            return;
+        }
+
+        if (t.length != 6) {
+            System.err.println("Skipping line: expected 6 fields (userid|date|time|description|vendor|amount)");
+            return;
+        }
+
+        Transaction record;
+        try {
+            // Use the userId from the file
+            record = parseTransaction(t);
+        } catch (Exception ex) {
+            System.err.println("Skipping line (bad data): " + ex.getMessage());
+            return;
+        }
+        sink.accept(record); // only added if not already present
     }
 
     /**
-     * Prints a transaction as a fixed-width table row to the console.
-     * Columns: date | description | vendor | amount | type | time
+     * Adds a transaction to the in-memory ledger unless it is a duplicate.
+     * Every write path goes through here so seen and the ledger's append listeners stay in sync.
+     * Returns false if the transaction was already present.
      */
-    private static void printFormatted(Transaction record) {
-        // date as YYYY-MM-DD; null-safe
-        String dateString = (record.getDate() == null) ? "" : record.getDate().toString();
+    public static boolean addToLedger(Transaction record) {
+        if (!markSeen(record)) return false;
+        DataStore.append(record);
+        return true;
+    }
 
-        // Always HH:mm:ss with zero padding (strip nanos if present)
-        String timeString = "";
-        if (record.getTime() != null) {
-            timeString = record.getTime()
-                    .withNano(0)
-                    .format(java.time.format.DateTimeFormatter.ofPattern("HH:mm:ss"));
+    /**
+     * The de-duplication half of addToLedger: adds record to seen and returns false if it was already there.
+     * A caller that gets true must append the row to DataStore, or call forgetSeen if it can't.
+     */
+    static boolean markSeen(Transaction record) {
+        LedgerEvents.DedupInsert event = new LedgerEvents.DedupInsert();
+        event.start();
+        long hashed = 1;
+        boolean added;
+        synchronized (seen) {
+            if (seenIsPartial) {
+                synchronized (ledger) {
+                    seen.addAll(ledger);
+                    hashed += ledger.size();
+                }
+                seenIsPartial = false;
+            }
+            added = seen.add(record); // false if duplicate
+        }
+        if (event.stop()) {
+            event.rows = hashed;
+            event.duplicate = !added;
+            event.commit();
         }
+        return added;
+    }
 
-        System.out.printf(
-                "%-10s  %-30.30s  %-30.20s  %,30.2f  %-12.6s  %-12s%n",
-                dateString,
+    // Undoes markSeen for a row that never made it into the ledger
+    static void forgetSeen(Transaction record) {
+        synchronized (seen) {
+            seen.remove(record);
+        }
+    }
+
+    // True if the split row is the userid|date|time|description|vendor|amount header (case-insensitive)
+    static boolean isTransactionHeader(String[] t) {
+        return t.length >= 6
+                && t[0].trim().equalsIgnoreCase("userid")
+                && t[1].trim().equalsIgnoreCase("date")
+                && t[2].trim().equalsIgnoreCase("time")
+                && t[3].trim().equalsIgnoreCase("description")
+                && t[4].trim().equalsIgnoreCase("vendor")
+                && t[5].trim().equalsIgnoreCase("amount");
+    }
+
+    /**
+     * Parses the six fields of a userid|date|time|description|vendor|amount row.
+     * Throws on bad data so callers can decide whether to skip or report the row.
+     */
+    static Transaction parseTransaction(String[] t) {
+        int userId = Integer.parseInt(t[0].trim());
+        LocalDate date = LocalDate.parse(t[1].trim()); // YYYY-MM-DD
+        LocalTime time = LocalTime.parse(t[2].trim()); // HH:mm:ss
+        String description = t[3].trim();
+        String vendor = t[4].trim();
+        double amount = Double.parseDouble(t[5].trim());
+        return new Transaction(date, time, description, vendor, amount, userId);
+    }
+
+    /**
+     * Formats a transaction as a row of the transactions file (no line break).
+     * Format: userid|date|time|description|vendor|amount
+     */
+    static String toFileLine(Transaction record) {
+        return String.format(Locale.ROOT, "%d|%s|%s|%s|%s|%.2f",
+                record.getUserId(),
+                record.getDate(),
+                record.getTime().toString(),  // seconds precision ensured at creation using withNano(0)
                 record.getDescription(),
                 record.getVendor(),
-                record.getAmount(),
-                record.transactionType(),
-                timeString
-        );
+                record.getAmount());
     }
 
     // Webserver helping methods
@@ -804,12 +995,14 @@ public final class Utilities {
             start = end;
             end = tmp;
         }
-        LocalDate finalStart = start;
-        LocalDate finalEnd = end;
-        return ledger.stream()
-                .filter(t -> !t.getDate().isBefore(finalStart) && !t.getDate().isAfter(finalEnd))
-                .sorted(BY_DATETIME_DESCENDING)
-                .toList();
+        // The date check runs over the primitive columns. The web server calls this too, so the selected rows are
+        // picked out of the live list while holding its lock.
+        LedgerColumns.Selection selection = DataStore.columns.select(start, end, null, null);
+        List<Transaction> matched;
+        synchronized (DataStore.ledger) {
+            matched = selection.rows(DataStore.ledger);
+        }
+        return ParallelScan.filterSorted(matched, t -> true, BY_DATETIME_DESCENDING);
     }
 
 }
@@ -0,0 +1,166 @@
+package com.pluralsight;
+
+import java.time.YearMonth;
+import java.util.*;
+
+/**
+ * # VendorSketches: streaming "top vendors" per user and per month.
+ *
+ * Every appended (or loaded) transaction updates a small set of sketches for its (user, month) and for its month
+ * across all users:
+ * - SpaceSaving by count and by spend find the candidate heavy hitters
+ * - CountMinSketch by count and by spend give a second upper bound on each candidate
+ * Spend is the absolute value of payments (amount < 0) in cents.
+ *
+ * A report merges the cells of every month in the requested period, so it never touches the ledger itself.
+ * exactTopVendors does the full scan and is kept for comparing against the sketches.
+ */
+public class VendorSketches {
+
+    // counters per SpaceSaving sketch; k can't be larger than this
+    static final int CAPACITY = 100;
+    private static final int CM_WIDTH = 512;
+    private static final int CM_DEPTH = 4;
+
+    // One vendor's line in a report. estimate is an upper bound and lowerBound a lower bound on the true value.
+    public record VendorEstimate(String vendor, double estimate, double lowerBound) {
+    }
+
+    // What a report returns: the top vendors plus how far off the estimates may be
+    public record Report(String by, String mode, long totalCount, double total, List<VendorEstimate> vendors,
+                         double maxOverestimate, double countMinEpsilon, double countMinDelta) {
+    }
+
+    // Sketches for one (user, month) or one month across all users.
+    // Until a SpaceSaving sketch is full it counts every vendor exactly, so its Count-Min sketch (16 KB) is only
+    // created when the first vendor doesn't fit, seeded with the exact counts so far. Most (user, month) cells
+    // never get there, which keeps a ledger with thousands of users from spending gigabytes on sketches.
+    private static final class Cell {
+        final SpaceSaving countTop = new SpaceSaving(CAPACITY);
+        final SpaceSaving spendTop = new SpaceSaving(CAPACITY);
+        CountMinSketch countCm;
+        CountMinSketch spendCm;
+
+        void add(String vendor, long spendCents) {
+            countCm = add(countTop, countCm, vendor, 1);
+            if (spendCents > 0) {
+                spendCm = add(spendTop, spendCm, vendor, spendCents);
+            }
+        }
+
+        private static CountMinSketch add(SpaceSaving top, CountMinSketch cm, String key, long weight) {
+            if (cm == null && top.isFull() && !top.contains(key)) cm = exactSketch(top);
+            top.add(key, weight);
+            if (cm != null) cm.add(key, weight);
+            return cm;
+        }
+
+        // A Count-Min sketch holding the counts of a SpaceSaving sketch that hasn't dropped anything yet (so exact)
+        private static CountMinSketch exactSketch(SpaceSaving top) {
+            CountMinSketch cm = new CountMinSketch(CM_WIDTH, CM_DEPTH);
+            for (SpaceSaving.Counter c : top.top(top.capacity())) cm.add(c.key(), c.count());
+            return cm;
+        }
+
+        // The Count-Min sketch by count or by spend, created from the exact counts if there isn't one yet
+        CountMinSketch sketch(boolean bySpend) {
+            if (bySpend) {
+                if (spendCm == null) spendCm = exactSketch(spendTop);
+                return spendCm;
+            }
+            if (countCm == null) countCm = exactSketch(countTop);
+            return countCm;
+        }
+
+        // Only used on the throw-away cell a report merges into, so it's fine to give it both Count-Min sketches
+        void merge(Cell other) {
+            sketch(false).merge(other.countCm != null ? other.countCm : exactSketch(other.countTop));
+            sketch(true).merge(other.spendCm != null ? other.spendCm : exactSketch(other.spendTop));
+            countTop.merge(other.countTop);
+            spendTop.merge(other.spendTop);
+        }
+    }
+
+    private final Map<Integer, TreeMap<YearMonth, Cell>> byUser = new HashMap<>();
+    private final TreeMap<YearMonth, Cell> global = new TreeMap<>();
+
+    public synchronized void add(Transaction record) {
+        if (record.getVendor() == null || record.getDate() == null) return;
+        YearMonth month = YearMonth.from(record.getDate());
+        long spend = record.getAmountCents() < 0 ? -record.getAmountCents() : 0;
+        byUser.computeIfAbsent(record.getUserId(), id -> new TreeMap<>())
+                .computeIfAbsent(month, m -> new Cell()).add(record.getVendor(), spend);
+        global.computeIfAbsent(month, m -> new Cell()).add(record.getVendor(), spend);
+    }
+
+    /**
+     * Top k vendors by "count" or "spend" for a user (null = everyone) between two months inclusive
+     * (null = open), answered from the merged sketches.
+     */
+    public synchronized Report topVendors(Integer userId, YearMonth from, YearMonth to, int k, boolean bySpend) {
+        TreeMap<YearMonth, Cell> months = userId == null ? global : byUser.getOrDefault(userId, new TreeMap<>());
+        Cell merged = new Cell();
+        for (Cell cell : slice(months, from, to).values()) merged.merge(cell);
+
+        SpaceSaving top = bySpend ? merged.spendTop : merged.countTop;
+        CountMinSketch cm = merged.sketch(bySpend);
+        double unit = bySpend ? 100.0 : 1.0; // spend is kept in cents
+        List<VendorEstimate> vendors = new ArrayList<>();
+        for (SpaceSaving.Counter c : top.top(Math.min(k, CAPACITY))) {
+            // both sketches only over-count, so the smaller of the two is the tighter upper bound
+            long upper = Math.min(c.count(), cm.estimate(c.key()));
+            vendors.add(new VendorEstimate(c.key(), upper / unit, (c.count() - c.error()) / unit));
+        }
+        vendors.sort(Comparator.comparingDouble(VendorEstimate::estimate).reversed());
+        return new Report(bySpend ? "spend" : "count", "sketch", merged.countTop.total(), top.total() / unit,
+                vendors, (double) top.total() / top.capacity() / unit, cm.epsilon() * cm.total() / unit, cm.delta());
+    }
+
+    // Same report computed exactly with a full scan of the given ledger rows, for comparison
+    public static Report exactTopVendors(List<Transaction> rows, Integer userId, YearMonth from, YearMonth to, int k,
+                                         boolean bySpend) {
+        // per-segment vendor totals, merged at the end (split across cores on big ledgers)
+        ExactTotals totals = ParallelScan.aggregate(rows, t -> {
+            if (userId != null && t.getUserId() != userId) return false;
+            YearMonth month = YearMonth.from(t.getDate());
+            return (from == null || !month.isBefore(from)) && (to == null || !month.isAfter(to));
+        }, ExactTotals::new, (partial, t) -> partial.add(t, bySpend), ExactTotals::merge);
+        long count = totals.count, total = totals.total;
+        double unit = bySpend ? 100.0 : 1.0;
+        List<VendorEstimate> vendors = totals.byVendor.entrySet().stream()
+                .sorted(Map.Entry.<String, Long>comparingByValue().reversed().thenComparing(Map.Entry.comparingByKey()))
+                .limit(k)
+                .map(e -> new VendorEstimate(e.getKey(), e.getValue() / unit, e.getValue() / unit))
+                .toList();
+        return new Report(bySpend ? "spend" : "count", "exact", count, total / unit, vendors, 0, 0, 0);
+    }
+
+    // Partial result of exactTopVendors for one segment of the ledger
+    private static final class ExactTotals {
+        final Map<String, Long> byVendor = new HashMap<>();
+        long count;
+        long total;
+
+        void add(Transaction t, boolean bySpend) {
+            count++;
+            long weight = bySpend ? Math.max(0, -t.getAmountCents()) : 1;
+            if (weight == 0) return;
+            total += weight;
+            byVendor.merge(t.getVendor(), weight, Long::sum);
+        }
+
+        ExactTotals merge(ExactTotals other) {
+            count += other.count;
+            total += other.total;
+            other.byVendor.forEach((vendor, weight) -> byVendor.merge(vendor, weight, Long::sum));
+            return this;
+        }
+    }
+
+    private static SortedMap<YearMonth, Cell> slice(TreeMap<YearMonth, Cell> months, YearMonth from, YearMonth to) {
+        if (from == null && to == null) return months;
+        if (from == null) return months.headMap(to, true);
+        if (to == null) return months.tailMap(from, true);
+        return from.isAfter(to) ? months.subMap(to, true, from, true) : months.subMap(from, true, to, true);
+    }
+}
@@ -1,19 +1,38 @@
 package com.pluralsight;
 
 import io.javalin.Javalin;
+import io.javalin.http.BadRequestResponse;
+import io.javalin.http.Context;
+import io.javalin.http.ForbiddenResponse;
+import io.javalin.http.Handler;
+import io.javalin.http.HandlerType;
+import io.javalin.http.MethodNotAllowedResponse;
+import io.javalin.http.UnauthorizedResponse;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.time.Duration;
 import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.format.DateTimeParseException;
+import java.time.YearMonth;
+import java.util.ArrayList;
 import java.util.Comparator;
-
-//DTOs are simple containers for a set of data. They typically have no business logic just fields,
-// constructors, and getters and setters
-
-//I took date and time as strings to avoid needing extra JSON serializer modules for Java time that I was having trouble with.
-
-//Records are a shorthand way of creating a class that stores data and its members are immutable.
-//Records auto-generate constructor, accessors, equals, hashCode, toString
-record TransactionDto(String date, String time, String description, String vendor, double amount, String type) {
-}
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Predicate;
 
 public class WebServer {
 //Entry point into the Web UI that will launch and configure the HTTP server.
@@ -27,8 +46,133 @@ public class WebServer {
     // Helper that converts a domain Transaction to a TransactionDto.
 // Safely handles null date/time by emitting empty strings otherwise uses toString().
 // Copies description, vendor, amount, and computed type.
-    private static TransactionDto toDto(Transaction record) {
-        return new TransactionDto(record.getDate() == null ? "" : record.getDate().toString(), record.getTime() == null ? "" : record.getTime().toString(), record.getDescription(), record.getVendor(), record.getAmount(), record.transactionType());
+// The running balance is looked up in the given balance index for the given user (null = whole ledger).
+    static TransactionDto toDto(Transaction record, Integer balanceUserId, BalanceIndex balances) {
+        double runningBalance = balances.runningBalanceCents(balanceUserId, record) / 100.0;
+        return new TransactionDto(record.getDate() == null ? "" : record.getDate().toString(), record.getTime() == null ? "" : record.getTime().toString(), record.getDescription(), record.getVendor(), record.getAmount(), record.transactionType(), runningBalance);
+    }
+
+    // Same as above using the default ledger's balances
+    private static TransactionDto toDto(Transaction record, Integer balanceUserId) {
+        return toDto(record, balanceUserId, DataStore.balances);
+    }
+
+    //Sends a transaction listing in the format the client asked for (see WireFormat), written straight to the
+    //response stream on this thread so the Serialize event (LedgerEvents) sees the real cost
+    private static void respondRows(Context context, List<Transaction> rows, Integer balanceUserId, BalanceIndex balances)
+            throws IOException {
+        context.res().addHeader("Vary", "Accept"); // the same URL answers in different formats
+        WireFormat format;
+        try {
+            format = WireFormat.negotiate(context.header("Accept"), context.queryParam("format"));
+        } catch (IllegalArgumentException e) {
+            context.status(400).result("format must be json, smile, cbor or arrow");
+            return;
+        }
+        context.contentType(format.contentType);
+        format.write(context.outputStream(), rows, balanceUserId, balances);
+    }
+
+    //respondRows with X-Ledger-Head set to the head the rows were taken at
+    private static void respondListing(Context context, Listing listing, Integer balanceUserId, BalanceIndex balances)
+            throws IOException {
+        context.header("X-Ledger-Head", Integer.toString(listing.head()));
+        respondRows(context, listing.rows(), balanceUserId, balances);
+    }
+
+    //Copies the ledger and tells the client how many rows the copy holds (X-Ledger-Head), so the live feed can be
+    //started right after exactly these rows
+    private static List<Transaction> snapshotWithHead(Context context, TenantLedger ledger) {
+        List<Transaction> snapshot = ledger.snapshot();
+        context.header("X-Ledger-Head", Integer.toString(snapshot.size()));
+        return snapshot;
+    }
+
+    //A handler that works on one tenant's ledger
+    private interface TenantHandler {
+        void handle(Context context, TenantLedger ledger) throws Exception;
+    }
+
+    //Registers a GET route for the default ledger and the same route under /t/{tenant} for hosted tenants.
+    //The tenant comes from the URL prefix or the X-Tenant header; each tenant has its own concurrency cap.
+    private static void tenantGet(Javalin javalinApp, String path, TenantHandler handler) {
+        tenantRoute(javalinApp, HandlerType.GET, path, handler);
+    }
+
+    //Same as tenantGet for any HTTP method
+    private static void tenantRoute(Javalin javalinApp, HandlerType method, String path, TenantHandler handler) {
+        Handler wrapped = context -> {
+            String tenant = context.pathParamMap().get("tenant");
+            if (tenant == null) tenant = context.header("X-Tenant");
+            TenantLedger ledger;
+            try {
+                if (tenant == null || tenant.isBlank()) {
+                    ledger = TenantRegistry.defaultTenant();
+                    if (!ledger.tryEnter()) ledger = null;
+                } else {
+                    ledger = TenantRegistry.enter(tenant.trim()); // lookup and permit in one step, see enter
+                }
+            } catch (NoSuchElementException e) {
+                context.status(404).result(e.getMessage());
+                return;
+            }
+            if (ledger == null) {
+                context.status(429).header("Retry-After", "1").result("Too many concurrent requests for tenant "
+                        + (tenant == null || tenant.isBlank() ? "default" : tenant.trim()));
+                return;
+            }
+            try {
+                try {
+                    TenantRegistry.load(ledger); // first use: loaded under the permit, within the memory budgets
+                } catch (IllegalStateException e) {
+                    context.status(507).result(e.getMessage());
+                    return;
+                }
+                handler.handle(context, ledger);
+            } finally {
+                ledger.exit();
+            }
+        };
+        javalinApp.addHandler(method, path, wrapped);
+        javalinApp.addHandler(method, "/t/{tenant}" + path, wrapped);
+    }
+
+    //Before-handler for routes only an operator may use: with LEDGER_ADMIN_TOKEN set the request must carry it as
+    //a bearer token, otherwise it has to come from a loopback address
+    private static void requireAdmin(Context context) {
+        String token = System.getenv("LEDGER_ADMIN_TOKEN");
+        if (token != null && !token.isEmpty()) {
+            String sent = context.header("Authorization");
+            byte[] expected = ("Bearer " + token).getBytes(StandardCharsets.UTF_8);
+            if (sent == null || !MessageDigest.isEqual(expected, sent.trim().getBytes(StandardCharsets.UTF_8))) {
+                throw new UnauthorizedResponse("Send the admin token as Authorization: Bearer <token>");
+            }
+            return;
+        }
+        try {
+            if (!InetAddress.getByName(context.req().getRemoteAddr()).isLoopbackAddress()) {
+                throw new ForbiddenResponse("Only allowed from localhost (or set LEDGER_ADMIN_TOKEN)");
+            }
+        } catch (UnknownHostException e) {
+            throw new ForbiddenResponse("Only allowed from localhost (or set LEDGER_ADMIN_TOKEN)");
+        }
+    }
+
+    //Wraps a route that only ever serves the default ledger (writes, report jobs, the archive, admin)
+    private static Handler defaultLedgerOnly(Handler handler) {
+        return context -> {
+            requireDefaultLedger(context);
+            handler.handle(context);
+        };
+    }
+
+    //A request that names a tenant with X-Tenant on a default-ledger route gets 400 instead of quietly reading or
+    //changing the default ledger. (The /t/{tenant}/... prefix isn't registered for those routes, so it gets 404.)
+    private static void requireDefaultLedger(Context context) {
+        String tenant = context.header("X-Tenant");
+        if (tenant != null && !tenant.isBlank()) {
+            throw new BadRequestResponse(context.path() + " only serves the default ledger, not tenant " + tenant.trim());
+        }
     }
 
     //takes in a date string to parse as a LocalDate
@@ -41,61 +185,523 @@ public class WebServer {
         }
     }
 
-    public static void main(String[] args) {
-        // Load data
-        Utilities.readFromFileAndAddToLedger();
-        System.out.println("Loaded transactions: " + DataStore.ledger.size());
+    //reads an optional --name=value command line argument
+    private static String argValue(String[] args, String name) {
+        for (String arg : args) {
+            if (arg.startsWith("--" + name + "=")) return arg.substring(name.length() + 3);
+        }
+        return null;
+    }
+
+    //takes in a YYYY-MM (or a full YYYY-MM-DD) string and returns its month
+    private static YearMonth parseMonth(String s) {
+        if (s == null || s.isBlank()) return null;
+        try {
+            String trimmed = s.trim();
+            return YearMonth.parse(trimmed.length() > 7 ? trimmed.substring(0, 7) : trimmed);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    //Command line options (all optional):
+    //--port=8080                 HTTP port
+    //--replication-port=9090     serve the append log to followers on this port
+    //--follow=host:9090          run as a read-only follower of the primary at host:9090 instead of reading the file
+    //--startup=progressive       open the port right away and load the transactions file (newest rows first) in
+    //                            the background; /api/ready says when it's done. The default "blocking" loads first.
+    //--cold-dir=cold             directory of archived years (ColdStore segments), loaded with the file
+    //--tenants-dir=tenants       directory holding one sub-directory per hosted tenant
+    //--tenant-memory-mb=256      estimated heap a single tenant may use
+    //--tenant-concurrency=8      requests a single tenant may have in flight
+    //--tenant-idle-minutes=15    unload tenants that haven't been used for this long
+    //--write-buffer=4096         slots in the ring buffer POST /api/transactions publishes into
+    //--idempotency-window=100000 Idempotency-Keys remembered for retries (the oldest are forgotten first)
+    public static void main(String[] args) throws Exception {
+        String port = argValue(args, "port");
+        String replicationPort = argValue(args, "replication-port");
+        String follow = argValue(args, "follow");
+        boolean progressive = "progressive".equals(argValue(args, "startup"));
+        String tenantMemory = argValue(args, "tenant-memory-mb");
+        String tenantConcurrency = argValue(args, "tenant-concurrency");
+        String tenantIdle = argValue(args, "tenant-idle-minutes");
+        String writeBuffer = argValue(args, "write-buffer");
+        String idempotencyWindow = argValue(args, "idempotency-window");
+        ColdStore.configure(argValue(args, "cold-dir"));
+        TenantRegistry.configure(argValue(args, "tenants-dir"),
+                tenantMemory == null ? null : Long.parseLong(tenantMemory) * 1024 * 1024,
+                tenantConcurrency == null ? null : Integer.parseInt(tenantConcurrency),
+                tenantIdle == null ? null : TimeUnit.MINUTES.toMillis(Long.parseLong(tenantIdle)));
+
+        if (follow != null) {
+            // Followers start empty and get every row from the primary's log
+            int colon = follow.lastIndexOf(':');
+            Replication.startFollower(follow.substring(0, colon), Integer.parseInt(follow.substring(colon + 1)));
+        } else if (!progressive) {
+            // Load data
+            Utilities.readFromFileAndAddToLedger();
+            System.out.println("Loaded transactions: " + DataStore.ledger.size());
+            StartupLoader.markReady(Utilities.fileName);
+            if (replicationPort != null) Replication.startPrimary(Integer.parseInt(replicationPort));
+        } else if (replicationPort != null) {
+            // followers just receive the rows as they get loaded
+            Replication.startPrimary(Integer.parseInt(replicationPort));
+        }
 
         // This is where I start the server. The javalin server is configured here to display static files like html css from this directory
-        Javalin javalinApp = Javalin.create(javalinConfig -> javalinConfig.staticFiles.add("/public")).start(8080);
+        Javalin javalinApp = Javalin.create(javalinConfig -> javalinConfig.staticFiles.add("/public")).start(port == null ? 8080 : Integer.parseInt(port));
+
+        // While a flight recording is running every request becomes a Request event with the bytes its thread
+        // allocated (see LedgerEvents). The after handler runs on the same thread as the route.
+        javalinApp.before(context -> {
+            LedgerEvents.Request event = new LedgerEvents.Request();
+            if (!event.isEnabled()) return;
+            event.start();
+            context.attribute("ledger.request.event", event);
+        });
+        javalinApp.after(context -> {
+            LedgerEvents.Request event = context.attribute("ledger.request.event");
+            if (event != null && event.stop()) {
+                event.method = context.method().name();
+                event.path = context.path();
+                event.status = context.statusCode();
+                event.commit();
+            }
+        });
+
+        // Followers only serve reads; anything that would change the ledger has to go to the primary.
+        // Admin routes only touch this process (caches etc.) so they're allowed.
+        javalinApp.before(context -> {
+            if (Replication.isFollower() && !"GET".equals(context.method().name()) && !"HEAD".equals(context.method().name())
+                    && !context.path().contains("/api/admin/")) {
+                throw new MethodNotAllowedResponse("Read-only replica: send writes to the primary");
+            }
+            // While the file is still loading in the background, answers may be missing older rows
+            if (!StartupLoader.isReady() && follow == null && !context.path().equals("/api/health") && !context.path().equals("/api/ready")) {
+                context.header("X-Ledger-Partial", "true");
+                if (StartupLoader.loadedSince() != null) context.header("X-Ledger-Loaded-Since", StartupLoader.loadedSince().toString());
+            }
+        });
 
         //creating the GET api endpoints
         javalinApp.get("/api/health", context -> context.result("ok"));
 
-        javalinApp.get("/api/transactions", context -> context.json(DataStore.ledger.stream().sorted(BY_DATETIME_DESCENDING).map(WebServer::toDto).toList()));
+        //readiness: 200 once the ledger is fully loaded (or a follower has caught up with its primary), 503 before
+        javalinApp.get("/api/ready", context -> {
+            boolean ready = follow != null ? Replication.isCaughtUp() : StartupLoader.isReady();
+            Map<String, Object> out = new LinkedHashMap<>();
+            out.put("ready", ready);
+            out.put("rows", DataStore.size());
+            out.put("load", follow != null ? Replication.status() : StartupLoader.status());
+            context.status(ready ? 200 : 503).json(out);
+        });
+
+        javalinApp.get("/api/replication", context -> context.json(Replication.status()));
 
-        javalinApp.get("/api/transactions/deposits", context -> context.json(DataStore.ledger.stream().filter(t -> t.getAmount() > 0).sorted(BY_DATETIME_DESCENDING).map(WebServer::toDto).toList()));
+        javalinApp.get("/api/tenants", context -> context.json(TenantRegistry.status()));
 
-        javalinApp.get("/api/transactions/payments", context -> context.json(DataStore.ledger.stream().filter(t -> t.getAmount() < 0).sorted(BY_DATETIME_DESCENDING).map(WebServer::toDto).toList()));
+        //Everything under /api/admin/ is for operators only (requireAdmin), with or without the tenant prefix.
+        //Guarding the prefix once means a new admin route can't be added without it.
+        javalinApp.before("/api/admin/*", WebServer::requireAdmin);
+        javalinApp.before("/t/{tenant}/api/admin/*", WebServer::requireAdmin);
+
+        //query cache: limits, per-route hit rates and cached entries; DELETE empties it
+        tenantGet(javalinApp, "/api/admin/query-cache", (context, ledger) -> context.json(ledger.queryCache().status()));
+
+        tenantRoute(javalinApp, HandlerType.DELETE, "/api/admin/query-cache", (context, ledger) ->
+                context.json(Map.of("flushed", ledger.queryCache().clear())));
+
+        //compaction of the transactions file: POST starts it in the background (202, or 409 if one is running),
+        //GET shows whether it's running and how the last one went. Followers have no file of their own.
+        javalinApp.post("/api/admin/compact", defaultLedgerOnly(context -> {
+            if (follow != null) {
+                context.status(409).result("Followers don't keep a transactions file; compact the primary's");
+                return;
+            }
+            boolean started = LedgerCompactor.compactInBackground(Utilities.fileName);
+            context.status(started ? 202 : 409).json(LedgerCompactor.status());
+        }));
+
+        javalinApp.get("/api/admin/compact", defaultLedgerOnly(context -> context.json(LedgerCompactor.status())));
+
+        //flight recordings of the ledger events (LedgerEvents) plus the JDK's own, without a restart or an agent.
+        //POST starts one (settings=default|profile, maxSeconds caps it, 409 if one is running), GET shows it,
+        //POST .../stop ends it and sends back the .jfr file (also kept under recordings/).
+        //Like every admin route they only answer requests from this machine, or, when the LEDGER_ADMIN_TOKEN
+        //environment variable is set, requests sending it as "Authorization: Bearer <token>".
+
+        javalinApp.post("/api/admin/recording", defaultLedgerOnly(context -> {
+            String settings = context.queryParam("settings");
+            String maxSeconds = context.queryParam("maxSeconds");
+            if (settings != null && !settings.equals("default") && !settings.equals("profile")) {
+                context.status(400).result("settings must be default or profile");
+                return;
+            }
+            Duration max = null;
+            try {
+                if (maxSeconds != null) max = Duration.ofSeconds(Long.parseLong(maxSeconds.trim()));
+            } catch (NumberFormatException e) {
+                // reported below
+            }
+            if (maxSeconds != null && (max == null || max.isNegative() || max.isZero()
+                    || max.compareTo(LedgerEvents.MAX_RECORDING) > 0)) {
+                context.status(400).result("maxSeconds must be a number from 1 to " + LedgerEvents.MAX_RECORDING.toSeconds());
+                return;
+            }
+            try {
+                context.status(201).json(LedgerEvents.startRecording(settings, max));
+            } catch (IllegalStateException e) {
+                context.status(409).json(LedgerEvents.recordingStatus());
+            }
+        }));
+
+        javalinApp.get("/api/admin/recording", defaultLedgerOnly(context -> context.json(LedgerEvents.recordingStatus())));
+
+        javalinApp.post("/api/admin/recording/stop", defaultLedgerOnly(context -> {
+            Path file = LedgerEvents.stopRecording();
+            if (file == null || !Files.exists(file)) {
+                context.status(404).result("No recording to stop");
+                return;
+            }
+            context.header("Content-Disposition", "attachment; filename=\"" + file.getFileName() + "\"");
+            context.contentType("application/octet-stream");
+            context.result(Files.newInputStream(file));
+        }));
+
+        //archived years: the segment files, and queries answered straight from them (only the blocks whose zone
+        //maps overlap the query are read). start/end, minAmount/maxAmount and user are all optional.
+        javalinApp.get("/api/archive", defaultLedgerOnly(context -> context.json(ColdStore.status())));
+
+        javalinApp.get("/api/archive/transactions", defaultLedgerOnly(context -> {
+            Long minCents, maxCents;
+            Integer userId = null;
+            try {
+                minCents = AmountIndex.parseCents(context.queryParam("minAmount"));
+                maxCents = AmountIndex.parseCents(context.queryParam("maxAmount"));
+                String user = context.queryParam("user");
+                if (user != null && !user.isBlank()) userId = Integer.parseInt(user.trim());
+            } catch (NumberFormatException | ArithmeticException e) {
+                context.status(400).result("minAmount, maxAmount and user must be numbers");
+                return;
+            }
+            ColdStore.ScanResult result = ColdStore.scan(parseDate(context.queryParam("start")),
+                    parseDate(context.queryParam("end")), userId, minCents, maxCents);
+            context.header("X-Archive-Blocks", result.blocks() + "");
+            context.header("X-Archive-Blocks-Read", result.blocksRead() + "");
+            respondRows(context, result.rows(), userId, DataStore.balances);
+        }));
+
+        //new transactions go through the single-writer pipeline (WritePipeline) and are answered once they're on
+        //disk: 201 with the ledger offset, or 200 if the identical row is already there. With an Idempotency-Key
+        //header a retry gets the first answer again (Idempotency-Replayed: true) instead of a second row.
+        javalinApp.post("/api/transactions", defaultLedgerOnly(context -> {
+            if (!StartupLoader.isReady() || !WritePipeline.isRunning()) {
+                context.status(503).header("Retry-After", "1").result("Still loading the ledger; try again shortly");
+                return;
+            }
+            TransactionRequest body;
+            Transaction record;
+            try {
+                body = context.bodyAsClass(TransactionRequest.class);
+                record = toTransaction(body);
+            } catch (IllegalArgumentException e) {
+                context.status(400).result(e.getMessage());
+                return;
+            } catch (Exception e) {
+                context.status(400).result("Body must be JSON: {userId, description, vendor, amount, date?, time?}");
+                return;
+            }
+            String key = context.header("Idempotency-Key");
+            if (key != null && (key.isBlank() || key.length() > 200)) {
+                context.status(400).result("Idempotency-Key must be 1 to 200 characters");
+                return;
+            }
+            var pending = WritePipeline.submit(record, key, body);
+            if (pending == null) {
+                context.status(503).header("Retry-After", "1").result("Too many writes in flight; try again shortly");
+                return;
+            }
+            WritePipeline.Result result;
+            try {
+                result = pending.get(10, TimeUnit.SECONDS);
+            } catch (TimeoutException e) {
+                context.status(503).result("Not confirmed yet; retry with the same Idempotency-Key to find out");
+                return;
+            } catch (ExecutionException e) {
+                context.status(500).result("Could not write the transaction: " + e.getCause().getMessage());
+                return;
+            }
+            if (result.replayed()) context.header("Idempotency-Replayed", "true");
+            if (result.outcome() == WritePipeline.Outcome.KEY_REUSED) {
+                context.status(422).result("Idempotency-Key was already used for a different transaction");
+                return;
+            }
+            Transaction t = result.transaction();
+            Map<String, Object> out = new LinkedHashMap<>();
+            out.put("result", result.outcome() == WritePipeline.Outcome.CREATED ? "created" : "duplicate");
+            if (result.offset() >= 0) out.put("offset", result.offset());
+            out.put("userId", t.getUserId());
+            out.put("date", t.getDate().toString());
+            out.put("time", t.getTime().toString());
+            out.put("description", t.getDescription());
+            out.put("vendor", t.getVendor());
+            out.put("amount", t.getAmount());
+            out.put("type", t.transactionType());
+            context.status(result.outcome() == WritePipeline.Outcome.CREATED ? 201 : 200).json(out);
+        }));
+
+        javalinApp.get("/api/admin/writes", defaultLedgerOnly(context -> context.json(WritePipeline.status())));
+
+        //optional filters: minAmount/maxAmount (answered from the amount index), start/end dates and user
+        tenantGet(javalinApp, "/api/transactions", (context, ledger) -> {
+            String minAmount = context.queryParam("minAmount");
+            String maxAmount = context.queryParam("maxAmount");
+            String user = context.queryParam("user");
+            if (minAmount == null && maxAmount == null && user == null) {
+                LocalDate start = parseDate(context.queryParam("start"));
+                LocalDate end = parseDate(context.queryParam("end"));
+                respondRows(context, ParallelScan.filterSorted(snapshotWithHead(context, ledger),
+                        t -> (start == null || !t.getDate().isBefore(start)) && (end == null || !t.getDate().isAfter(end)),
+                        BY_DATETIME_DESCENDING), null, ledger.balances());
+                return;
+            }
+            Long minCents, maxCents;
+            Integer userId = null;
+            try {
+                minCents = AmountIndex.parseCents(minAmount);
+                maxCents = AmountIndex.parseCents(maxAmount);
+                if (user != null && !user.isBlank()) userId = Integer.parseInt(user.trim());
+            } catch (NumberFormatException | ArithmeticException e) {
+                context.status(400).result("minAmount, maxAmount and user must be numbers");
+                return;
+            }
+            LocalDate start = parseDate(context.queryParam("start"));
+            LocalDate end = parseDate(context.queryParam("end"));
+            List<Transaction> rows = new ArrayList<>(ledger.amounts().range(userId, minCents, maxCents).stream()
+                    .filter(t -> (start == null || !t.getDate().isBefore(start)) && (end == null || !t.getDate().isAfter(end)))
+                    .toList());
+            LedgerEvents.sort(rows, BY_DATETIME_DESCENDING, "amount range");
+            respondRows(context, rows, userId, ledger.balances());
+        });
+
+        //the type filters run over the amount column instead of every Transaction
+        tenantGet(javalinApp, "/api/transactions/deposits", (context, ledger) -> {
+            respondListing(context, ledger.selectWithHead(null, null, null, "deposits"), null, ledger.balances());
+        });
+
+        tenantGet(javalinApp, "/api/transactions/payments", (context, ledger) -> {
+            respondListing(context, ledger.selectWithHead(null, null, null, "payments"), null, ledger.balances());
+        });
+
+        //live feed of appended transactions (Server-Sent Events). Optional filters: user=1234, type=deposits|payments.
+        //Event ids are ledger offsets: pass from=X-Ledger-Head of a listing (or let EventSource send Last-Event-ID
+        //on reconnect) to receive only the rows after it.
+        javalinApp.before("/api/transactions/stream", WebServer::requireDefaultLedger); // the feed is default-only too
+        javalinApp.sse("/api/transactions/stream", client -> {
+            var context = client.ctx();
+            Integer userId = null;
+            int lastEventId;
+            try {
+                String user = context.queryParam("user");
+                if (user != null && !user.isBlank()) userId = Integer.parseInt(user.trim());
+                String lastId = context.header("Last-Event-ID");
+                String from = context.queryParam("from");
+                if (lastId != null && !lastId.isBlank()) lastEventId = Integer.parseInt(lastId.trim());
+                else if (from != null && !from.isBlank()) lastEventId = Integer.parseInt(from.trim()) - 1;
+                else lastEventId = DataStore.size() - 1; // live only
+            } catch (NumberFormatException e) {
+                client.sendEvent("error", "user, from and Last-Event-ID must be numbers");
+                client.close();
+                return;
+            }
+            String type = context.queryParam("type");
+            Integer filterUser = userId;
+            Predicate<Transaction> filter = t -> (filterUser == null || t.getUserId() == filterUser)
+                    && (!"deposits".equalsIgnoreCase(type) || t.getAmount() > 0)
+                    && (!"payments".equalsIgnoreCase(type) || t.getAmount() < 0);
+            LiveFeed.subscribe(client, filter, lastEventId, t -> toDto(t, filterUser));
+        });
 
         //date-range endpoints (JSON + plain text)
-        javalinApp.get("/api/transactions/range", context -> {
+        tenantGet(javalinApp, "/api/transactions/range", (context, ledger) -> {
             LocalDate start = parseDate(context.queryParam("start"));
             LocalDate end = parseDate(context.queryParam("end"));
             if (start == null || end == null) {
                 context.status(400).result("start and end are required as YYYY-MM-DD");
                 return;
             }
-            var out = Utilities.transactionsByDuration(start, end).stream().map(WebServer::toDto).toList();
-            context.json(out); //using one of the functions I created already in the CLI app to get time range data
+            var rows = ledger.queryCache().get("range", "web", null, start, end, () -> ledger.byDuration(start, end));
+            respondRows(context, rows, null, ledger.balances()); //using one of the functions I created already in the CLI app to get time range data
         });
         //I created this for exporting to pdf and to show text response
-        javalinApp.get("/api/transactions/range.txt", context -> {
+        tenantGet(javalinApp, "/api/transactions/range.txt", (context, ledger) -> {
             LocalDate start = parseDate(context.queryParam("start"));
             LocalDate end = parseDate(context.queryParam("end"));
             if (start == null || end == null) {
                 context.status(400).result("start and end are required as YYYY-MM-DD");
                 return;
             }
-            var lines = Utilities.transactionsByDuration(start, end).stream().map(Utilities::formatTransaction).toList();
+            var rows = ledger.queryCache().get("range.txt", "web", null, start, end, () -> ledger.byDuration(start, end));
+            var lines = rows.stream().map(Utilities::formatTransaction).toList();
             context.header("Content-Type", "text/plain; charset=utf-8");
             context.result(String.join("\n", lines));
         });
 
-        javalinApp.get("/api/transactions/user/{userId}", context -> {
+        //net balance between two dates (both optional and inclusive) for one user or the whole ledger
+        tenantGet(javalinApp, "/api/balance", (context, ledger) -> {
+            Integer userId = null;
+            String user = context.queryParam("user");
+            if (user != null && !user.isBlank()) {
+                try {
+                    userId = Integer.parseInt(user.trim());
+                } catch (NumberFormatException e) {
+                    context.status(400).result("Invalid user ID format.");
+                    return;
+                }
+            }
+            LocalDate start = parseDate(context.queryParam("start"));
+            LocalDate end = parseDate(context.queryParam("end"));
+            if (start != null && end != null && start.isAfter(end)) {
+                LocalDate tmp = start;
+                start = end;
+                end = tmp;
+            }
+            Map<String, Object> out = new LinkedHashMap<>();
+            out.put("user", userId);
+            out.put("start", start == null ? null : start.toString());
+            out.put("end", end == null ? null : end.toString());
+            out.put("balance", ledger.balances().balanceCents(userId, start, end) / 100.0);
+            out.put("count", ledger.balances().count(userId, start, end));
+            context.json(out);
+        });
+
+        //counts and totals per type (credits/debits) between two dates (both optional) for one user or everyone
+        tenantGet(javalinApp, "/api/summary", (context, ledger) -> {
+            Integer userId = null;
+            String user = context.queryParam("user");
+            if (user != null && !user.isBlank()) {
+                try {
+                    userId = Integer.parseInt(user.trim());
+                } catch (NumberFormatException e) {
+                    context.status(400).result("Invalid user ID format.");
+                    return;
+                }
+            }
+            context.json(ledger.columns().summarize(parseDate(context.queryParam("start")), parseDate(context.queryParam("end")), userId));
+        });
+
+        //top vendors by count or spend for a user (or everyone) over a range of months.
+        //mode=sketch (default) answers from the streaming sketches with error bounds, mode=exact scans the ledger
+        tenantGet(javalinApp, "/api/reports/top-vendors", (context, ledger) -> {
+            Integer userId = null;
+            int k;
+            try {
+                String user = context.queryParam("user");
+                if (user != null && !user.isBlank()) userId = Integer.parseInt(user.trim());
+                String kParam = context.queryParam("k");
+                k = kParam == null || kParam.isBlank() ? 10 : Integer.parseInt(kParam.trim());
+            } catch (NumberFormatException e) {
+                context.status(400).result("user and k must be numbers");
+                return;
+            }
+            if (k < 1 || k > VendorSketches.CAPACITY) {
+                context.status(400).result("k must be between 1 and " + VendorSketches.CAPACITY);
+                return;
+            }
+            YearMonth start = parseMonth(context.queryParam("start"));
+            YearMonth end = parseMonth(context.queryParam("end"));
+            if (start != null && end != null && start.isAfter(end)) {
+                YearMonth tmp = start;
+                start = end;
+                end = tmp;
+            }
+            boolean bySpend = "spend".equalsIgnoreCase(context.queryParam("by"));
+            if ("exact".equalsIgnoreCase(context.queryParam("mode"))) {
+                context.json(VendorSketches.exactTopVendors(ledger.snapshot(), userId, start, end, k, bySpend));
+            } else {
+                context.json(ledger.vendorSketches().topVendors(userId, start, end, k, bySpend));
+            }
+        });
+
+        //type-ahead: the k most frequent vendor or description values starting with prefix (case-insensitive)
+        tenantGet(javalinApp, "/api/suggest", (context, ledger) -> {
+            SuggestIndex.Field field;
+            int k;
+            try {
+                field = SuggestIndex.Field.parse(context.queryParam("field"));
+                String kParam = context.queryParam("k");
+                k = kParam == null || kParam.isBlank() ? SuggestIndex.MAX_K : Integer.parseInt(kParam.trim());
+            } catch (IllegalArgumentException e) { // includes NumberFormatException
+                context.status(400).result("field must be vendor or description and k a number");
+                return;
+            }
+            if (k < 1 || k > SuggestIndex.MAX_K) {
+                context.status(400).result("k must be between 1 and " + SuggestIndex.MAX_K);
+                return;
+            }
+            String prefix = context.queryParam("prefix");
+            context.json(ledger.suggestions().suggest(field, prefix == null ? "" : prefix, k));
+        });
+
+        //background report jobs: POST returns a job id, GET polls status/progress, /result streams the finished file
+        javalinApp.post("/api/reports/jobs", defaultLedgerOnly(context -> {
+            try {
+                var job = ReportJobs.submit(context.queryParam("type"), parseDate(context.queryParam("start")), parseDate(context.queryParam("end")));
+                context.status(job.status() == ReportJobs.Status.DONE ? 200 : 202).json(job);
+            } catch (IllegalArgumentException e) {
+                context.status(400).result(e.getMessage());
+            } catch (RejectedExecutionException e) {
+                context.status(503).header("Retry-After", "5").result("Too many report jobs queued, try again shortly");
+            }
+        }));
+
+        javalinApp.get("/api/reports/jobs/{id}", defaultLedgerOnly(context -> {
+            var job = ReportJobs.status(context.pathParam("id"));
+            if (job == null) {
+                context.status(404).result("No such report job: " + context.pathParam("id"));
+            } else {
+                context.json(job);
+            }
+        }));
+
+        javalinApp.get("/api/reports/jobs/{id}/result", defaultLedgerOnly(context -> {
+            var job = ReportJobs.status(context.pathParam("id"));
+            if (job == null) {
+                context.status(404).result("No such report job: " + context.pathParam("id"));
+                return;
+            }
+            if (job.status() != ReportJobs.Status.DONE) {
+                context.status(job.status() == ReportJobs.Status.FAILED ? 500 : 409).json(job);
+                return;
+            }
+            InputStream result = ReportJobs.openResult(job.id());
+            if (result == null) {
+                context.status(410).result("Report was evicted or invalidated by new transactions; submit it again");
+                return;
+            }
+            context.header("Content-Type", "text/plain; charset=utf-8");
+            context.result(result);
+        }));
+
+        tenantGet(javalinApp, "/api/transactions/user/{userId}", (context, ledger) -> {
             try {
                 // Get the userId from the path parameter
                 int userId = Integer.parseInt(context.pathParam("userId"));
 
-                // Filter the ledger by the userId
-                var userTransactions = DataStore.ledger.stream().filter(t -> t.getUserId() == userId).sorted(BY_DATETIME_DESCENDING).map(WebServer::toDto).toList();
+                // Filter the ledger by the userId; the head comes from the same snapshot as the rows
+                Listing listing = ledger.queryCache().getListing("user", "web", userId, null, null, () -> {
+                    List<Transaction> snapshot = ledger.snapshot();
+                    return new Listing(ParallelScan.filterSorted(snapshot, t -> t.getUserId() == userId, BY_DATETIME_DESCENDING),
+                            snapshot.size());
+                });
+                var rows = listing.rows();
 
                 // Respond with the list of transactions
-                if (userTransactions.isEmpty()) {
+                if (rows.isEmpty()) {
                     // Return 404 if no transactions are found for the user ID
                     context.status(404).result("No transactions found for user ID: " + userId);
                 } else {
-                    context.json(userTransactions);
+                    respondListing(context, listing, userId, ledger.balances());
                 }
 
             } catch (NumberFormatException e) {
@@ -103,5 +709,46 @@ public class WebServer {
                 context.status(400).result("Invalid user ID format.");
             }
         });
+
+        if (follow == null && progressive) {
+            StartupLoader.startInBackground(Utilities.fileName,
+                    () -> System.out.println("Loaded transactions: " + DataStore.size()));
+        }
+        if (follow == null) {
+            WritePipeline.start(writeBuffer == null ? WritePipeline.DEFAULT_CAPACITY : Integer.parseInt(writeBuffer),
+                    idempotencyWindow == null ? WritePipeline.DEFAULT_KEY_WINDOW : Integer.parseInt(idempotencyWindow));
+        }
+    }
+
+    //Checks a POST body and turns it into a Transaction; IllegalArgumentException says what's wrong with it
+    private static Transaction toTransaction(TransactionRequest body) {
+        if (body == null || body.userId() == null || body.amount() == null) {
+            throw new IllegalArgumentException("userId and amount are required");
+        }
+        if (body.description() == null || body.description().isBlank() || body.vendor() == null || body.vendor().isBlank()) {
+            throw new IllegalArgumentException("description and vendor are required");
+        }
+        // the file is pipe-delimited, one row per line
+        for (String text : new String[]{body.description(), body.vendor()}) {
+            if (text.indexOf('|') >= 0 || text.indexOf('\n') >= 0 || text.indexOf('\r') >= 0) {
+                throw new IllegalArgumentException("description and vendor can't contain | or line breaks");
+            }
+        }
+        if (!Double.isFinite(body.amount())) {
+            throw new IllegalArgumentException("amount must be a number");
+        }
+        if (Math.abs(body.amount()) >= 1e12) {
+            throw new IllegalArgumentException("amount must be below 1e12 in absolute value");
+        }
+        LocalDate date;
+        LocalTime time;
+        try {
+            date = body.date() == null || body.date().isBlank() ? LocalDate.now() : LocalDate.parse(body.date().trim());
+            time = body.time() == null || body.time().isBlank() ? LocalTime.now() : LocalTime.parse(body.time().trim());
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("date must be YYYY-MM-DD and time HH:MM:SS");
+        }
+        double amount = Math.round(body.amount() * 100) / 100.0; // cents, like the file
+        return new Transaction(date, time.withNano(0), body.description().trim(), body.vendor().trim(), amount, body.userId());
     }
 }
@@ -0,0 +1,126 @@
+package com.pluralsight;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * # WireBenchmark: what each WireFormat costs to produce for a transaction listing, and how big it is.
+ *
+ * Serializes the same seeded rows (ScanBenchmark's generator, running balances from a BalanceIndex) the way the
+ * listing endpoints do, once per format, into a sink that only counts bytes. Reports the median CPU time of the
+ * serializing thread, the payload size, and the size after gzip (what a compressing proxy would send).
+ * The "dto" line is the cost of just building the TransactionDtos (balance lookups and date/time strings) that the
+ * Jackson formats all pay, so the encoding cost on its own is the difference.
+ *
+ * Options: --rows=1000000 --runs=7 --seed=42 --out=wire-benchmark.txt
+ */
+public final class WireBenchmark {
+
+    private WireBenchmark() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (arg.startsWith("--") && eq > 2) options.put(arg.substring(2, eq), arg.substring(eq + 1));
+        }
+        int rowCount = Integer.parseInt(options.getOrDefault("rows", "1000000"));
+        int runs = Integer.parseInt(options.getOrDefault("runs", "7"));
+        long seed = Long.parseLong(options.getOrDefault("seed", "42"));
+        String out = options.get("out");
+
+        List<Transaction> rows = ScanBenchmark.generate(rowCount, seed);
+        BalanceIndex balances = new BalanceIndex();
+        rows.forEach(balances::add);
+        rows.sort(BalanceIndex.BY_DATETIME_ASCENDING.reversed()); // newest first, like the listings
+
+        List<String> lines = new ArrayList<>();
+        lines.add("# transaction listing wire formats");
+        lines.add("rows=" + rowCount + " runs=" + runs + " seed=" + seed + " (median CPU ms of the serializing thread)");
+        lines.add("");
+        lines.add(String.format(Locale.ROOT, "%-6s %10s %9s %12s %9s %12s %9s", "format", "cpu ms", "vs json",
+                "bytes", "vs json", "gzip bytes", "vs json"));
+        System.out.println(String.join("\n", lines));
+
+        double dtoMillis = median(runs, () -> {
+            long sum = 0;
+            for (Transaction t : rows) sum += WebServer.toDto(t, null, balances).date().length();
+            return sum;
+        });
+        double jsonMillis = 0;
+        long jsonBytes = 0, jsonGzip = 0;
+        for (WireFormat format : WireFormat.values()) {
+            double millis = median(runs, () -> {
+                CountingStream sink = new CountingStream();
+                format.write(sink, rows, null, balances);
+                return sink.count;
+            });
+            ByteArrayOutputStream payload = new ByteArrayOutputStream();
+            format.write(payload, rows, null, balances);
+            CountingStream zipped = new CountingStream();
+            try (GZIPOutputStream gzip = new GZIPOutputStream(zipped)) {
+                payload.writeTo(gzip);
+            }
+            if (format == WireFormat.JSON) {
+                jsonMillis = millis;
+                jsonBytes = payload.size();
+                jsonGzip = zipped.count;
+            }
+            String line = String.format(Locale.ROOT, "%-6s %10.1f %8.2fx %12d %8.2fx %12d %8.2fx",
+                    format.name().toLowerCase(Locale.ROOT), millis, millis / jsonMillis, payload.size(),
+                    (double) payload.size() / jsonBytes, zipped.count, (double) zipped.count / jsonGzip);
+            lines.add(line);
+            System.out.println(line);
+        }
+        String line = String.format(Locale.ROOT, "%-6s %10.1f %8.2fx", "dto", dtoMillis, dtoMillis / jsonMillis);
+        lines.add(line);
+        System.out.println(line);
+
+        if (out != null) {
+            Files.write(Paths.get(out), lines, StandardCharsets.UTF_8);
+            System.out.println("Report written to " + out);
+        }
+    }
+
+    private interface Run {
+        long run() throws IOException;
+    }
+
+    // Median CPU time of runs executions (after two warm-up runs), in milliseconds
+    private static double median(int runs, Run run) throws IOException {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        for (int i = 0; i < 2; i++) run.run();
+        double[] times = new double[runs];
+        for (int i = 0; i < runs; i++) {
+            long started = threads.getCurrentThreadCpuTime();
+            run.run();
+            times[i] = (threads.getCurrentThreadCpuTime() - started) / 1_000_000.0;
+        }
+        Arrays.sort(times);
+        return times[runs / 2];
+    }
+
+    // Throws the bytes away, so the timings don't include growing a buffer
+    private static final class CountingStream extends OutputStream {
+        long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
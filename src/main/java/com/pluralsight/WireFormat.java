@@ -0,0 +1,100 @@
+package com.pluralsight;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SequenceWriter;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileGenerator;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * # WireFormat: the encodings the transaction listings can be returned in.
+ *
+ * JSON stays the default. High-volume consumers can ask for a binary format instead, either with an Accept header
+ * or with ?format=json|smile|cbor|arrow (handy from a browser or curl):
+ * - SMILE and CBOR carry exactly the same TransactionDto objects as the JSON, just binary-encoded, so any Jackson
+ *   (or CBOR) client reads them with the same DTO class.
+ * - ARROW is an Arrow IPC stream of the ledger columns (see ArrowStreamWriter), for pandas/polars/DuckDB consumers.
+ */
+enum WireFormat {
+    JSON("application/json", new ObjectMapper()),
+    // back-references for repeated short strings: vendor and type repeat on almost every row
+    SMILE("application/x-jackson-smile",
+            new ObjectMapper(new SmileFactory().enable(SmileGenerator.Feature.CHECK_SHARED_STRING_VALUES))),
+    CBOR("application/cbor", new ObjectMapper(new CBORFactory())),
+    ARROW(ArrowStreamWriter.CONTENT_TYPE, null);
+
+    final String contentType;
+    private final ObjectMapper mapper;
+
+    WireFormat(String contentType, ObjectMapper mapper) {
+        this.contentType = contentType;
+        this.mapper = mapper;
+    }
+
+    /**
+     * The format asked for: ?format= wins, then the first binary type named in Accept, else JSON. A type listed with
+     * q=0 is one the client refuses, so it's skipped. Throws IllegalArgumentException for an unknown ?format= value.
+     */
+    static WireFormat negotiate(String accept, String format) {
+        if (format != null && !format.isBlank()) return valueOf(format.trim().toUpperCase(Locale.ROOT));
+        if (accept != null) {
+            for (String part : accept.split(",")) {
+                String[] params = part.split(";");
+                String type = params[0].trim().toLowerCase(Locale.ROOT);
+                if (refused(params)) continue;
+                for (WireFormat f : values()) {
+                    if (f != JSON && f.contentType.equals(type)) return f;
+                }
+            }
+        }
+        return JSON;
+    }
+
+    // true if one of a media range's parameters is q=0 (or q=0.000 etc.)
+    private static boolean refused(String[] params) {
+        for (int i = 1; i < params.length; i++) {
+            String param = params[i].trim();
+            if (param.length() > 2 && (param.charAt(0) == 'q' || param.charAt(0) == 'Q') && param.charAt(1) == '=') {
+                try {
+                    return Double.parseDouble(param.substring(2).trim()) <= 0;
+                } catch (NumberFormatException e) {
+                    return false;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Writes rows in this format. Running balances are looked up in balances for balanceUserId (null = whole
+     * ledger), like every JSON listing. Jackson formats stream one DTO at a time instead of building the list.
+     * out is flushed but not closed.
+     */
+    void write(OutputStream out, List<Transaction> rows, Integer balanceUserId, BalanceIndex balances) throws IOException {
+        LedgerEvents.Serialize event = new LedgerEvents.Serialize();
+        event.start();
+        LedgerEvents.CountingStream counted = event.isEnabled() ? new LedgerEvents.CountingStream(out) : null;
+        if (counted != null) out = counted;
+        if (this == ARROW) {
+            ArrowStreamWriter.write(out, rows, t -> balances.runningBalanceCents(balanceUserId, t));
+        } else {
+            try (SequenceWriter writer = mapper.writerFor(TransactionDto.class)
+                    .without(JsonGenerator.Feature.AUTO_CLOSE_TARGET).writeValuesAsArray(out)) {
+                for (Transaction t : rows) writer.write(WebServer.toDto(t, balanceUserId, balances));
+            }
+            out.flush();
+        }
+        if (event.stop() && counted != null) {
+            event.format = name();
+            event.rows = rows.size();
+            event.bytes = counted.count;
+            event.commit();
+        }
+    }
+}
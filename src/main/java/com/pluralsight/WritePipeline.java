@@ -0,0 +1,308 @@
+package com.pluralsight;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * # WritePipeline: POST /api/transactions as a single-writer pipeline.
+ *
+ * Request threads never touch the ledger, the indexes or the file. They claim a slot in a preallocated ring
+ * buffer (one CAS), fill it in and publish it. A single writer thread drains whatever has been published, up to
+ * MAX_BATCH slots at a time, and for the whole batch:
+ * 1. answers Idempotency-Key retries from the key window and drops duplicate rows (Utilities.markSeen),
+ * 2. appends the new rows to the transactions file with one write and one fsync,
+ * 3. appends them to the ledger under one lock (indexes, caches, live feed and replication follow from there),
+ * 4. completes the callers' futures.
+ * A caller is only acknowledged once its row is on disk. While the writer waits for an fsync, new requests pile up
+ * in the ring and go out together in the next batch, so the fsync cost is shared as the load grows (group commit).
+ *
+ * When the ring is full submit refuses right away instead of blocking (the route answers 503 + Retry-After).
+ *
+ * Idempotency keys: the writer remembers the outcome of the last windowSize keys (for at most KEY_TTL_MILLIS).
+ * A retry with the same key and the same body gets the original answer back without writing anything; the same
+ * key with a different body is refused. Only the writer thread touches the window, so it needs no locking.
+ */
+public final class WritePipeline {
+
+    static final int DEFAULT_CAPACITY = 4096;
+    static final int DEFAULT_KEY_WINDOW = 100_000;
+    static final int MAX_BATCH = 1024;
+    static final long KEY_TTL_MILLIS = 24 * 60 * 60 * 1000L;
+
+    public enum Outcome {
+        CREATED,    // appended (offset is its ledger offset)
+        DUPLICATE,  // the exact same row is already in the ledger; nothing written
+        KEY_REUSED  // the Idempotency-Key was already used for a different body
+    }
+
+    // replayed = answered from the key window instead of being processed again
+    public record Result(Outcome outcome, int offset, Transaction transaction, boolean replayed) {
+    }
+
+    private static final class Slot {
+        volatile long published = -1; // sequence number of the request in this slot, once it's filled in
+        Transaction record;
+        String key;
+        Object body; // what an idempotent retry has to match (the parsed request)
+        CompletableFuture<Result> result;
+    }
+
+    private record KeyEntry(Object body, long atMillis, Result[] result) {
+    }
+
+    private static Slot[] slots;
+    private static int mask;
+    private static int windowSize;
+    private static final AtomicLong claimed = new AtomicLong();
+    private static volatile long consumed; // slots before this sequence are free again
+    private static volatile boolean writerWaiting;
+    private static volatile Thread writer;
+
+    // writer thread only
+    private static final LinkedHashMap<String, KeyEntry> keys = new LinkedHashMap<>();
+
+    // counters for status()
+    private static final AtomicLong rejected = new AtomicLong();
+    private static volatile long batches, processed, rowsWritten, duplicates, replays, journalWrites, journalNanos,
+            maxBatch;
+
+    private WritePipeline() {
+    }
+
+    /**
+     * Starts the writer thread. capacity is rounded up to a power of two. Call once, after the ledger is loaded
+     * (or at least after the load has started, see StartupLoader; the route refuses writes until it's ready).
+     */
+    public static synchronized void start(int capacity, int keyWindow) {
+        if (writer != null) return;
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        slots = new Slot[size];
+        for (int i = 0; i < size; i++) slots[i] = new Slot();
+        mask = size - 1;
+        windowSize = keyWindow;
+        Thread thread = new Thread(WritePipeline::run, "ledger-writer");
+        thread.setDaemon(true);
+        writer = thread;
+        thread.start();
+    }
+
+    public static boolean isRunning() {
+        return writer != null;
+    }
+
+    /**
+     * Publishes a row for the writer. Returns the future that completes once the batch holding it is on disk, or
+     * null when the ring is full. key may be null; body is what a retry with the same key has to equal.
+     */
+    public static CompletableFuture<Result> submit(Transaction record, String key, Object body) {
+        long seq;
+        do {
+            seq = claimed.get();
+            if (seq - consumed >= slots.length) {
+                rejected.incrementAndGet();
+                return null;
+            }
+        } while (!claimed.compareAndSet(seq, seq + 1));
+
+        Slot slot = slots[(int) (seq & mask)];
+        CompletableFuture<Result> result = new CompletableFuture<>();
+        slot.record = record;
+        slot.key = key;
+        slot.body = body;
+        slot.result = result;
+        slot.published = seq; // volatile write: everything above is visible to the writer once it sees this
+        if (writerWaiting) LockSupport.unpark(writer);
+        return result;
+    }
+
+    private static void run() {
+        long next = 0;
+        int idle = 0;
+        while (true) {
+            int n = 0;
+            while (n < MAX_BATCH && slots[(int) ((next + n) & mask)].published == next + n) n++;
+            if (n == 0) {
+                // spin briefly, then park until a producer unparks us
+                if (++idle < 100) {
+                    Thread.onSpinWait();
+                    continue;
+                }
+                writerWaiting = true;
+                if (slots[(int) (next & mask)].published != next) LockSupport.parkNanos(1_000_000);
+                writerWaiting = false;
+                continue;
+            }
+            idle = 0;
+            try {
+                process(next, n);
+            } catch (RuntimeException e) {
+                // never let one bad batch stop the writer
+                for (int i = 0; i < n; i++) slots[(int) ((next + i) & mask)].result.completeExceptionally(e);
+            }
+            for (int i = 0; i < n; i++) {
+                Slot slot = slots[(int) ((next + i) & mask)];
+                slot.record = null;
+                slot.key = null;
+                slot.body = null;
+                slot.result = null;
+            }
+            next += n;
+            consumed = next;
+        }
+    }
+
+    private static void process(long first, int n) {
+        long now = System.currentTimeMillis();
+        Result[][] results = new Result[n][]; // a one-element holder per slot, shared with its key entry
+        boolean[] replay = new boolean[n];
+        List<Transaction> fresh = new ArrayList<>(n);
+        List<Integer> freshSlots = new ArrayList<>(n);
+        StringBuilder lines = new StringBuilder(n * 64);
+
+        for (int i = 0; i < n; i++) {
+            Slot slot = slots[(int) ((first + i) & mask)];
+            if (slot.key != null) {
+                KeyEntry seen = keys.get(slot.key);
+                if (seen != null && now - seen.atMillis() > KEY_TTL_MILLIS) {
+                    keys.remove(slot.key);
+                    seen = null;
+                }
+                if (seen != null) {
+                    if (seen.body().equals(slot.body)) {
+                        results[i] = seen.result();
+                        replay[i] = true;
+                    } else {
+                        results[i] = new Result[]{new Result(Outcome.KEY_REUSED, -1, slot.record, false)};
+                    }
+                    continue;
+                }
+            }
+            results[i] = new Result[1];
+            if (Utilities.markSeen(slot.record)) {
+                fresh.add(slot.record);
+                freshSlots.add(i);
+                lines.append(Utilities.toFileLine(slot.record)).append(System.lineSeparator());
+            } else {
+                results[i][0] = new Result(Outcome.DUPLICATE, -1, slot.record, false);
+            }
+            if (slot.key != null) {
+                keys.put(slot.key, new KeyEntry(slot.body, now, results[i]));
+                if (keys.size() > windowSize) keys.remove(keys.keySet().iterator().next()); // oldest key
+            }
+        }
+
+        IOException failure = null;
+        if (!fresh.isEmpty()) {
+            try {
+                journal(lines, fresh.size());
+            } catch (IOException e) {
+                // nothing was acknowledged: undo the bookkeeping so the callers can retry
+                failure = e;
+                for (int k = 0; k < fresh.size(); k++) {
+                    Utilities.forgetSeen(fresh.get(k));
+                    Slot slot = slots[(int) ((first + freshSlots.get(k)) & mask)];
+                    if (slot.key != null) keys.remove(slot.key);
+                }
+                fresh.clear();
+            }
+            if (!fresh.isEmpty()) {
+                int offset = DataStore.appendAll(fresh);
+                for (int k = 0; k < fresh.size(); k++) {
+                    results[freshSlots.get(k)][0] = new Result(Outcome.CREATED, offset + k, fresh.get(k), false);
+                }
+                rowsWritten += fresh.size();
+            }
+        }
+
+        for (int i = 0; i < n; i++) {
+            Slot slot = slots[(int) ((first + i) & mask)];
+            Result result = results[i][0];
+            if (result == null) { // its row (or the row of an earlier request with its key) wasn't written
+                slot.result.completeExceptionally(failure);
+                continue;
+            }
+            if (result.outcome() == Outcome.DUPLICATE) duplicates++;
+            if (replay[i]) {
+                replays++;
+                result = new Result(result.outcome(), result.offset(), result.transaction(), true);
+            }
+            slot.result.complete(result);
+        }
+        batches++;
+        processed += n;
+        if (n > maxBatch) maxBatch = n;
+    }
+
+    // One write and one fsync for the whole batch
+    private static void journal(StringBuilder lines, int rows) throws IOException {
+        LedgerEvents.Append event = new LedgerEvents.Append();
+        event.start();
+        ByteBuffer bytes = StandardCharsets.UTF_8.encode(lines.toString());
+        int size = bytes.remaining();
+        long started = System.nanoTime();
+        synchronized (Utilities.fileLock) {
+            // opened per batch so a compaction that swapped the file in the meantime is picked up; the OS lock
+            // keeps a compaction in another process from swapping it while we write
+            FileChannel lock = Utilities.lockFile(Paths.get(Utilities.fileName));
+            try (FileChannel channel = FileChannel.open(Paths.get(Utilities.fileName), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                long before = channel.size();
+                try {
+                    while (bytes.hasRemaining()) channel.write(bytes);
+                    channel.force(false);
+                } catch (IOException e) {
+                    // the batch is reported as failed, so none of it may stay behind (least of all half a line
+                    // that the next batch would be glued onto)
+                    try {
+                        channel.truncate(before);
+                    } catch (IOException undo) {
+                        e.addSuppressed(undo);
+                    }
+                    throw e;
+                }
+            } finally {
+                lock.close();
+            }
+        }
+        journalWrites++;
+        journalNanos += System.nanoTime() - started;
+        if (event.stop()) {
+            event.file = Utilities.fileName;
+            event.rows = rows;
+            event.bytes = size;
+            event.commit();
+        }
+    }
+
+    // For GET /api/admin/writes
+    public static Map<String, Object> status() {
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("running", writer != null);
+        if (writer == null) return out;
+        long b = batches, writes = journalWrites;
+        out.put("capacity", slots.length);
+        out.put("queued", claimed.get() - consumed);
+        out.put("rowsWritten", rowsWritten);
+        out.put("duplicates", duplicates);
+        out.put("idempotentReplays", replays);
+        out.put("rejectedFull", rejected.get());
+        out.put("batches", b);
+        out.put("avgBatch", b == 0 ? 0 : (double) processed / b);
+        out.put("maxBatch", maxBatch);
+        out.put("journalWrites", writes);
+        out.put("avgJournalMillis", writes == 0 ? 0 : journalNanos / 1e6 / writes);
+        out.put("keyWindow", windowSize);
+        return out;
+    }
+}
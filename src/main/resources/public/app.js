@@ -11,9 +11,12 @@ const fmtMoney = (n) =>
     maximumFractionDigits: 2,
   });
 
-// The array the UI renders (each item: {date,time,description,vendor,amount,type})
+// The array the UI renders (each item: {date,time,description,vendor,amount,type,runningBalance})
 let viewData = [];
 
+// Live feed (Server-Sent Events) for the current view, so new rows show up without re-fetching the list
+let liveFeed = null;
+
 window.addEventListener("DOMContentLoaded", async () => {
 
   // Chips: All / Deposits / Payments (each has data-endpoint="/api/…")
@@ -57,6 +60,7 @@ window.addEventListener("DOMContentLoaded", async () => {
 // Generic loader that fetches JSON and updates UI
 async function load(url, showToast = false) {
   try {
+    stopLiveFeed(); // the old view's feed doesn't apply to the new list
     const res = await fetch(url); // HTTP GET
     if (!res.ok) throw new Error(`HTTP ${res.status}`);
     const data = await res.json(); // parse JSON array
@@ -72,6 +76,9 @@ async function load(url, showToast = false) {
     renderKpis(); // update KPI cards
 
     if (showToast) toast(`Loaded ${viewData.length} transactions`);
+
+    // Keep the list current: stream rows appended after the ones we just got
+    startLiveFeed(url, res.headers.get("X-Ledger-Head"));
   } catch (e) {
     // If the API returns a 404 (Not Found) for a user ID, show an empty table but don't fail loudly.
     if (e.message.includes("HTTP 404")) {
@@ -122,6 +129,39 @@ async function loadByUserId(userId) {
 }
 // --------------------------------------------
 
+/* ===== Live feed ===== */
+
+// Maps a list endpoint to the matching stream filter. Ranges aren't streamed (new rows are dated today).
+function streamParamsFor(url) {
+  if (url === "/api/transactions") return "";
+  if (url === "/api/transactions/deposits") return "type=deposits";
+  if (url === "/api/transactions/payments") return "type=payments";
+  const user = url.match(/^\/api\/transactions\/user\/(\d+)$/);
+  if (user) return `user=${user[1]}`;
+  return null;
+}
+
+// Opens /api/transactions/stream starting right after the rows in the current list (head = X-Ledger-Head).
+// EventSource reconnects by itself and sends Last-Event-ID, so the server only replays what was missed.
+function startLiveFeed(url, head) {
+  const params = streamParamsFor(url);
+  if (params === null || head === null || !window.EventSource) return;
+  const query = [params, `from=${encodeURIComponent(head)}`].filter(Boolean).join("&");
+  liveFeed = new EventSource(`/api/transactions/stream?${query}`);
+  liveFeed.addEventListener("transaction", (e) => {
+    const t = JSON.parse(e.data);
+    t.time = (t.time ?? "").padStart(8, "0");
+    viewData.unshift(t); // appended rows are the newest
+    renderTable();
+    renderKpis();
+  });
+}
+
+function stopLiveFeed() {
+  if (liveFeed) liveFeed.close();
+  liveFeed = null;
+}
+
 /* ===== Render: Table + KPIs ===== */
 
 // Render the entire table body (no pagination; one long list)
@@ -151,6 +191,7 @@ function renderTable() {
       <td class="num ${cls}">${fmtMoney(t.amount)}</td>
       <td><span class="${badge}">${t.type}</span></td>
       <td>${t.time || ""}</td>
+      <td class="num">${fmtMoney(t.runningBalance ?? 0)}</td>
     </tr>`;
     })
     .join("");
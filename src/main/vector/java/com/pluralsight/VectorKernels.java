@@ -0,0 +1,122 @@
+package com.pluralsight;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+import java.util.Arrays;
+import java.util.function.IntPredicate;
+
+/**
+ * ColumnKernels on the JDK Vector API: each loop compares or adds a whole register of days/amounts at a time and
+ * turns the lane mask straight into bitmap bits. Lane counts are powers of two no larger than 64, so a chunk never
+ * straddles two bitmap words. Leftover rows after the last full vector are handled one at a time.
+ *
+ * Only compiled with -Pvector (this directory isn't a source root otherwise) and only loaded when the JVM has
+ * the incubator module: java --add-modules jdk.incubator.vector ...
+ */
+final class VectorKernels implements ColumnKernels {
+
+    private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Long> LONGS = LongVector.SPECIES_PREFERRED;
+
+    @Override
+    public void rangeMask(int[] epochDays, int count, int fromDay, int toDay, long[] bitmap) {
+        Arrays.fill(bitmap, 0, (count + 63) >>> 6, 0L);
+        int upper = INTS.loopBound(count);
+        for (int i = 0; i < upper; i += INTS.length()) {
+            IntVector days = IntVector.fromArray(INTS, epochDays, i);
+            VectorMask<Integer> inRange = days.compare(VectorOperators.GE, fromDay)
+                    .and(days.compare(VectorOperators.LE, toDay));
+            bitmap[i >>> 6] |= inRange.toLong() << (i & 63);
+        }
+        for (int i = upper; i < count; i++) {
+            int day = epochDays[i];
+            if (day >= fromDay && day <= toDay) bitmap[i >>> 6] |= 1L << (i & 63);
+        }
+    }
+
+    @Override
+    public void userMask(int[] userIds, int count, int userId, long[] bitmap) {
+        int upper = INTS.loopBound(count);
+        long lanes = (1L << INTS.length()) - 1;
+        for (int i = 0; i < upper; i += INTS.length()) {
+            int shift = i & 63;
+            if ((bitmap[i >>> 6] >>> shift & lanes) == 0) continue;
+            long keep = IntVector.fromArray(INTS, userIds, i).compare(VectorOperators.EQ, userId).toLong();
+            bitmap[i >>> 6] &= (keep << shift) | ~(lanes << shift);
+        }
+        clearTail(upper, count, bitmap, i -> userIds[i] != userId);
+    }
+
+    @Override
+    public void signMask(long[] cents, int count, int sign, long[] bitmap) {
+        int upper = LONGS.loopBound(count);
+        long lanes = (1L << LONGS.length()) - 1;
+        VectorOperators.Comparison keepIf = sign > 0 ? VectorOperators.GT : VectorOperators.LT;
+        for (int i = 0; i < upper; i += LONGS.length()) {
+            int shift = i & 63;
+            if ((bitmap[i >>> 6] >>> shift & lanes) == 0) continue;
+            long keep = LongVector.fromArray(LONGS, cents, i).compare(keepIf, 0).toLong();
+            bitmap[i >>> 6] &= (keep << shift) | ~(lanes << shift);
+        }
+        clearTail(upper, count, bitmap, i -> sign > 0 ? cents[i] <= 0 : cents[i] >= 0);
+    }
+
+    @Override
+    public void signedSums(long[] cents, int count, long[] bitmap, long[] out) {
+        int upper = LONGS.loopBound(count);
+        long credits = 0, debits = 0;
+        for (int i = 0; i < upper; i += LONGS.length()) {
+            long bits = bitmap[i >>> 6] >>> (i & 63);
+            if ((bits & ((1L << LONGS.length()) - 1)) == 0) continue;
+            VectorMask<Long> selected = VectorMask.fromLong(LONGS, bits);
+            LongVector amounts = LongVector.fromArray(LONGS, cents, i);
+            VectorMask<Long> negative = amounts.compare(VectorOperators.LT, 0);
+            credits += amounts.reduceLanes(VectorOperators.ADD, selected.and(negative));
+            debits += amounts.reduceLanes(VectorOperators.ADD, selected.andNot(negative));
+        }
+        for (int i = upper; i < count; i++) {
+            if ((bitmap[i >>> 6] >>> (i & 63) & 1) == 0) continue;
+            if (cents[i] < 0) credits += cents[i];
+            else debits += cents[i];
+        }
+        out[0] = credits;
+        out[1] = debits;
+    }
+
+    @Override
+    public void typeCounts(long[] cents, int count, long[] bitmap, long[] out) {
+        int upper = LONGS.loopBound(count);
+        long credits = 0, selectedCount = 0;
+        for (int i = 0; i < upper; i += LONGS.length()) {
+            long bits = bitmap[i >>> 6] >>> (i & 63);
+            if ((bits & ((1L << LONGS.length()) - 1)) == 0) continue;
+            VectorMask<Long> selected = VectorMask.fromLong(LONGS, bits);
+            VectorMask<Long> negative = LongVector.fromArray(LONGS, cents, i).compare(VectorOperators.LT, 0);
+            credits += selected.and(negative).trueCount();
+            selectedCount += selected.trueCount();
+        }
+        for (int i = upper; i < count; i++) {
+            if ((bitmap[i >>> 6] >>> (i & 63) & 1) == 0) continue;
+            selectedCount++;
+            if (cents[i] < 0) credits++;
+        }
+        out[0] = credits;
+        out[1] = selectedCount - credits;
+    }
+
+    // Scalar clean-up for the rows after the last full vector
+    private static void clearTail(int from, int count, long[] bitmap, IntPredicate drop) {
+        for (int i = from; i < count; i++) {
+            if (drop.test(i)) bitmap[i >>> 6] &= ~(1L << (i & 63));
+        }
+    }
+
+    @Override
+    public String name() {
+        return "vector-" + INTS.vectorBitSize() + "bit";
+    }
+}